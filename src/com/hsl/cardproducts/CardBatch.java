@@ -0,0 +1,457 @@
+/*
+ * CardBatch.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Class CardBatch decodes many travel card records into primitive column arrays.
+ * <p>
+ * Each card becomes one row: the value of a field for card {@code i} is element {@code i} of the field's column.
+ * The history columns have {@link #HISTORY_RECORDS} elements per card, the records of card {@code i} start at {@code i * HISTORY_RECORDS}.
+ * No objects are created per card, the columns can be passed to aggregations as they are.
+ * <p>
+ * The records are in the format of {@link TravelCardView}, both card versions are supported.
+ * The fields are extracted with the same generated decoders as in TravelCard, and the values follow the TravelCard getters,
+ * except that dates are raw en1545 days and times are minutes since 00:00 (without the 23:59:59 added to the period end on old cards).
+ * <p>
+ * A batch is not thread safe, use one instance per thread or fill it with {@link ParallelCardDecoder}.
+ */
+public class CardBatch
+{
+	/** The number of history records per card in the history columns. */
+	public static final int HISTORY_RECORDS = (TravelCardView.RECORD_LENGTH - TravelCardView.HISTORY_OFFSET) / CardLayouts.HISTORY_RECORD_LENGTH;
+
+	/** The maximum number of cards. */
+	private final int capacity;
+	/** The number of decoded cards. */
+	private int size;
+
+	//Columns
+	/** The card versions. */
+	private final byte[] version;
+	/** The first period's product code. */
+	private final int[] productCode1;
+	/** The first period's validity area type. */
+	private final int[] validityAreaType1;
+	/** The first period's validity area. */
+	private final int[] validityArea1;
+	/** The first period's start day. */
+	private final int[] periodStartDay1;
+	/** The first period's end day. */
+	private final int[] periodEndDay1;
+	/** The second period's product code. */
+	private final int[] productCode2;
+	/** The second period's validity area type. */
+	private final int[] validityAreaType2;
+	/** The second period's validity area. */
+	private final int[] validityArea2;
+	/** The second period's start day. */
+	private final int[] periodStartDay2;
+	/** The second period's end day. */
+	private final int[] periodEndDay2;
+	/** The stored value counter. */
+	private final int[] storedValue;
+	/** The value ticket's product code, the group product code if there is one. */
+	private final int[] valueTicketProductCode;
+	/** The value ticket's validity area. */
+	private final int[] valueTicketValidityArea;
+	/** The value ticket's validity end day, the group ticket's if there is one. */
+	private final int[] valueTicketValidityEndDay;
+	/** The value ticket's validity end time, the group ticket's if there is one. */
+	private final int[] valueTicketValidityEndTime;
+	/** The number of history records containing data. */
+	private final int[] historyLen;
+	/** The history prices, {@link #HISTORY_RECORDS} per card. */
+	private final int[] historyPrice;
+	/** The history group sizes, {@link #HISTORY_RECORDS} per card. */
+	private final int[] historyGroupSize;
+
+	/** The field values of the file being extracted. */
+	private final int[] fieldValues = new int[CardLayouts.MAX_FIELDS];
+	/** Copy of a record read from a ByteBuffer without an array. */
+	private final byte[] recordCopy = new byte[TravelCardView.RECORD_LENGTH];
+
+	/**
+	 * Instantiates a new batch.
+	 *
+	 * @param capacity the maximum number of cards
+	 */
+	public CardBatch(int capacity)
+	{
+		this.capacity = capacity;
+		version = new byte[capacity];
+		productCode1 = new int[capacity];
+		validityAreaType1 = new int[capacity];
+		validityArea1 = new int[capacity];
+		periodStartDay1 = new int[capacity];
+		periodEndDay1 = new int[capacity];
+		productCode2 = new int[capacity];
+		validityAreaType2 = new int[capacity];
+		validityArea2 = new int[capacity];
+		periodStartDay2 = new int[capacity];
+		periodEndDay2 = new int[capacity];
+		storedValue = new int[capacity];
+		valueTicketProductCode = new int[capacity];
+		valueTicketValidityArea = new int[capacity];
+		valueTicketValidityEndDay = new int[capacity];
+		valueTicketValidityEndTime = new int[capacity];
+		historyLen = new int[capacity];
+		historyPrice = new int[capacity * HISTORY_RECORDS];
+		historyGroupSize = new int[capacity * HISTORY_RECORDS];
+	}
+
+	/**
+	 * Removes all cards from the batch. The columns are reused.
+	 */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of decoded cards.
+	 *
+	 * @return the number of cards
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the maximum number of cards.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Decodes consecutive records of the same card version from a byte array and appends them to the batch.
+	 *
+	 * @param data the byte array
+	 * @param offset offset of the first record
+	 * @param count number of records
+	 * @param cardVersion version code for the cards (1 or 2)
+	 * @return the number of records decoded, less than {@code count} if the batch is full
+	 */
+	public int decode(byte[] data, int offset, int count, int cardVersion)
+	{
+		int n = Math.min(count, capacity - size);
+		for (int i = 0; i < n; i++)
+			decodeRecord(data, offset + i * TravelCardView.RECORD_LENGTH, cardVersion, size++);
+		return n;
+	}
+
+	/**
+	 * Decodes consecutive records of the same card version from a ByteBuffer and appends them to the batch.
+	 * The position and limit of the buffer are not used or changed.
+	 *
+	 * @param data the buffer
+	 * @param offset absolute offset of the first record
+	 * @param count number of records
+	 * @param cardVersion version code for the cards (1 or 2)
+	 * @return the number of records decoded, less than {@code count} if the batch is full
+	 */
+	public int decode(ByteBuffer data, int offset, int count, int cardVersion)
+	{
+		if (data.hasArray())
+			return decode(data.array(), data.arrayOffset() + offset, count, cardVersion);
+
+		int n = Math.min(count, capacity - size);
+		for (int i = 0; i < n; i++)
+		{
+			//absolute bulk get without changing the buffer's position
+			int recordOffset = offset + i * TravelCardView.RECORD_LENGTH;
+			for (int b = 0; b < recordCopy.length; b++)
+				recordCopy[b] = data.get(recordOffset + b);
+			decodeRecord(recordCopy, 0, cardVersion, size++);
+		}
+		return n;
+	}
+
+	/**
+	 * Decodes one record and appends it to the batch.
+	 *
+	 * @param data the byte array
+	 * @param offset offset of the record
+	 * @param cardVersion version code for the card (1 or 2)
+	 * @return false if the batch is full
+	 */
+	public boolean add(byte[] data, int offset, int cardVersion)
+	{
+		if (size >= capacity)
+			return false;
+		decodeRecord(data, offset, cardVersion, size++);
+		return true;
+	}
+
+	/**
+	 * Reserves rows for records decoded by other threads with {@link #decodeRecord(byte[], int, int, int, int[])}.
+	 *
+	 * @param count number of rows
+	 * @return the first reserved row
+	 * @throws IllegalArgumentException if the batch does not have room for the rows
+	 */
+	int reserve(int count)
+	{
+		if (count > capacity - size)
+			throw new IllegalArgumentException("Batch full: " + size + " + " + count + " > " + capacity);
+		int first = size;
+		size += count;
+		return first;
+	}
+
+	/**
+	 * Releases the rows from the given row on, after the records decoded to them by other threads failed.
+	 *
+	 * @param first the first row returned by {@link #reserve(int)}
+	 */
+	void release(int first)
+	{
+		size = first;
+	}
+
+	/**
+	 * Decodes a record to a row of the columns.
+	 *
+	 * @param d the byte array
+	 * @param o offset of the record
+	 * @param cardVersion version code for the card (1 or 2)
+	 * @param row the row
+	 */
+	private void decodeRecord(byte[] d, int o, int cardVersion, int row)
+	{
+		decodeRecord(d, o, cardVersion, row, fieldValues);
+	}
+
+	/**
+	 * Decodes a record to a row of the columns using the given array for the field values.
+	 * Different threads may decode different rows at the same time.
+	 *
+	 * @param d the byte array
+	 * @param o offset of the record
+	 * @param cardVersion version code for the card (1 or 2)
+	 * @param row the row
+	 * @param v array for the field values, at least {@code CardLayouts.MAX_FIELDS} long
+	 */
+	void decodeRecord(byte[] d, int o, int cardVersion, int row, int[] v)
+	{
+		version[row] = (byte) cardVersion;
+
+		//PeriodPass
+		if (cardVersion == 2)
+			LayoutDecoders.periodPassV2(d, o + TravelCardView.PERIOD_PASS_OFFSET, v);
+		else
+			LayoutDecoders.periodPassV1(d, o + TravelCardView.PERIOD_PASS_OFFSET, v);
+		productCode1[row] = v[CardLayouts.PP_PRODUCT_CODE1];
+		validityAreaType1[row] = v[CardLayouts.PP_VALIDITY_AREA_TYPE1];
+		validityArea1[row] = v[CardLayouts.PP_VALIDITY_AREA1];
+		periodStartDay1[row] = v[CardLayouts.PP_PERIOD_START_DATE1];
+		periodEndDay1[row] = v[CardLayouts.PP_PERIOD_END_DATE1];
+		productCode2[row] = v[CardLayouts.PP_PRODUCT_CODE2];
+		validityAreaType2[row] = v[CardLayouts.PP_VALIDITY_AREA_TYPE2];
+		validityArea2[row] = v[CardLayouts.PP_VALIDITY_AREA2];
+		periodStartDay2[row] = v[CardLayouts.PP_PERIOD_START_DATE2];
+		periodEndDay2[row] = v[CardLayouts.PP_PERIOD_END_DATE2];
+
+		//StoredValue
+		if (cardVersion == 2)
+			LayoutDecoders.storedValueV2(d, o + TravelCardView.STORED_VALUE_OFFSET, v);
+		else
+			LayoutDecoders.storedValueV1(d, o + TravelCardView.STORED_VALUE_OFFSET, v);
+		storedValue[row] = v[CardLayouts.SV_VALUE_COUNTER];
+
+		//eTicket, group values as in the eTicket getters
+		if (cardVersion == 2)
+			LayoutDecoders.eTicketV2(d, o + TravelCardView.ETICKET_OFFSET, v);
+		else
+			LayoutDecoders.eTicketV1(d, o + TravelCardView.ETICKET_OFFSET, v);
+		valueTicketProductCode[row] = v[CardLayouts.ET_PRODUCT_CODE_GROUP] > 0 ? v[CardLayouts.ET_PRODUCT_CODE_GROUP] : v[CardLayouts.ET_PRODUCT_CODE];
+		valueTicketValidityArea[row] = v[CardLayouts.ET_VALIDITY_AREA];
+		if (v[CardLayouts.ET_VALIDITY_END_DATE_GROUP] > 0 && v[CardLayouts.ET_VALIDITY_END_TIME_GROUP] > 0)
+		{
+			valueTicketValidityEndDay[row] = v[CardLayouts.ET_VALIDITY_END_DATE_GROUP];
+			valueTicketValidityEndTime[row] = v[CardLayouts.ET_VALIDITY_END_TIME_GROUP];
+		}
+		else
+		{
+			valueTicketValidityEndDay[row] = v[CardLayouts.ET_VALIDITY_END_DATE];
+			valueTicketValidityEndTime[row] = v[CardLayouts.ET_VALIDITY_END_TIME];
+		}
+
+		//History, records containing data packed to the beginning of the card's slots as in TravelCard
+		int count = 0;
+		int base = row * HISTORY_RECORDS;
+		for (int i = 0; i < HISTORY_RECORDS; i++)
+		{
+			int offset = o + TravelCardView.HISTORY_OFFSET + i * CardLayouts.HISTORY_RECORD_LENGTH;
+			if (d[offset + 1] == 0 && d[offset + 2] == 0 && d[offset + 3] == 0 && d[offset + 4] == 0)
+				continue;
+
+			if (cardVersion == 2)
+				LayoutDecoders.historyV2(d, offset, v);
+			else
+				LayoutDecoders.historyV1(d, offset, v);
+			historyPrice[base + count] = v[CardLayouts.HI_PRICE];
+			historyGroupSize[base + count] = v[CardLayouts.HI_GROUP_SIZE];
+			count++;
+		}
+		for (int i = count; i < HISTORY_RECORDS; i++)
+		{
+			historyPrice[base + i] = 0;
+			historyGroupSize[base + i] = 0;
+		}
+		historyLen[row] = count;
+	}
+
+	/**
+	 * Gets the card version column.
+	 *
+	 * @return the card versions
+	 */
+	public byte[] getVersion() { return version; }
+
+	/**
+	 * Gets the first period's product code column.
+	 *
+	 * @return the product codes
+	 */
+	public int[] getProductCode1() { return productCode1; }
+
+	/**
+	 * Gets the first period's validity area type column.
+	 *
+	 * @return the validity area types
+	 */
+	public int[] getValidityAreaType1() { return validityAreaType1; }
+
+	/**
+	 * Gets the first period's validity area column.
+	 *
+	 * @return the validity areas
+	 */
+	public int[] getValidityArea1() { return validityArea1; }
+
+	/**
+	 * Gets the first period's start day column.
+	 *
+	 * @return the start days in en1545 format (number of days since 1.1.1997)
+	 */
+	public int[] getPeriodStartDay1() { return periodStartDay1; }
+
+	/**
+	 * Gets the first period's end day column.
+	 *
+	 * @return the end days in en1545 format (number of days since 1.1.1997)
+	 */
+	public int[] getPeriodEndDay1() { return periodEndDay1; }
+
+	/**
+	 * Gets the second period's product code column.
+	 *
+	 * @return the product codes
+	 */
+	public int[] getProductCode2() { return productCode2; }
+
+	/**
+	 * Gets the second period's validity area type column.
+	 *
+	 * @return the validity area types
+	 */
+	public int[] getValidityAreaType2() { return validityAreaType2; }
+
+	/**
+	 * Gets the second period's validity area column.
+	 *
+	 * @return the validity areas
+	 */
+	public int[] getValidityArea2() { return validityArea2; }
+
+	/**
+	 * Gets the second period's start day column.
+	 *
+	 * @return the start days in en1545 format (number of days since 1.1.1997)
+	 */
+	public int[] getPeriodStartDay2() { return periodStartDay2; }
+
+	/**
+	 * Gets the second period's end day column.
+	 *
+	 * @return the end days in en1545 format (number of days since 1.1.1997)
+	 */
+	public int[] getPeriodEndDay2() { return periodEndDay2; }
+
+	/**
+	 * Gets the stored value column.
+	 *
+	 * @return the stored value counters
+	 */
+	public int[] getStoredValue() { return storedValue; }
+
+	/**
+	 * Gets the value ticket's product code column.
+	 *
+	 * @return the product codes
+	 */
+	public int[] getValueTicketProductCode() { return valueTicketProductCode; }
+
+	/**
+	 * Gets the value ticket's validity area column.
+	 *
+	 * @return the validity areas
+	 */
+	public int[] getValueTicketValidityArea() { return valueTicketValidityArea; }
+
+	/**
+	 * Gets the value ticket's validity end day column.
+	 *
+	 * @return the end days in en1545 format (number of days since 1.1.1997)
+	 */
+	public int[] getValueTicketValidityEndDay() { return valueTicketValidityEndDay; }
+
+	/**
+	 * Gets the value ticket's validity end time column.
+	 *
+	 * @return the end times in en1545 format (number of minutes since 00:00)
+	 */
+	public int[] getValueTicketValidityEndTime() { return valueTicketValidityEndTime; }
+
+	/**
+	 * Gets the column of the number of history records containing data.
+	 *
+	 * @return the history lengths
+	 */
+	public int[] getHistoryLen() { return historyLen; }
+
+	/**
+	 * Gets the history price column, {@link #HISTORY_RECORDS} elements per card.
+	 *
+	 * @return the history prices
+	 */
+	public int[] getHistoryPrice() { return historyPrice; }
+
+	/**
+	 * Gets the history group size column, {@link #HISTORY_RECORDS} elements per card.
+	 *
+	 * @return the history group sizes
+	 */
+	public int[] getHistoryGroupSize() { return historyGroupSize; }
+}
@@ -0,0 +1,475 @@
+/*
+ * CardLayouts.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import com.hsl.util.FileLayout;
+
+/**
+ * The CardLayouts class holds the field layouts of the HSL card files for old, TLJ2010 spec (v1) and new, TLJ2014 spec (v2) cards.
+ * <p>
+ * All versions of a file share the same slot numbers, so {@code TravelCard} and {@code eTicket} read the decoded values the same way for every card version.
+ * Supporting a new card generation only needs new layouts here.
+ */
+public final class CardLayouts
+{
+	private CardLayouts() {}
+
+	//ControlInformation file slots
+	/** The application status. */
+	public static final int CI_APP_STATUS = 0;
+	/** The number of ControlInformation slots. */
+	public static final int CONTROL_INFO_FIELDS = 1;
+
+	//PeriodPass file slots
+	/** The product code type of the first period. */
+	public static final int PP_PRODUCT_CODE_TYPE1 = 0;
+	/** The product code of the first period. */
+	public static final int PP_PRODUCT_CODE1 = 1;
+	/** The validity area type of the first period. */
+	public static final int PP_VALIDITY_AREA_TYPE1 = 2;
+	/** The validity area of the first period. */
+	public static final int PP_VALIDITY_AREA1 = 3;
+	/** The start date of the first period. */
+	public static final int PP_PERIOD_START_DATE1 = 4;
+	/** The end date of the first period. */
+	public static final int PP_PERIOD_END_DATE1 = 5;
+	/** The product code type of the second period. */
+	public static final int PP_PRODUCT_CODE_TYPE2 = 6;
+	/** The product code of the second period. */
+	public static final int PP_PRODUCT_CODE2 = 7;
+	/** The validity area type of the second period. */
+	public static final int PP_VALIDITY_AREA_TYPE2 = 8;
+	/** The validity area of the second period. */
+	public static final int PP_VALIDITY_AREA2 = 9;
+	/** The start date of the second period. */
+	public static final int PP_PERIOD_START_DATE2 = 10;
+	/** The end date of the second period. */
+	public static final int PP_PERIOD_END_DATE2 = 11;
+	/** The product type of the last loaded period. */
+	public static final int PP_LOADED_PERIOD_PRODUCT_TYPE = 12;
+	/** The product of the last loaded period. */
+	public static final int PP_LOADED_PERIOD_PRODUCT = 13;
+	/** The date of the last period loading. */
+	public static final int PP_PERIOD_LOADING_DATE = 14;
+	/** The time of the last period loading. */
+	public static final int PP_PERIOD_LOADING_TIME = 15;
+	/** The length of the last loaded period. */
+	public static final int PP_LOADED_PERIOD_LENGTH = 16;
+	/** The price of the last loaded period. */
+	public static final int PP_LOADED_PERIOD_PRICE = 17;
+	/** The organization of the last period loading. */
+	public static final int PP_PERIOD_LOADING_ORGANIZATION = 18;
+	/** The device number of the last period loading. */
+	public static final int PP_PERIOD_LOADING_DEVICE_NUMBER = 19;
+	/** The date of the last boarding. */
+	public static final int PP_BOARDING_DATE = 20;
+	/** The time of the last boarding. */
+	public static final int PP_BOARDING_TIME = 21;
+	/** The vehicle of the last boarding. */
+	public static final int PP_BOARDING_VEHICLE = 22;
+	/** The location number type of the last boarding. */
+	public static final int PP_BOARDING_LOCATION_NUM_TYPE = 23;
+	/** The location number of the last boarding. */
+	public static final int PP_BOARDING_LOCATION_NUM = 24;
+	/** The direction of the last boarding. */
+	public static final int PP_BOARDING_DIRECTION = 25;
+	/** The area type of the last boarding. */
+	public static final int PP_BOARDING_AREA_TYPE = 26;
+	/** The area of the last boarding. */
+	public static final int PP_BOARDING_AREA = 27;
+	/** The number of PeriodPass slots. */
+	public static final int PERIOD_PASS_FIELDS = 28;
+
+	//StoredValue file slots
+	/** The stored value counter. */
+	public static final int SV_VALUE_COUNTER = 0;
+	/** The number of StoredValue slots. */
+	public static final int STORED_VALUE_FIELDS = 1;
+
+	//eTicket slots
+	/** The product code. */
+	public static final int ET_PRODUCT_CODE = 0;
+	/** The product code for group ticket. */
+	public static final int ET_PRODUCT_CODE_GROUP = 1;
+	/** The child ticket flag. */
+	public static final int ET_CHILD = 2;
+	/** The language code. */
+	public static final int ET_LANGUAGE_CODE = 3;
+	/** The validity length type. */
+	public static final int ET_VALIDITY_LENGTH_TYPE = 4;
+	/** The validity length. */
+	public static final int ET_VALIDITY_LENGTH = 5;
+	/** The validity length type for group ticket. */
+	public static final int ET_VALIDITY_LENGTH_TYPE_GROUP = 6;
+	/** The validity length for group ticket. */
+	public static final int ET_VALIDITY_LENGTH_GROUP = 7;
+	/** The validity area type. */
+	public static final int ET_VALIDITY_AREA_TYPE = 8;
+	/** The validity area. */
+	public static final int ET_VALIDITY_AREA = 9;
+	/** The sale date. */
+	public static final int ET_SALE_DATE = 10;
+	/** The sale time. */
+	public static final int ET_SALE_TIME = 11;
+	/** The ticket fare. */
+	public static final int ET_TICKET_FARE = 12;
+	/** The ticket fare for group ticket. */
+	public static final int ET_TICKET_FARE_GROUP = 13;
+	/** The group size. */
+	public static final int ET_GROUP_SIZE = 14;
+	/** The extra zone flag. */
+	public static final int ET_EXTRA_ZONE = 15;
+	/** The period pass validity area of extra zone ticket. */
+	public static final int ET_EXT_PERIOD_PASS_VALIDITY_AREA = 16;
+	/** The product code of extra zone ticket. */
+	public static final int ET_EXT_PRODUCT_CODE = 17;
+	/** The validity area of extra zone ticket's 1st part. */
+	public static final int ET_EXT1_VALIDITY_AREA = 18;
+	/** The fare of extra zone ticket's 1st part. */
+	public static final int ET_EXT1_FARE = 19;
+	/** The validity area of extra zone ticket's 2nd part. */
+	public static final int ET_EXT2_VALIDITY_AREA = 20;
+	/** The fare of extra zone ticket's 2nd part. */
+	public static final int ET_EXT2_FARE = 21;
+	/** The sale status. */
+	public static final int ET_SALE_STATUS = 22;
+	/** The validity start date. */
+	public static final int ET_VALIDITY_START_DATE = 23;
+	/** The validity start time. */
+	public static final int ET_VALIDITY_START_TIME = 24;
+	/** The validity end date. */
+	public static final int ET_VALIDITY_END_DATE = 25;
+	/** The validity end time. */
+	public static final int ET_VALIDITY_END_TIME = 26;
+	/** The validity end date for group ticket. */
+	public static final int ET_VALIDITY_END_DATE_GROUP = 27;
+	/** The validity end time for group ticket. */
+	public static final int ET_VALIDITY_END_TIME_GROUP = 28;
+	/** The validity status. */
+	public static final int ET_VALIDITY_STATUS = 29;
+	/** The boarding date. */
+	public static final int ET_BOARDING_DATE = 30;
+	/** The boarding time. */
+	public static final int ET_BOARDING_TIME = 31;
+	/** The boarding vehicle. */
+	public static final int ET_BOARDING_VEHICLE = 32;
+	/** The boarding location number type. */
+	public static final int ET_BOARDING_LOCATION_NUM_TYPE = 33;
+	/** The boarding location number. */
+	public static final int ET_BOARDING_LOCATION_NUM = 34;
+	/** The boarding direction. */
+	public static final int ET_BOARDING_DIRECTION = 35;
+	/** The boarding area. */
+	public static final int ET_BOARDING_AREA = 36;
+	/** The number of eTicket slots. */
+	public static final int ETICKET_FIELDS = 37;
+
+	//History record slots
+	/** The transaction type (0 = season journey, 1 = value ticket). */
+	public static final int HI_TRANSACTION_TYPE = 0;
+	/** The boarding date. */
+	public static final int HI_BOARDING_DATE = 1;
+	/** The boarding time. */
+	public static final int HI_BOARDING_TIME = 2;
+	/** The transfer end date. */
+	public static final int HI_TRANSFER_END_DATE = 3;
+	/** The transfer end time. */
+	public static final int HI_TRANSFER_END_TIME = 4;
+	/** The value ticket price. */
+	public static final int HI_PRICE = 5;
+	/** The value ticket group size. */
+	public static final int HI_GROUP_SIZE = 6;
+	/** The number of History record slots. */
+	public static final int HISTORY_FIELDS = 7;
+	/** The length of one History record in bytes. */
+	public static final int HISTORY_RECORD_LENGTH = 12;
+
+	/** The largest number of slots in any layout. */
+	public static final int MAX_FIELDS = ETICKET_FIELDS;
+
+	private static final int N = FileLayout.TYPE_NUMBER;
+	private static final int D = FileLayout.TYPE_DATE;
+	private static final int T = FileLayout.TYPE_TIME;
+
+	/** ControlInformation file of old, TLJ2010 spec card. */
+	public static final FileLayout CONTROL_INFO_V1 = new FileLayout.Builder("ControlInformation v1", 6, CONTROL_INFO_FIELDS)
+			.field(CI_APP_STATUS,						"appStatus",					14,  1, N)
+			.build();
+
+	/** ControlInformation file of new, TLJ2014 spec card. */
+	public static final FileLayout CONTROL_INFO_V2 = new FileLayout.Builder("ControlInformation v2", 10, CONTROL_INFO_FIELDS)
+			.field(CI_APP_STATUS,						"appStatus",					14,  1, N)
+			.build();
+
+	/** PeriodPass file of old, TLJ2010 spec card. */
+	public static final FileLayout PERIOD_PASS_V1 = new FileLayout.Builder("PeriodPass v1", 32, PERIOD_PASS_FIELDS)
+			.field(PP_PRODUCT_CODE1,					"productCode1",					0,	14, N)
+			.field(PP_VALIDITY_AREA_TYPE1,				"validityAreaType1",			14,	 1, N)
+			.field(PP_VALIDITY_AREA1,					"validityArea1",				15,	 4, N)
+			.field(PP_PERIOD_START_DATE1,				"periodStartDate1",				19,	14, D)
+			.field(PP_PERIOD_END_DATE1,					"periodEndDate1",				33,	14, D)
+			.field(PP_PRODUCT_CODE2,					"productCode2",					48,	14, N)
+			.field(PP_VALIDITY_AREA_TYPE2,				"validityAreaType2",			62,	 1, N)
+			.field(PP_VALIDITY_AREA2,					"validityArea2",				63,	 4, N)
+			.field(PP_PERIOD_START_DATE2,				"periodStartDate2",				67,	14, D)
+			.field(PP_PERIOD_END_DATE2,					"periodEndDate2",				81,	14, D)
+			.field(PP_LOADED_PERIOD_PRODUCT,			"loadedPeriodProduct",			96,	14, N)
+			.field(PP_PERIOD_LOADING_DATE,				"periodLoadingDate",			110, 14, D)
+			.field(PP_PERIOD_LOADING_TIME,				"periodLoadingTime",			124, 11, T)
+			.field(PP_LOADED_PERIOD_LENGTH,				"loadedPeriodLength",			135,  9, N)
+			.field(PP_LOADED_PERIOD_PRICE,				"loadedPeriodPrice",			144, 20, N)
+			.field(PP_PERIOD_LOADING_ORGANIZATION,		"periodLoadingOrganization",	164, 14, N)
+			.field(PP_PERIOD_LOADING_DEVICE_NUMBER,		"periodLoadingDeviceNumber",	178, 14, N)
+			.field(PP_BOARDING_DATE,					"boardingDate",					192, 14, D)
+			.field(PP_BOARDING_TIME,					"boardingTime",					206, 11, T)
+			.field(PP_BOARDING_VEHICLE,					"boardingVehicle",				217, 14, N)
+			.field(PP_BOARDING_LOCATION_NUM_TYPE,		"boardingLocationNumType",		231,  2, N)
+			.field(PP_BOARDING_LOCATION_NUM,			"boardingLocationNum",			233, 14, N)
+			.field(PP_BOARDING_DIRECTION,				"boardingDirection",			247,  1, N)
+			.field(PP_BOARDING_AREA,					"boardingArea",					248,  4, N)
+			.build();
+
+	/** PeriodPass file of new, TLJ2014 spec card. */
+	public static final FileLayout PERIOD_PASS_V2 = new FileLayout.Builder("PeriodPass v2", 35, PERIOD_PASS_FIELDS)
+			.field(PP_PRODUCT_CODE_TYPE1,				"productCodeType1",				0,	 1, N)
+			.field(PP_PRODUCT_CODE1,					"productCode1",					1,	14, N)
+			.field(PP_VALIDITY_AREA_TYPE1,				"validityAreaType1",			15,	 2, N)
+			.field(PP_VALIDITY_AREA1,					"validityArea1",				17,	 6, N)
+			.field(PP_PERIOD_START_DATE1,				"periodStartDate1",				23,	14, D)
+			.field(PP_PERIOD_END_DATE1,					"periodEndDate1",				37,	14, D)
+			.field(PP_PRODUCT_CODE_TYPE2,				"productCodeType2",				56,	 1, N)
+			.field(PP_PRODUCT_CODE2,					"productCode2",					57,	14, N)
+			.field(PP_VALIDITY_AREA_TYPE2,				"validityAreaType2",			71,	 2, N)
+			.field(PP_VALIDITY_AREA2,					"validityArea2",				73,	 6, N)
+			.field(PP_PERIOD_START_DATE2,				"periodStartDate2",				79,	14, D)
+			.field(PP_PERIOD_END_DATE2,					"periodEndDate2",				93,	14, D)
+			.field(PP_LOADED_PERIOD_PRODUCT_TYPE,		"loadedPeriodProductType",		112,  1, N)
+			.field(PP_LOADED_PERIOD_PRODUCT,			"loadedPeriodProduct",			113, 14, N)
+			.field(PP_PERIOD_LOADING_DATE,				"periodLoadingDate",			127, 14, D)
+			.field(PP_PERIOD_LOADING_TIME,				"periodLoadingTime",			141, 11, T)
+			.field(PP_LOADED_PERIOD_LENGTH,				"loadedPeriodLength",			152,  9, N)
+			.field(PP_LOADED_PERIOD_PRICE,				"loadedPeriodPrice",			161, 20, N)
+			.field(PP_PERIOD_LOADING_ORGANIZATION,		"periodLoadingOrganization",	181, 14, N)
+			.field(PP_PERIOD_LOADING_DEVICE_NUMBER,		"periodLoadingDeviceNumber",	195, 13, N)
+			.field(PP_BOARDING_DATE,					"boardingDate",					208, 14, D)
+			.field(PP_BOARDING_TIME,					"boardingTime",					222, 11, T)
+			.field(PP_BOARDING_VEHICLE,					"boardingVehicle",				233, 14, N)
+			.field(PP_BOARDING_LOCATION_NUM_TYPE,		"boardingLocationNumType",		247,  2, N)
+			.field(PP_BOARDING_LOCATION_NUM,			"boardingLocationNum",			249, 14, N)
+			.field(PP_BOARDING_DIRECTION,				"boardingDirection",			263,  1, N)
+			.field(PP_BOARDING_AREA_TYPE,				"boardingAreaType",				264,  2, N)
+			.field(PP_BOARDING_AREA,					"boardingArea",					266,  6, N)
+			.build();
+
+	/** StoredValue file of old, TLJ2010 spec card. */
+	public static final FileLayout STORED_VALUE_V1 = new FileLayout.Builder("StoredValue v1", 12, STORED_VALUE_FIELDS)
+			.field(SV_VALUE_COUNTER,					"valueCounter",					0,	20, N)
+			.build();
+
+	/** StoredValue file of new, TLJ2014 spec card. */
+	public static final FileLayout STORED_VALUE_V2 = new FileLayout.Builder("StoredValue v2", 13, STORED_VALUE_FIELDS)
+			.field(SV_VALUE_COUNTER,					"valueCounter",					0,	20, N)
+			.build();
+
+	/** eTicket file of old, TLJ2010 spec travel card. */
+	public static final FileLayout ETICKET_V1 = eTicketV1("eTicket v1", 26, 0);
+
+	/** eTicket of old, TLJ2010 spec single ticket, which has a 6 byte seal before the validity fields. */
+	public static final FileLayout ETICKET_V1_SINGLE = eTicketV1("eTicket v1 single ticket", 41, 48);
+
+	/** eTicket file of new, TLJ2014 spec travel card. */
+	public static final FileLayout ETICKET_V2 = new FileLayout.Builder("eTicket v2", 45, ETICKET_FIELDS)
+			.field(ET_PRODUCT_CODE,						"productCode",					1,	14, N)
+			.field(ET_PRODUCT_CODE_GROUP,				"productCodeGroup",				15,	14, N)
+			.field(ET_LANGUAGE_CODE,					"languageCode",					39,	 2, N)
+			.field(ET_VALIDITY_LENGTH_TYPE,				"validityLengthType",			41,	 2, N)
+			.field(ET_VALIDITY_LENGTH,					"validityLength",				43,	 8, N)
+			.field(ET_VALIDITY_LENGTH_TYPE_GROUP,		"validityLengthTypeGroup",		51,	 2, N)
+			.field(ET_VALIDITY_LENGTH_GROUP,			"validityLengthGroup",			53,	 8, N)
+			.field(ET_VALIDITY_AREA_TYPE,				"validityAreaType",				61,	 2, N)
+			.field(ET_VALIDITY_AREA,					"validityArea",					63,	 6, N)
+			.field(ET_SALE_DATE,						"saleDate",						69,	14, D)
+			.field(ET_SALE_TIME,						"saleTime",						83,	 5, N)
+			.field(ET_TICKET_FARE,						"ticketFare",					105, 14, N)
+			.field(ET_TICKET_FARE_GROUP,				"ticketFareGroup",				119, 14, N)
+			.field(ET_GROUP_SIZE,						"groupSize",					133,  6, N)
+			.field(ET_EXTRA_ZONE,						"extraZone",					139,  1, N)
+			.field(ET_EXT_PERIOD_PASS_VALIDITY_AREA,	"extPeriodPassValidityArea",	140,  6, N)
+			.field(ET_EXT_PRODUCT_CODE,					"extProductCode",				146, 14, N)
+			.field(ET_EXT1_VALIDITY_AREA,				"ext1ValidityArea",				160,  6, N)
+			.field(ET_EXT1_FARE,						"ext1Fare",						166, 14, N)
+			.field(ET_EXT2_VALIDITY_AREA,				"ext2ValidityArea",				180,  6, N)
+			.field(ET_EXT2_FARE,						"ext2Fare",						186, 14, N)
+			.field(ET_SALE_STATUS,						"saleStatus",					200,  1, N)
+			.field(ET_VALIDITY_START_DATE,				"validityStartDate",			205, 14, D)
+			.field(ET_VALIDITY_START_TIME,				"validityStartTime",			219, 11, T)
+			.field(ET_VALIDITY_END_DATE,				"validityEndDate",				230, 14, D)
+			.field(ET_VALIDITY_END_TIME,				"validityEndTime",				244, 11, T)
+			.field(ET_VALIDITY_END_DATE_GROUP,			"validityEndDateGroup",			255, 14, D)
+			.field(ET_VALIDITY_END_TIME_GROUP,			"validityEndTimeGroup",			269, 11, T)
+			.field(ET_VALIDITY_STATUS,					"validityStatus",				285,  1, N)
+			.field(ET_BOARDING_DATE,					"boardingDate",					286, 14, D)
+			.field(ET_BOARDING_TIME,					"boardingTime",					300, 11, T)
+			.field(ET_BOARDING_VEHICLE,					"boardingVehicle",				311, 14, N)
+			.field(ET_BOARDING_LOCATION_NUM_TYPE,		"boardingLocationNumType",		325,  2, N)
+			.field(ET_BOARDING_LOCATION_NUM,			"boardingLocationNum",			327, 14, N)
+			.field(ET_BOARDING_DIRECTION,				"boardingDirection",			341,  1, N)
+			.field(ET_BOARDING_AREA,					"boardingArea",					344,  6, N)
+			.build();
+
+	/** eTicket of new, TLJ2014 spec single ticket. */
+	public static final FileLayout ETICKET_V2_SINGLE = new FileLayout.Builder("eTicket v2 single ticket", 41, ETICKET_FIELDS)
+			.field(ET_PRODUCT_CODE,						"productCode",					0,	10, N)
+			.field(ET_CHILD,							"child",						10,	 1, N)
+			.field(ET_LANGUAGE_CODE,					"languageCode",					11,	 2, N)
+			.field(ET_VALIDITY_LENGTH_TYPE,				"validityLengthType",			13,	 2, N)
+			.field(ET_VALIDITY_LENGTH,					"validityLength",				15,	 8, N)
+			.field(ET_VALIDITY_AREA_TYPE,				"validityAreaType",				23,	 2, N)
+			.field(ET_VALIDITY_AREA,					"validityArea",					25,	 6, N)
+			.field(ET_SALE_DATE,						"saleDate",						31,	14, D)
+			.field(ET_SALE_TIME,						"saleTime",						45,	 5, N)
+			.field(ET_TICKET_FARE,						"ticketFare",					67,	15, N)
+			.field(ET_GROUP_SIZE,						"groupSize",					82,	 6, N)
+			// SEAL1 6 bytes, 48 bits
+			.field(ET_VALIDITY_START_DATE,				"validityStartDate",			136, 14, D)
+			.field(ET_VALIDITY_START_TIME,				"validityStartTime",			150, 11, T)
+			.field(ET_VALIDITY_END_DATE,				"validityEndDate",				161, 14, D)
+			.field(ET_VALIDITY_END_TIME,				"validityEndTime",				175, 11, T)
+			// RFU 1.75 bytes, 14 bits
+			// SEAL2 8 bytes, 64 bits
+			.field(ET_BOARDING_DATE,					"boardingDate",					264, 14, D)
+			.field(ET_BOARDING_TIME,					"boardingTime",					278, 11, T)
+			.field(ET_BOARDING_VEHICLE,					"boardingVehicle",				289, 14, N)
+			.field(ET_BOARDING_LOCATION_NUM_TYPE,		"boardingLocationNumType",		303,  2, N)
+			.field(ET_BOARDING_DIRECTION,				"boardingDirection",			319,  1, N)
+			.build();
+
+	/** History record of old, TLJ2010 spec card. The boarding date is not stored, it is derived from the transfer end date. */
+	public static final FileLayout HISTORY_V1 = new FileLayout.Builder("History v1", HISTORY_RECORD_LENGTH, HISTORY_FIELDS)
+			.field(HI_TRANSACTION_TYPE,					"transactionType",				0,	 1, N)
+			.field(HI_BOARDING_TIME,					"boardingTime",					15,	11, T)
+			.field(HI_TRANSFER_END_DATE,				"transferEndDate",				26,	14, D)
+			.field(HI_TRANSFER_END_TIME,				"transferEndTime",				40,	11, T)
+			.field(HI_PRICE,							"price",						51,	14, N)
+			.field(HI_GROUP_SIZE,						"groupSize",					65,	 5, N)
+			.build();
+
+	/** History record of new, TLJ2014 spec card. */
+	public static final FileLayout HISTORY_V2 = new FileLayout.Builder("History v2", HISTORY_RECORD_LENGTH, HISTORY_FIELDS)
+			.field(HI_TRANSACTION_TYPE,					"transactionType",				0,	 1, N)
+			.field(HI_BOARDING_DATE,					"boardingDate",					1,	14, D)
+			.field(HI_BOARDING_TIME,					"boardingTime",					15,	11, T)
+			.field(HI_TRANSFER_END_DATE,				"transferEndDate",				26,	14, D)
+			.field(HI_TRANSFER_END_TIME,				"transferEndTime",				40,	11, T)
+			.field(HI_PRICE,							"price",						51,	14, N)
+			.field(HI_GROUP_SIZE,						"groupSize",					65,	 6, N)
+			.build();
+
+	/**
+	 * Builds the eTicket layout of old, TLJ2010 spec card.
+	 *
+	 * @param name the name of the layout
+	 * @param length the length of the eTicket data in bytes
+	 * @param seal the length of the seal before the validity fields in bits (0 on travel cards)
+	 * @return the eTicket layout
+	 */
+	private static FileLayout eTicketV1(String name, int length, int seal)
+	{
+		return new FileLayout.Builder(name, length, ETICKET_FIELDS)
+				.field(ET_PRODUCT_CODE,					"productCode",					0,	14, N)
+				.field(ET_CHILD,						"child",						14,	 1, N)
+				.field(ET_LANGUAGE_CODE,				"languageCode",					15,	 2, N)
+				.field(ET_VALIDITY_LENGTH_TYPE,			"validityLengthType",			17,	 2, N)
+				.field(ET_VALIDITY_LENGTH,				"validityLength",				19,	 8, N)
+				.field(ET_VALIDITY_AREA_TYPE,			"validityAreaType",				27,	 1, N)
+				.field(ET_VALIDITY_AREA,				"validityArea",					28,	 4, N)
+				.field(ET_SALE_DATE,					"saleDate",						32,	14, D)
+				.field(ET_SALE_TIME,					"saleTime",						46,	 5, N)
+				.field(ET_TICKET_FARE,					"ticketFare",					68,	14, N)
+				.field(ET_GROUP_SIZE,					"groupSize",					82,	 5, N)
+				.field(ET_SALE_STATUS,					"saleStatus",					87,	 1, N)
+				.field(ET_VALIDITY_START_DATE,			"validityStartDate",			88 + seal,	14, D)
+				.field(ET_VALIDITY_START_TIME,			"validityStartTime",			102 + seal, 11, T)
+				.field(ET_VALIDITY_END_DATE,			"validityEndDate",				113 + seal, 14, D)
+				.field(ET_VALIDITY_END_TIME,			"validityEndTime",				127 + seal, 11, T)
+				.field(ET_VALIDITY_STATUS,				"validityStatus",				143 + seal,  1, N)
+				.field(ET_BOARDING_DATE,				"boardingDate",					144 + seal, 14, D)
+				.field(ET_BOARDING_TIME,				"boardingTime",					158 + seal, 11, T)
+				.field(ET_BOARDING_VEHICLE,				"boardingVehicle",				169 + seal, 14, N)
+				.field(ET_BOARDING_LOCATION_NUM_TYPE,	"boardingLocationNumType",		183 + seal,  2, N)
+				.field(ET_BOARDING_LOCATION_NUM,		"boardingLocationNum",			185 + seal, 14, N)
+				.field(ET_BOARDING_DIRECTION,			"boardingDirection",			199 + seal,  1, N)
+				.field(ET_BOARDING_AREA,				"boardingArea",					200 + seal,  4, N)
+				.build();
+	}
+
+	/**
+	 * Gets the PeriodPass layout for the card version.
+	 *
+	 * @param version 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @return the PeriodPass layout
+	 */
+	public static FileLayout periodPass(int version) {
+		return version == 2 ? PERIOD_PASS_V2 : PERIOD_PASS_V1;
+	}
+
+	/**
+	 * Gets the ControlInformation layout for the card version.
+	 *
+	 * @param version 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @return the ControlInformation layout
+	 */
+	public static FileLayout controlInfo(int version) {
+		return version == 2 ? CONTROL_INFO_V2 : CONTROL_INFO_V1;
+	}
+
+	/**
+	 * Gets the StoredValue layout for the card version.
+	 *
+	 * @param version 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @return the StoredValue layout
+	 */
+	public static FileLayout storedValue(int version) {
+		return version == 2 ? STORED_VALUE_V2 : STORED_VALUE_V1;
+	}
+
+	/**
+	 * Gets the History record layout for the card version.
+	 *
+	 * @param version 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @return the History record layout
+	 */
+	public static FileLayout history(int version) {
+		return version == 2 ? HISTORY_V2 : HISTORY_V1;
+	}
+
+	/**
+	 * Gets the eTicket layout.
+	 *
+	 * @param version 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @param containsSeals tells if the data is from single ticket on old spec card (seal before the validity fields)
+	 * @param isSingleTicket tells if the data is from single ticket on new spec card
+	 * @return the eTicket layout
+	 */
+	public static FileLayout eTicket(int version, boolean containsSeals, boolean isSingleTicket) {
+		if (version == 1)
+			return containsSeals ? ETICKET_V1_SINGLE : ETICKET_V1;
+		return isSingleTicket ? ETICKET_V2_SINGLE : ETICKET_V2;
+	}
+}
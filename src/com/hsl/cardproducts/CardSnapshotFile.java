@@ -0,0 +1,408 @@
+/*
+ * CardSnapshotFile.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The Class CardSnapshotFile stores raw travel card reads in a binary file of fixed-size entries.
+ * <p>
+ * The file starts with a header of {@link #HEADER_LENGTH} bytes:
+ * <pre>
+ *  0  int   magic, "HSLC"
+ *  4  short format version, {@link #FORMAT_VERSION}
+ *  6  short header length
+ *  8  int   entry length
+ * 12  int   reserved
+ * 16  long  number of entries
+ * 24  long  creation time, milliseconds since 1.1.1970
+ * </pre>
+ * Entry {@code n} starts at {@code HEADER_LENGTH + n * ENTRY_LENGTH}:
+ * <pre>
+ *  0  byte  card version (1 or 2)
+ *  1  3     reserved
+ *  4  int   ordinal of the entry
+ *  8  long  read time, milliseconds since 1.1.1970
+ * 16  210   the six files of the card in the record format of {@link TravelCardView}
+ * </pre>
+ * All numbers are big-endian.
+ * <p>
+ * Entries are read from memory-mapped segments of {@link #SEGMENT_ENTRIES} entries, so any entry can be reached by its ordinal
+ * without parsing or copying, for example with {@link #view(long, TravelCardView)}. The mapped buffers are read-only.
+ * A file opened for appending maps whole segments, extending the file with zeros up to the end of the segment,
+ * so entries appended later are reached without mapping again. The entry count in the header is updated
+ * after the entry has been written, so an interrupted append leaves the earlier entries intact, and bytes after
+ * the counted entries are ignored.
+ * <p>
+ * Reading is thread safe. Appends are serialized, and entries appended while other threads read become visible to them after the append returns.
+ */
+public class CardSnapshotFile implements Closeable
+{
+	/** The magic number at the start of the file, "HSLC". */
+	public static final int MAGIC = 0x48534C43;
+	/** The version of the file format. */
+	public static final int FORMAT_VERSION = 1;
+	/** The length of the file header. */
+	public static final int HEADER_LENGTH = 32;
+	/** The offset of the card version in an entry. */
+	public static final int VERSION_OFFSET = 0;
+	/** The offset of the ordinal in an entry. */
+	public static final int ORDINAL_OFFSET = 4;
+	/** The offset of the read time in an entry. */
+	public static final int READ_TIME_OFFSET = 8;
+	/** The offset of the card record in an entry. */
+	public static final int RECORD_OFFSET = 16;
+	/** The length of an entry. */
+	public static final int ENTRY_LENGTH = RECORD_OFFSET + TravelCardView.RECORD_LENGTH;
+	/** The number of entries in one mapped segment. */
+	public static final int SEGMENT_ENTRIES = 1 << 16;
+
+	/** The offset of the entry count in the header. */
+	private static final int COUNT_OFFSET = 16;
+	/** The offset of the creation time in the header. */
+	private static final int CREATED_OFFSET = 24;
+
+	/** The open file. */
+	private final RandomAccessFile file;
+	/** The channel of the file. */
+	private final FileChannel channel;
+	/** True if entries can be appended. */
+	private final boolean writable;
+	/** The creation time of the file. */
+	private final long created;
+	/** The number of entries. */
+	private volatile long size;
+	/** The mapped segments, null for a segment not mapped yet. Replaced as a whole when a segment is mapped. */
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+	/** The buffer for writing an entry. */
+	private final byte[] entry = new byte[ENTRY_LENGTH];
+	/** The buffer for writing the entry count. */
+	private final ByteBuffer countBuffer = ByteBuffer.allocate(8);
+
+	/**
+	 * Opens a snapshot file for reading.
+	 *
+	 * @param path the file
+	 * @return the opened file
+	 * @throws IOException if the file cannot be read or is not a snapshot file
+	 */
+	public static CardSnapshotFile openForReading(File path) throws IOException
+	{
+		return new CardSnapshotFile(new RandomAccessFile(path, "r"), false);
+	}
+
+	/**
+	 * Opens a snapshot file for reading and appending. A missing or empty file is initialized with a header.
+	 *
+	 * @param path the file
+	 * @return the opened file
+	 * @throws IOException if the file cannot be opened or is not a snapshot file
+	 */
+	public static CardSnapshotFile openForAppending(File path) throws IOException
+	{
+		return new CardSnapshotFile(new RandomAccessFile(path, "rw"), true);
+	}
+
+	/**
+	 * Instantiates a new snapshot file and reads or writes its header.
+	 *
+	 * @param file the open file
+	 * @param writable true if entries can be appended
+	 * @throws IOException if the file cannot be read or is not a snapshot file
+	 */
+	private CardSnapshotFile(RandomAccessFile file, boolean writable) throws IOException
+	{
+		this.file = file;
+		this.channel = file.getChannel();
+		this.writable = writable;
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			if (writable && channel.size() == 0)
+			{
+				created = System.currentTimeMillis();
+				header.putInt(MAGIC).putShort((short) FORMAT_VERSION).putShort((short) HEADER_LENGTH).putInt(ENTRY_LENGTH).putInt(0)
+						.putLong(0).putLong(created);
+				header.flip();
+				writeFully(header, 0);
+				size = 0;
+				return;
+			}
+
+			readFully(header, 0);
+			if (header.getInt(0) != MAGIC)
+				throw new IOException("Not a card snapshot file");
+			if (header.getShort(4) != FORMAT_VERSION || header.getShort(6) != HEADER_LENGTH || header.getInt(8) != ENTRY_LENGTH)
+				throw new IOException("Unsupported card snapshot format " + header.getShort(4) + "/" + header.getShort(6) + "/" + header.getInt(8));
+
+			long count = header.getLong(COUNT_OFFSET);
+			if (count < 0 || HEADER_LENGTH + count * ENTRY_LENGTH > channel.size())
+				throw new IOException("Truncated card snapshot file, " + count + " entries in " + channel.size() + " bytes");
+			size = count;
+			created = header.getLong(CREATED_OFFSET);
+		}
+		catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public long size() { return size; }
+
+	/**
+	 * Gets the creation time of the file.
+	 *
+	 * @return milliseconds since 1.1.1970
+	 */
+	public long getCreated() { return created; }
+
+	/**
+	 * Appends the files of a card read.
+	 * The lengths of the byte arrays have to be at least the lengths of the files of the card version, as in the TravelCard constructor.
+	 *
+	 * @param appInfo data from the ApplicationInformation file
+	 * @param ctrlInfo data from the ControlInformation file
+	 * @param periodPass data from the PeriodPass file
+	 * @param storedValue data from the StoredValue file
+	 * @param eTicket data from the eTicket file
+	 * @param history data from the History file, up to 96 bytes
+	 * @param version version code for card (1 or 2)
+	 * @param readTime time of the read, milliseconds since 1.1.1970
+	 * @return the ordinal of the appended entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized long append(byte[] appInfo, byte[] ctrlInfo, byte[] periodPass, byte[] storedValue, byte[] eTicket, byte[] history,
+			int version, long readTime) throws IOException
+	{
+		TravelCardView.writeRecord(appInfo, ctrlInfo, periodPass, storedValue, eTicket, history, version, entry, RECORD_OFFSET);
+		return appendEntry(version, readTime);
+	}
+
+	/**
+	 * Appends a card record in the format of {@link TravelCardView}.
+	 *
+	 * @param record the byte array
+	 * @param offset offset of the record in the array
+	 * @param version version code for card (1 or 2)
+	 * @param readTime time of the read, milliseconds since 1.1.1970
+	 * @return the ordinal of the appended entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized long append(byte[] record, int offset, int version, long readTime) throws IOException
+	{
+		System.arraycopy(record, offset, entry, RECORD_OFFSET, TravelCardView.RECORD_LENGTH);
+		return appendEntry(version, readTime);
+	}
+
+	/**
+	 * Writes the entry header and the entry from the entry buffer, then the new entry count.
+	 *
+	 * @param version version code for card (1 or 2)
+	 * @param readTime time of the read, milliseconds since 1.1.1970
+	 * @return the ordinal of the appended entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long appendEntry(int version, long readTime) throws IOException
+	{
+		if (!writable)
+			throw new IOException("Card snapshot file opened for reading");
+
+		long ordinal = size;
+		ByteBuffer buffer = ByteBuffer.wrap(entry);
+		buffer.put(VERSION_OFFSET, (byte) version).put(1, (byte) 0).put(2, (byte) 0).put(3, (byte) 0)
+				.putInt(ORDINAL_OFFSET, (int) ordinal).putLong(READ_TIME_OFFSET, readTime);
+		writeFully(buffer, position(ordinal));
+
+		countBuffer.clear();
+		countBuffer.putLong(0, ordinal + 1);
+		writeFully(countBuffer, COUNT_OFFSET);
+
+		size = ordinal + 1;
+		return ordinal;
+	}
+
+	/**
+	 * Forces the appended entries to the storage device.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void flush() throws IOException
+	{
+		channel.force(false);
+	}
+
+	/**
+	 * Gets the read-only mapped buffer containing an entry. The buffer is shared, read it with absolute gets only.
+	 *
+	 * @param ordinal ordinal of the entry
+	 * @return the buffer
+	 * @throws IOException if the segment cannot be mapped
+	 */
+	public ByteBuffer buffer(long ordinal) throws IOException
+	{
+		if (ordinal < 0 || ordinal >= size)
+			throw new IndexOutOfBoundsException("Entry " + ordinal + " of " + size);
+
+		int index = (int) (ordinal / SEGMENT_ENTRIES);
+		int needed = (int) (ordinal % SEGMENT_ENTRIES) + 1;
+		MappedByteBuffer[] current = segments;
+		if (index < current.length && current[index] != null && current[index].capacity() >= needed * ENTRY_LENGTH)
+			return current[index];
+		return map(index, needed);
+	}
+
+	/**
+	 * Gets the offset of an entry in its buffer.
+	 *
+	 * @param ordinal ordinal of the entry
+	 * @return offset of the entry in the buffer returned by {@link #buffer(long)}
+	 */
+	public int entryOffset(long ordinal)
+	{
+		return (int) (ordinal % SEGMENT_ENTRIES) * ENTRY_LENGTH;
+	}
+
+	/**
+	 * Gets the card version of an entry.
+	 *
+	 * @param ordinal ordinal of the entry
+	 * @return the card version
+	 * @throws IOException if the segment cannot be mapped
+	 */
+	public int getVersion(long ordinal) throws IOException
+	{
+		return buffer(ordinal).get(entryOffset(ordinal) + VERSION_OFFSET);
+	}
+
+	/**
+	 * Gets the read time of an entry.
+	 *
+	 * @param ordinal ordinal of the entry
+	 * @return milliseconds since 1.1.1970
+	 * @throws IOException if the segment cannot be mapped
+	 */
+	public long getReadTime(long ordinal) throws IOException
+	{
+		return buffer(ordinal).getLong(entryOffset(ordinal) + READ_TIME_OFFSET);
+	}
+
+	/**
+	 * Points a view to the card record of an entry. Nothing is copied.
+	 *
+	 * @param ordinal ordinal of the entry
+	 * @param view the view to point, one per thread
+	 * @return the view
+	 * @throws IOException if the segment cannot be mapped
+	 */
+	public TravelCardView view(long ordinal, TravelCardView view) throws IOException
+	{
+		ByteBuffer buffer = buffer(ordinal);
+		int offset = entryOffset(ordinal);
+		return view.wrap(buffer, offset + RECORD_OFFSET, buffer.get(offset + VERSION_OFFSET));
+	}
+
+	/**
+	 * Maps a segment, or maps it again if it has grown since it was mapped. Only a file opened for reading can have a partial segment.
+	 *
+	 * @param index index of the segment
+	 * @param needed number of entries the mapping has to contain
+	 * @return the mapped segment
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private synchronized MappedByteBuffer map(int index, int needed) throws IOException
+	{
+		MappedByteBuffer[] current = segments;
+		if (index < current.length && current[index] != null && current[index].capacity() >= needed * ENTRY_LENGTH)
+			return current[index];
+
+		//a file being appended to is extended to the whole segment, to avoid mapping again for each appended entry
+		long first = (long) index * SEGMENT_ENTRIES;
+		int entries = writable ? SEGMENT_ENTRIES : (int) Math.min(SEGMENT_ENTRIES, size - first);
+		long end = position(first + entries);
+		if (writable && channel.size() < end)
+			file.setLength(end);
+		MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, position(first), (long) entries * ENTRY_LENGTH);
+
+		MappedByteBuffer[] next = new MappedByteBuffer[Math.max(current.length, index + 1)];
+		System.arraycopy(current, 0, next, 0, current.length);
+		next[index] = segment;
+		segments = next;
+		return segment;
+	}
+
+	/**
+	 * Gets the file position of an entry.
+	 *
+	 * @param ordinal ordinal of the entry
+	 * @return the file position
+	 */
+	private static long position(long ordinal)
+	{
+		return HEADER_LENGTH + ordinal * ENTRY_LENGTH;
+	}
+
+	/**
+	 * Reads bytes until the buffer is full.
+	 *
+	 * @param buffer the buffer
+	 * @param position the file position
+	 * @throws IOException if the file ends before the buffer is full
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0)
+				throw new IOException("Not a card snapshot file");
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of the buffer.
+	 *
+	 * @param buffer the buffer
+	 * @param position the file position
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+			channel.write(buffer, position + buffer.position());
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		segments = new MappedByteBuffer[0];
+		file.close();
+	}
+}
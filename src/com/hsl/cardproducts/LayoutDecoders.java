@@ -0,0 +1,385 @@
+/*
+ * LayoutDecoders.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+/**
+ * The LayoutDecoders class contains a straight-line decoder for each layout in {@code CardLayouts}.
+ * <p>
+ * Each method gives the same values as {@code FileLayout.decode} of the corresponding layout.
+ * <p>
+ * Generated by com.hsl.tools.DecoderGenerator from CardLayouts. Do not edit.
+ */
+public final class LayoutDecoders
+{
+	private LayoutDecoders() {}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.CONTROL_INFO_V1} (ControlInformation v1).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void controlInfoV1(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 1] & 0xFF) >>> 1) & 0x1; // appStatus
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.CONTROL_INFO_V2} (ControlInformation v2).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void controlInfoV2(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 1] & 0xFF) >>> 1) & 0x1; // appStatus
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.PERIOD_PASS_V1} (PeriodPass v1).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void periodPassV1(byte[] d, int o, int[] v)
+	{
+		v[0] = 0;
+		v[1] = ((d[o + 0] & 0xFF) << 6) | ((d[o + 1] & 0xFF) >>> 2); // productCode1
+		v[2] = ((d[o + 1] & 0xFF) >>> 1) & 0x1; // validityAreaType1
+		v[3] = (((d[o + 1] & 0xFF) << 3) | ((d[o + 2] & 0xFF) >>> 5)) & 0xF; // validityArea1
+		v[4] = (((d[o + 2] & 0xFF) << 9) | ((d[o + 3] & 0xFF) << 1) | ((d[o + 4] & 0xFF) >>> 7)) & 0x3FFF; // periodStartDate1
+		v[5] = (((d[o + 4] & 0xFF) << 7) | ((d[o + 5] & 0xFF) >>> 1)) & 0x3FFF; // periodEndDate1
+		v[6] = 0;
+		v[7] = ((d[o + 6] & 0xFF) << 6) | ((d[o + 7] & 0xFF) >>> 2); // productCode2
+		v[8] = ((d[o + 7] & 0xFF) >>> 1) & 0x1; // validityAreaType2
+		v[9] = (((d[o + 7] & 0xFF) << 3) | ((d[o + 8] & 0xFF) >>> 5)) & 0xF; // validityArea2
+		v[10] = (((d[o + 8] & 0xFF) << 9) | ((d[o + 9] & 0xFF) << 1) | ((d[o + 10] & 0xFF) >>> 7)) & 0x3FFF; // periodStartDate2
+		v[11] = (((d[o + 10] & 0xFF) << 7) | ((d[o + 11] & 0xFF) >>> 1)) & 0x3FFF; // periodEndDate2
+		v[12] = 0;
+		v[13] = ((d[o + 12] & 0xFF) << 6) | ((d[o + 13] & 0xFF) >>> 2); // loadedPeriodProduct
+		v[14] = (((d[o + 13] & 0xFF) << 12) | ((d[o + 14] & 0xFF) << 4) | ((d[o + 15] & 0xFF) >>> 4)) & 0x3FFF; // periodLoadingDate
+		v[15] = (((d[o + 15] & 0xFF) << 7) | ((d[o + 16] & 0xFF) >>> 1)) & 0x7FF; // periodLoadingTime
+		v[16] = (((d[o + 16] & 0xFF) << 8) | (d[o + 17] & 0xFF)) & 0x1FF; // loadedPeriodLength
+		v[17] = ((d[o + 18] & 0xFF) << 12) | ((d[o + 19] & 0xFF) << 4) | ((d[o + 20] & 0xFF) >>> 4); // loadedPeriodPrice
+		v[18] = (((d[o + 20] & 0xFF) << 10) | ((d[o + 21] & 0xFF) << 2) | ((d[o + 22] & 0xFF) >>> 6)) & 0x3FFF; // periodLoadingOrganization
+		v[19] = (((d[o + 22] & 0xFF) << 8) | (d[o + 23] & 0xFF)) & 0x3FFF; // periodLoadingDeviceNumber
+		v[20] = ((d[o + 24] & 0xFF) << 6) | ((d[o + 25] & 0xFF) >>> 2); // boardingDate
+		v[21] = (((d[o + 25] & 0xFF) << 9) | ((d[o + 26] & 0xFF) << 1) | ((d[o + 27] & 0xFF) >>> 7)) & 0x7FF; // boardingTime
+		v[22] = (((d[o + 27] & 0xFF) << 7) | ((d[o + 28] & 0xFF) >>> 1)) & 0x3FFF; // boardingVehicle
+		v[23] = (((d[o + 28] & 0xFF) << 1) | ((d[o + 29] & 0xFF) >>> 7)) & 0x3; // boardingLocationNumType
+		v[24] = (((d[o + 29] & 0xFF) << 7) | ((d[o + 30] & 0xFF) >>> 1)) & 0x3FFF; // boardingLocationNum
+		v[25] = (d[o + 30] & 0xFF) & 0x1; // boardingDirection
+		v[26] = 0;
+		v[27] = ((d[o + 31] & 0xFF) >>> 4); // boardingArea
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.PERIOD_PASS_V2} (PeriodPass v2).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void periodPassV2(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) >>> 7); // productCodeType1
+		v[1] = (((d[o + 0] & 0xFF) << 7) | ((d[o + 1] & 0xFF) >>> 1)) & 0x3FFF; // productCode1
+		v[2] = (((d[o + 1] & 0xFF) << 1) | ((d[o + 2] & 0xFF) >>> 7)) & 0x3; // validityAreaType1
+		v[3] = ((d[o + 2] & 0xFF) >>> 1) & 0x3F; // validityArea1
+		v[4] = (((d[o + 2] & 0xFF) << 13) | ((d[o + 3] & 0xFF) << 5) | ((d[o + 4] & 0xFF) >>> 3)) & 0x3FFF; // periodStartDate1
+		v[5] = (((d[o + 4] & 0xFF) << 11) | ((d[o + 5] & 0xFF) << 3) | ((d[o + 6] & 0xFF) >>> 5)) & 0x3FFF; // periodEndDate1
+		v[6] = ((d[o + 7] & 0xFF) >>> 7); // productCodeType2
+		v[7] = (((d[o + 7] & 0xFF) << 7) | ((d[o + 8] & 0xFF) >>> 1)) & 0x3FFF; // productCode2
+		v[8] = (((d[o + 8] & 0xFF) << 1) | ((d[o + 9] & 0xFF) >>> 7)) & 0x3; // validityAreaType2
+		v[9] = ((d[o + 9] & 0xFF) >>> 1) & 0x3F; // validityArea2
+		v[10] = (((d[o + 9] & 0xFF) << 13) | ((d[o + 10] & 0xFF) << 5) | ((d[o + 11] & 0xFF) >>> 3)) & 0x3FFF; // periodStartDate2
+		v[11] = (((d[o + 11] & 0xFF) << 11) | ((d[o + 12] & 0xFF) << 3) | ((d[o + 13] & 0xFF) >>> 5)) & 0x3FFF; // periodEndDate2
+		v[12] = ((d[o + 14] & 0xFF) >>> 7); // loadedPeriodProductType
+		v[13] = (((d[o + 14] & 0xFF) << 7) | ((d[o + 15] & 0xFF) >>> 1)) & 0x3FFF; // loadedPeriodProduct
+		v[14] = (((d[o + 15] & 0xFF) << 13) | ((d[o + 16] & 0xFF) << 5) | ((d[o + 17] & 0xFF) >>> 3)) & 0x3FFF; // periodLoadingDate
+		v[15] = (((d[o + 17] & 0xFF) << 8) | (d[o + 18] & 0xFF)) & 0x7FF; // periodLoadingTime
+		v[16] = ((d[o + 19] & 0xFF) << 1) | ((d[o + 20] & 0xFF) >>> 7); // loadedPeriodLength
+		v[17] = (((d[o + 20] & 0xFF) << 13) | ((d[o + 21] & 0xFF) << 5) | ((d[o + 22] & 0xFF) >>> 3)) & 0xFFFFF; // loadedPeriodPrice
+		v[18] = (((d[o + 22] & 0xFF) << 11) | ((d[o + 23] & 0xFF) << 3) | ((d[o + 24] & 0xFF) >>> 5)) & 0x3FFF; // periodLoadingOrganization
+		v[19] = (((d[o + 24] & 0xFF) << 8) | (d[o + 25] & 0xFF)) & 0x1FFF; // periodLoadingDeviceNumber
+		v[20] = ((d[o + 26] & 0xFF) << 6) | ((d[o + 27] & 0xFF) >>> 2); // boardingDate
+		v[21] = (((d[o + 27] & 0xFF) << 9) | ((d[o + 28] & 0xFF) << 1) | ((d[o + 29] & 0xFF) >>> 7)) & 0x7FF; // boardingTime
+		v[22] = (((d[o + 29] & 0xFF) << 7) | ((d[o + 30] & 0xFF) >>> 1)) & 0x3FFF; // boardingVehicle
+		v[23] = (((d[o + 30] & 0xFF) << 1) | ((d[o + 31] & 0xFF) >>> 7)) & 0x3; // boardingLocationNumType
+		v[24] = (((d[o + 31] & 0xFF) << 7) | ((d[o + 32] & 0xFF) >>> 1)) & 0x3FFF; // boardingLocationNum
+		v[25] = (d[o + 32] & 0xFF) & 0x1; // boardingDirection
+		v[26] = ((d[o + 33] & 0xFF) >>> 6); // boardingAreaType
+		v[27] = (d[o + 33] & 0xFF) & 0x3F; // boardingArea
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.STORED_VALUE_V1} (StoredValue v1).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void storedValueV1(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) << 12) | ((d[o + 1] & 0xFF) << 4) | ((d[o + 2] & 0xFF) >>> 4); // valueCounter
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.STORED_VALUE_V2} (StoredValue v2).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void storedValueV2(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) << 12) | ((d[o + 1] & 0xFF) << 4) | ((d[o + 2] & 0xFF) >>> 4); // valueCounter
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.ETICKET_V1} (eTicket v1).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void eTicketV1(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) << 6) | ((d[o + 1] & 0xFF) >>> 2); // productCode
+		v[1] = 0;
+		v[2] = ((d[o + 1] & 0xFF) >>> 1) & 0x1; // child
+		v[3] = (((d[o + 1] & 0xFF) << 1) | ((d[o + 2] & 0xFF) >>> 7)) & 0x3; // languageCode
+		v[4] = ((d[o + 2] & 0xFF) >>> 5) & 0x3; // validityLengthType
+		v[5] = (((d[o + 2] & 0xFF) << 3) | ((d[o + 3] & 0xFF) >>> 5)) & 0xFF; // validityLength
+		v[6] = 0;
+		v[7] = 0;
+		v[8] = ((d[o + 3] & 0xFF) >>> 4) & 0x1; // validityAreaType
+		v[9] = (d[o + 3] & 0xFF) & 0xF; // validityArea
+		v[10] = ((d[o + 4] & 0xFF) << 6) | ((d[o + 5] & 0xFF) >>> 2); // saleDate
+		v[11] = (((d[o + 5] & 0xFF) << 3) | ((d[o + 6] & 0xFF) >>> 5)) & 0x1F; // saleTime
+		v[12] = (((d[o + 8] & 0xFF) << 10) | ((d[o + 9] & 0xFF) << 2) | ((d[o + 10] & 0xFF) >>> 6)) & 0x3FFF; // ticketFare
+		v[13] = 0;
+		v[14] = ((d[o + 10] & 0xFF) >>> 1) & 0x1F; // groupSize
+		v[15] = 0;
+		v[16] = 0;
+		v[17] = 0;
+		v[18] = 0;
+		v[19] = 0;
+		v[20] = 0;
+		v[21] = 0;
+		v[22] = (d[o + 10] & 0xFF) & 0x1; // saleStatus
+		v[23] = ((d[o + 11] & 0xFF) << 6) | ((d[o + 12] & 0xFF) >>> 2); // validityStartDate
+		v[24] = (((d[o + 12] & 0xFF) << 9) | ((d[o + 13] & 0xFF) << 1) | ((d[o + 14] & 0xFF) >>> 7)) & 0x7FF; // validityStartTime
+		v[25] = (((d[o + 14] & 0xFF) << 7) | ((d[o + 15] & 0xFF) >>> 1)) & 0x3FFF; // validityEndDate
+		v[26] = (((d[o + 15] & 0xFF) << 10) | ((d[o + 16] & 0xFF) << 2) | ((d[o + 17] & 0xFF) >>> 6)) & 0x7FF; // validityEndTime
+		v[27] = 0;
+		v[28] = 0;
+		v[29] = (d[o + 17] & 0xFF) & 0x1; // validityStatus
+		v[30] = ((d[o + 18] & 0xFF) << 6) | ((d[o + 19] & 0xFF) >>> 2); // boardingDate
+		v[31] = (((d[o + 19] & 0xFF) << 9) | ((d[o + 20] & 0xFF) << 1) | ((d[o + 21] & 0xFF) >>> 7)) & 0x7FF; // boardingTime
+		v[32] = (((d[o + 21] & 0xFF) << 7) | ((d[o + 22] & 0xFF) >>> 1)) & 0x3FFF; // boardingVehicle
+		v[33] = (((d[o + 22] & 0xFF) << 1) | ((d[o + 23] & 0xFF) >>> 7)) & 0x3; // boardingLocationNumType
+		v[34] = (((d[o + 23] & 0xFF) << 7) | ((d[o + 24] & 0xFF) >>> 1)) & 0x3FFF; // boardingLocationNum
+		v[35] = (d[o + 24] & 0xFF) & 0x1; // boardingDirection
+		v[36] = ((d[o + 25] & 0xFF) >>> 4); // boardingArea
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.ETICKET_V1_SINGLE} (eTicket v1 single ticket).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void eTicketV1Single(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) << 6) | ((d[o + 1] & 0xFF) >>> 2); // productCode
+		v[1] = 0;
+		v[2] = ((d[o + 1] & 0xFF) >>> 1) & 0x1; // child
+		v[3] = (((d[o + 1] & 0xFF) << 1) | ((d[o + 2] & 0xFF) >>> 7)) & 0x3; // languageCode
+		v[4] = ((d[o + 2] & 0xFF) >>> 5) & 0x3; // validityLengthType
+		v[5] = (((d[o + 2] & 0xFF) << 3) | ((d[o + 3] & 0xFF) >>> 5)) & 0xFF; // validityLength
+		v[6] = 0;
+		v[7] = 0;
+		v[8] = ((d[o + 3] & 0xFF) >>> 4) & 0x1; // validityAreaType
+		v[9] = (d[o + 3] & 0xFF) & 0xF; // validityArea
+		v[10] = ((d[o + 4] & 0xFF) << 6) | ((d[o + 5] & 0xFF) >>> 2); // saleDate
+		v[11] = (((d[o + 5] & 0xFF) << 3) | ((d[o + 6] & 0xFF) >>> 5)) & 0x1F; // saleTime
+		v[12] = (((d[o + 8] & 0xFF) << 10) | ((d[o + 9] & 0xFF) << 2) | ((d[o + 10] & 0xFF) >>> 6)) & 0x3FFF; // ticketFare
+		v[13] = 0;
+		v[14] = ((d[o + 10] & 0xFF) >>> 1) & 0x1F; // groupSize
+		v[15] = 0;
+		v[16] = 0;
+		v[17] = 0;
+		v[18] = 0;
+		v[19] = 0;
+		v[20] = 0;
+		v[21] = 0;
+		v[22] = (d[o + 10] & 0xFF) & 0x1; // saleStatus
+		v[23] = ((d[o + 17] & 0xFF) << 6) | ((d[o + 18] & 0xFF) >>> 2); // validityStartDate
+		v[24] = (((d[o + 18] & 0xFF) << 9) | ((d[o + 19] & 0xFF) << 1) | ((d[o + 20] & 0xFF) >>> 7)) & 0x7FF; // validityStartTime
+		v[25] = (((d[o + 20] & 0xFF) << 7) | ((d[o + 21] & 0xFF) >>> 1)) & 0x3FFF; // validityEndDate
+		v[26] = (((d[o + 21] & 0xFF) << 10) | ((d[o + 22] & 0xFF) << 2) | ((d[o + 23] & 0xFF) >>> 6)) & 0x7FF; // validityEndTime
+		v[27] = 0;
+		v[28] = 0;
+		v[29] = (d[o + 23] & 0xFF) & 0x1; // validityStatus
+		v[30] = ((d[o + 24] & 0xFF) << 6) | ((d[o + 25] & 0xFF) >>> 2); // boardingDate
+		v[31] = (((d[o + 25] & 0xFF) << 9) | ((d[o + 26] & 0xFF) << 1) | ((d[o + 27] & 0xFF) >>> 7)) & 0x7FF; // boardingTime
+		v[32] = (((d[o + 27] & 0xFF) << 7) | ((d[o + 28] & 0xFF) >>> 1)) & 0x3FFF; // boardingVehicle
+		v[33] = (((d[o + 28] & 0xFF) << 1) | ((d[o + 29] & 0xFF) >>> 7)) & 0x3; // boardingLocationNumType
+		v[34] = (((d[o + 29] & 0xFF) << 7) | ((d[o + 30] & 0xFF) >>> 1)) & 0x3FFF; // boardingLocationNum
+		v[35] = (d[o + 30] & 0xFF) & 0x1; // boardingDirection
+		v[36] = ((d[o + 31] & 0xFF) >>> 4); // boardingArea
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.ETICKET_V2} (eTicket v2).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void eTicketV2(byte[] d, int o, int[] v)
+	{
+		v[0] = (((d[o + 0] & 0xFF) << 7) | ((d[o + 1] & 0xFF) >>> 1)) & 0x3FFF; // productCode
+		v[1] = (((d[o + 1] & 0xFF) << 13) | ((d[o + 2] & 0xFF) << 5) | ((d[o + 3] & 0xFF) >>> 3)) & 0x3FFF; // productCodeGroup
+		v[2] = 0;
+		v[3] = (((d[o + 4] & 0xFF) << 1) | ((d[o + 5] & 0xFF) >>> 7)) & 0x3; // languageCode
+		v[4] = ((d[o + 5] & 0xFF) >>> 5) & 0x3; // validityLengthType
+		v[5] = (((d[o + 5] & 0xFF) << 3) | ((d[o + 6] & 0xFF) >>> 5)) & 0xFF; // validityLength
+		v[6] = ((d[o + 6] & 0xFF) >>> 3) & 0x3; // validityLengthTypeGroup
+		v[7] = (((d[o + 6] & 0xFF) << 5) | ((d[o + 7] & 0xFF) >>> 3)) & 0xFF; // validityLengthGroup
+		v[8] = ((d[o + 7] & 0xFF) >>> 1) & 0x3; // validityAreaType
+		v[9] = (((d[o + 7] & 0xFF) << 5) | ((d[o + 8] & 0xFF) >>> 3)) & 0x3F; // validityArea
+		v[10] = (((d[o + 8] & 0xFF) << 11) | ((d[o + 9] & 0xFF) << 3) | ((d[o + 10] & 0xFF) >>> 5)) & 0x3FFF; // saleDate
+		v[11] = (d[o + 10] & 0xFF) & 0x1F; // saleTime
+		v[12] = (((d[o + 13] & 0xFF) << 7) | ((d[o + 14] & 0xFF) >>> 1)) & 0x3FFF; // ticketFare
+		v[13] = (((d[o + 14] & 0xFF) << 13) | ((d[o + 15] & 0xFF) << 5) | ((d[o + 16] & 0xFF) >>> 3)) & 0x3FFF; // ticketFareGroup
+		v[14] = (((d[o + 16] & 0xFF) << 3) | ((d[o + 17] & 0xFF) >>> 5)) & 0x3F; // groupSize
+		v[15] = ((d[o + 17] & 0xFF) >>> 4) & 0x1; // extraZone
+		v[16] = (((d[o + 17] & 0xFF) << 2) | ((d[o + 18] & 0xFF) >>> 6)) & 0x3F; // extPeriodPassValidityArea
+		v[17] = (((d[o + 18] & 0xFF) << 8) | (d[o + 19] & 0xFF)) & 0x3FFF; // extProductCode
+		v[18] = ((d[o + 20] & 0xFF) >>> 2); // ext1ValidityArea
+		v[19] = (((d[o + 20] & 0xFF) << 12) | ((d[o + 21] & 0xFF) << 4) | ((d[o + 22] & 0xFF) >>> 4)) & 0x3FFF; // ext1Fare
+		v[20] = (((d[o + 22] & 0xFF) << 2) | ((d[o + 23] & 0xFF) >>> 6)) & 0x3F; // ext2ValidityArea
+		v[21] = (((d[o + 23] & 0xFF) << 8) | (d[o + 24] & 0xFF)) & 0x3FFF; // ext2Fare
+		v[22] = ((d[o + 25] & 0xFF) >>> 7); // saleStatus
+		v[23] = (((d[o + 25] & 0xFF) << 11) | ((d[o + 26] & 0xFF) << 3) | ((d[o + 27] & 0xFF) >>> 5)) & 0x3FFF; // validityStartDate
+		v[24] = (((d[o + 27] & 0xFF) << 6) | ((d[o + 28] & 0xFF) >>> 2)) & 0x7FF; // validityStartTime
+		v[25] = (((d[o + 28] & 0xFF) << 12) | ((d[o + 29] & 0xFF) << 4) | ((d[o + 30] & 0xFF) >>> 4)) & 0x3FFF; // validityEndDate
+		v[26] = (((d[o + 30] & 0xFF) << 7) | ((d[o + 31] & 0xFF) >>> 1)) & 0x7FF; // validityEndTime
+		v[27] = (((d[o + 31] & 0xFF) << 13) | ((d[o + 32] & 0xFF) << 5) | ((d[o + 33] & 0xFF) >>> 3)) & 0x3FFF; // validityEndDateGroup
+		v[28] = (((d[o + 33] & 0xFF) << 8) | (d[o + 34] & 0xFF)) & 0x7FF; // validityEndTimeGroup
+		v[29] = ((d[o + 35] & 0xFF) >>> 2) & 0x1; // validityStatus
+		v[30] = (((d[o + 35] & 0xFF) << 12) | ((d[o + 36] & 0xFF) << 4) | ((d[o + 37] & 0xFF) >>> 4)) & 0x3FFF; // boardingDate
+		v[31] = (((d[o + 37] & 0xFF) << 7) | ((d[o + 38] & 0xFF) >>> 1)) & 0x7FF; // boardingTime
+		v[32] = (((d[o + 38] & 0xFF) << 13) | ((d[o + 39] & 0xFF) << 5) | ((d[o + 40] & 0xFF) >>> 3)) & 0x3FFF; // boardingVehicle
+		v[33] = ((d[o + 40] & 0xFF) >>> 1) & 0x3; // boardingLocationNumType
+		v[34] = (((d[o + 40] & 0xFF) << 13) | ((d[o + 41] & 0xFF) << 5) | ((d[o + 42] & 0xFF) >>> 3)) & 0x3FFF; // boardingLocationNum
+		v[35] = ((d[o + 42] & 0xFF) >>> 2) & 0x1; // boardingDirection
+		v[36] = ((d[o + 43] & 0xFF) >>> 2); // boardingArea
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.ETICKET_V2_SINGLE} (eTicket v2 single ticket).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void eTicketV2Single(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) << 2) | ((d[o + 1] & 0xFF) >>> 6); // productCode
+		v[1] = 0;
+		v[2] = ((d[o + 1] & 0xFF) >>> 5) & 0x1; // child
+		v[3] = ((d[o + 1] & 0xFF) >>> 3) & 0x3; // languageCode
+		v[4] = ((d[o + 1] & 0xFF) >>> 1) & 0x3; // validityLengthType
+		v[5] = (((d[o + 1] & 0xFF) << 7) | ((d[o + 2] & 0xFF) >>> 1)) & 0xFF; // validityLength
+		v[6] = 0;
+		v[7] = 0;
+		v[8] = (((d[o + 2] & 0xFF) << 1) | ((d[o + 3] & 0xFF) >>> 7)) & 0x3; // validityAreaType
+		v[9] = ((d[o + 3] & 0xFF) >>> 1) & 0x3F; // validityArea
+		v[10] = (((d[o + 3] & 0xFF) << 13) | ((d[o + 4] & 0xFF) << 5) | ((d[o + 5] & 0xFF) >>> 3)) & 0x3FFF; // saleDate
+		v[11] = (((d[o + 5] & 0xFF) << 2) | ((d[o + 6] & 0xFF) >>> 6)) & 0x1F; // saleTime
+		v[12] = (((d[o + 8] & 0xFF) << 10) | ((d[o + 9] & 0xFF) << 2) | ((d[o + 10] & 0xFF) >>> 6)) & 0x7FFF; // ticketFare
+		v[13] = 0;
+		v[14] = (d[o + 10] & 0xFF) & 0x3F; // groupSize
+		v[15] = 0;
+		v[16] = 0;
+		v[17] = 0;
+		v[18] = 0;
+		v[19] = 0;
+		v[20] = 0;
+		v[21] = 0;
+		v[22] = 0;
+		v[23] = ((d[o + 17] & 0xFF) << 6) | ((d[o + 18] & 0xFF) >>> 2); // validityStartDate
+		v[24] = (((d[o + 18] & 0xFF) << 9) | ((d[o + 19] & 0xFF) << 1) | ((d[o + 20] & 0xFF) >>> 7)) & 0x7FF; // validityStartTime
+		v[25] = (((d[o + 20] & 0xFF) << 7) | ((d[o + 21] & 0xFF) >>> 1)) & 0x3FFF; // validityEndDate
+		v[26] = (((d[o + 21] & 0xFF) << 10) | ((d[o + 22] & 0xFF) << 2) | ((d[o + 23] & 0xFF) >>> 6)) & 0x7FF; // validityEndTime
+		v[27] = 0;
+		v[28] = 0;
+		v[29] = 0;
+		v[30] = ((d[o + 33] & 0xFF) << 6) | ((d[o + 34] & 0xFF) >>> 2); // boardingDate
+		v[31] = (((d[o + 34] & 0xFF) << 9) | ((d[o + 35] & 0xFF) << 1) | ((d[o + 36] & 0xFF) >>> 7)) & 0x7FF; // boardingTime
+		v[32] = (((d[o + 36] & 0xFF) << 7) | ((d[o + 37] & 0xFF) >>> 1)) & 0x3FFF; // boardingVehicle
+		v[33] = (((d[o + 37] & 0xFF) << 1) | ((d[o + 38] & 0xFF) >>> 7)) & 0x3; // boardingLocationNumType
+		v[34] = 0;
+		v[35] = (d[o + 39] & 0xFF) & 0x1; // boardingDirection
+		v[36] = 0;
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.HISTORY_V1} (History v1).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void historyV1(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) >>> 7); // transactionType
+		v[1] = 0;
+		v[2] = (((d[o + 1] & 0xFF) << 10) | ((d[o + 2] & 0xFF) << 2) | ((d[o + 3] & 0xFF) >>> 6)) & 0x7FF; // boardingTime
+		v[3] = (((d[o + 3] & 0xFF) << 8) | (d[o + 4] & 0xFF)) & 0x3FFF; // transferEndDate
+		v[4] = ((d[o + 5] & 0xFF) << 3) | ((d[o + 6] & 0xFF) >>> 5); // transferEndTime
+		v[5] = (((d[o + 6] & 0xFF) << 9) | ((d[o + 7] & 0xFF) << 1) | ((d[o + 8] & 0xFF) >>> 7)) & 0x3FFF; // price
+		v[6] = ((d[o + 8] & 0xFF) >>> 2) & 0x1F; // groupSize
+	}
+
+	/**
+	 * Extracts the fields of {@code CardLayouts.HISTORY_V2} (History v2).
+	 *
+	 * @param d byte array containing the file data
+	 * @param o offset of the file in the byte array
+	 * @param v array for the field values, indexed by slot number
+	 */
+	public static void historyV2(byte[] d, int o, int[] v)
+	{
+		v[0] = ((d[o + 0] & 0xFF) >>> 7); // transactionType
+		v[1] = (((d[o + 0] & 0xFF) << 7) | ((d[o + 1] & 0xFF) >>> 1)) & 0x3FFF; // boardingDate
+		v[2] = (((d[o + 1] & 0xFF) << 10) | ((d[o + 2] & 0xFF) << 2) | ((d[o + 3] & 0xFF) >>> 6)) & 0x7FF; // boardingTime
+		v[3] = (((d[o + 3] & 0xFF) << 8) | (d[o + 4] & 0xFF)) & 0x3FFF; // transferEndDate
+		v[4] = ((d[o + 5] & 0xFF) << 3) | ((d[o + 6] & 0xFF) >>> 5); // transferEndTime
+		v[5] = (((d[o + 6] & 0xFF) << 9) | ((d[o + 7] & 0xFF) << 1) | ((d[o + 8] & 0xFF) >>> 7)) & 0x3FFF; // price
+		v[6] = ((d[o + 8] & 0xFF) >>> 1) & 0x3F; // groupSize
+	}
+}
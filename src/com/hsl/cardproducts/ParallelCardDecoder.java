@@ -0,0 +1,305 @@
+/*
+ * ParallelCardDecoder.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.hsl.util.MyLog;
+
+/**
+ * The Class ParallelCardDecoder decodes large sets of travel card records into a {@link CardBatch} with a fork/join pool.
+ * <p>
+ * The records are split in halves until a part is at most the chunk size, and the parts are decoded by the pool's worker threads,
+ * idle workers stealing parts from busy ones. Every record is written to the batch row of its position in the input,
+ * so the result is in input order without a separate merge. Each worker thread reuses its own field value array and record buffer.
+ * <p>
+ * The records are in the format of {@link TravelCardView}, one after another.
+ * When a decode finishes its throughput is logged at info level and returned as {@link Stats}.
+ * If the decode fails, the rows reserved for it are released and the batch keeps its previous size.
+ */
+public class ParallelCardDecoder implements Closeable
+{
+	/** The default number of records decoded by one task. */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	/** The pool running the tasks. */
+	private final ForkJoinPool pool;
+	/** The maximum number of records decoded by one task. */
+	private final int chunkSize;
+	/** True if the pool was created by this instance. */
+	private final boolean ownPool;
+
+	/** The reusable state of each worker thread. */
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * Instantiates a new decoder with its own pool of one worker per processor, to be stopped with {@link #close()}.
+	 */
+	public ParallelCardDecoder()
+	{
+		this(new ForkJoinPool(), DEFAULT_CHUNK_SIZE, true);
+	}
+
+	/**
+	 * Instantiates a new decoder.
+	 *
+	 * @param pool the pool to run the tasks in
+	 * @param chunkSize the maximum number of records decoded by one task
+	 */
+	public ParallelCardDecoder(ForkJoinPool pool, int chunkSize)
+	{
+		this(pool, chunkSize, false);
+	}
+
+	/**
+	 * Instantiates a new decoder.
+	 *
+	 * @param pool the pool to run the tasks in
+	 * @param chunkSize the maximum number of records decoded by one task
+	 * @param ownPool true if the pool is shut down by {@link #close()}
+	 */
+	private ParallelCardDecoder(ForkJoinPool pool, int chunkSize, boolean ownPool)
+	{
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		this.ownPool = ownPool;
+	}
+
+	/**
+	 * Decodes records from a byte array and appends them to the batch.
+	 *
+	 * @param records the byte array
+	 * @param offset offset of the first record
+	 * @param versions version code (1 or 2) of each record
+	 * @param count number of records
+	 * @param batch the batch to append to, it must have room for the records
+	 * @return the statistics of the decode
+	 */
+	public Stats decode(byte[] records, int offset, byte[] versions, int count, CardBatch batch)
+	{
+		return run(new DecodeTask(records, null, offset, versions, batch, batch.reserve(count), 0, count), count);
+	}
+
+	/**
+	 * Decodes records from a ByteBuffer, for example a memory-mapped dump file, and appends them to the batch.
+	 * The position and limit of the buffer are not used or changed.
+	 *
+	 * @param records the buffer
+	 * @param offset absolute offset of the first record
+	 * @param versions version code (1 or 2) of each record
+	 * @param count number of records
+	 * @param batch the batch to append to, it must have room for the records
+	 * @return the statistics of the decode
+	 */
+	public Stats decode(ByteBuffer records, int offset, byte[] versions, int count, CardBatch batch)
+	{
+		if (records.hasArray())
+			return decode(records.array(), records.arrayOffset() + offset, versions, count, batch);
+		return run(new DecodeTask(null, records, offset, versions, batch, batch.reserve(count), 0, count), count);
+	}
+
+	/**
+	 * Runs the root task in the pool and logs the throughput.
+	 *
+	 * @param task the root task
+	 * @param count number of records
+	 * @return the statistics of the decode
+	 */
+	private Stats run(DecodeTask task, int count)
+	{
+		long start = System.nanoTime();
+		boolean done = false;
+		try
+		{
+			pool.invoke(task);
+			done = true;
+		}
+		finally
+		{
+			if (!done)
+				task.batch.release(task.firstRow);
+		}
+		Stats stats = new Stats(count, System.nanoTime() - start, pool.getParallelism());
+
+		if (MyLog.isEnabled(MyLog.INFO))
+			MyLog.i("ParallelCardDecoder: " + stats);
+		return stats;
+	}
+
+	/**
+	 * Stops the pool created by this instance. A given pool is not shut down.
+	 */
+	@Override
+	public void close()
+	{
+		if (ownPool)
+			pool.shutdown();
+	}
+
+	/**
+	 * The reusable state of one worker thread.
+	 */
+	private static class Scratch
+	{
+		/** The field values of the file being extracted. */
+		final int[] fieldValues = new int[CardLayouts.MAX_FIELDS];
+		/** Copy of a record read from a ByteBuffer without an array. */
+		final byte[] record = new byte[TravelCardView.RECORD_LENGTH];
+	}
+
+	/**
+	 * The DecodeTask class decodes a range of records, splitting it if it is longer than the chunk size.
+	 */
+	private class DecodeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		/** The records in a byte array, or null. */
+		private final byte[] array;
+		/** The records in a ByteBuffer without an array, or null. */
+		private final ByteBuffer buffer;
+		/** The offset of the first record of the input. */
+		private final int offset;
+		/** The versions of the records of the input. */
+		private final byte[] versions;
+		/** The batch to write to. */
+		private final CardBatch batch;
+		/** The batch row of the first record of the input. */
+		private final int firstRow;
+		/** The first record of the range. */
+		private final int from;
+		/** The end of the range. */
+		private final int to;
+
+		DecodeTask(byte[] array, ByteBuffer buffer, int offset, byte[] versions, CardBatch batch, int firstRow, int from, int to)
+		{
+			this.array = array;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.versions = versions;
+			this.batch = batch;
+			this.firstRow = firstRow;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from > chunkSize)
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new DecodeTask(array, buffer, offset, versions, batch, firstRow, from, mid),
+						new DecodeTask(array, buffer, offset, versions, batch, firstRow, mid, to));
+				return;
+			}
+
+			Scratch s = scratch.get();
+			//own view of the buffer, so the bulk reads of the threads do not share a position
+			ByteBuffer source = buffer != null ? buffer.duplicate() : null;
+
+			for (int i = from; i < to; i++)
+			{
+				int recordOffset = offset + i * TravelCardView.RECORD_LENGTH;
+				if (source == null)
+				{
+					batch.decodeRecord(array, recordOffset, versions[i], firstRow + i, s.fieldValues);
+					continue;
+				}
+				source.position(recordOffset);
+				source.get(s.record);
+				batch.decodeRecord(s.record, 0, versions[i], firstRow + i, s.fieldValues);
+			}
+		}
+	}
+
+	/**
+	 * The Stats class holds the throughput of one decode.
+	 */
+	public static class Stats
+	{
+		/** The number of records. */
+		private final int records;
+		/** The elapsed time in nanoseconds. */
+		private final long elapsedNanos;
+		/** The parallelism of the pool. */
+		private final int parallelism;
+
+		/**
+		 * Instantiates new statistics.
+		 *
+		 * @param records number of records
+		 * @param elapsedNanos elapsed time in nanoseconds
+		 * @param parallelism parallelism of the pool
+		 */
+		Stats(int records, long elapsedNanos, int parallelism)
+		{
+			this.records = records;
+			this.elapsedNanos = elapsedNanos;
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * Gets the number of decoded records.
+		 *
+		 * @return the number of records
+		 */
+		public int getRecords() { return records; }
+
+		/**
+		 * Gets the elapsed time.
+		 *
+		 * @return the elapsed time in nanoseconds
+		 */
+		public long getElapsedNanos() { return elapsedNanos; }
+
+		/**
+		 * Gets the parallelism of the pool.
+		 *
+		 * @return the number of worker threads
+		 */
+		public int getParallelism() { return parallelism; }
+
+		/**
+		 * Gets the throughput.
+		 *
+		 * @return the number of records per second
+		 */
+		public double getRecordsPerSecond() {
+			return elapsedNanos > 0 ? records * 1e9 / elapsedNanos : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ENGLISH, "%d records in %.1f ms, %.0f records/s, %d threads",
+					records, elapsedNanos / 1e6, getRecordsPerSecond(), parallelism);
+		}
+	}
+}
@@ -18,6 +18,7 @@
 
 package com.hsl.cardproducts;
 
+import com.hsl.util.BitReader;
 import com.hsl.util.Convert;
 
 /**
@@ -82,20 +83,22 @@ public class SingleTicket
 	private void readApplicationInfo(byte[] appInfo)
 	{
 		//Read data from application info
-		applicationVersion = Convert.getByteValue(appInfo, 128, 4);
-		applicationKeyVersion = Convert.getByteValue(appInfo, 132, 4);
+		applicationVersion = BitReader.read(appInfo, 128, 4);
+		applicationKeyVersion = BitReader.read(appInfo, 132, 4);
 
-		byte[] temp = new byte[5];
-		System.arraycopy(appInfo, 17, temp, 0, 5);
-		applicationInstanceId = Convert.getHexString(temp);
+		StringBuilder id = Convert.appendHex(new StringBuilder(18), appInfo, 17, 5);
 		int num = ( (appInfo[1] ^ appInfo[5]) & 0x7F );
 		num = (num << 8) + ((appInfo[2] ^ appInfo[6]) & 0xFF);
 		num = (num << 8) + ((appInfo[4] ^ appInfo[7]) & 0xFF);
 
-		applicationInstanceId = applicationInstanceId.concat(String.format("%07d", num)).concat(""+((appInfo[22] & 0xF0)>>>4));
+		//number padded with zeros to 7 digits, the 23 bit value has at most 7 digits
+		String digits = Integer.toString(num);
+		for (int i = digits.length(); i < 7; i++)
+			id.append('0');
+		applicationInstanceId = id.append(digits).append((appInfo[22] & 0xF0)>>>4).toString();
 
-		platformType = Convert.getByteValue(appInfo, 180, 3);
-		securityLevel = Convert.getByteValue(appInfo, 183, 1);
+		platformType = BitReader.read(appInfo, 180, 3);
+		securityLevel = BitReader.read(appInfo, 183, 1);
 	}
 
 	/**
@@ -0,0 +1,177 @@
+/*
+ * TicketValidity.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import com.hsl.util.Convert;
+import com.hsl.util.ZoneOffsetTable;
+
+/**
+ * The Class TicketValidity tells if the period passes and value tickets of a card are valid at a given time.
+ * <p>
+ * The time is given in minutes since 1.1.1970 UTC, see {@link #nowMinute()}. The evaluation uses only the millisecond getters and
+ * primitive arithmetic, it creates no objects. A date field of zero on the card (1.1.1997) means the date is not set.
+ * <p>
+ * A period pass is valid from the start of its start date until the end of its end date, so the end date is included for both card versions.
+ * A period pass with a start date but no end date is valid until further notice.
+ * A value ticket is valid from its validity start until its validity end, the group ticket's end if there is one.
+ * A value ticket with product code 0 is not on the card, the file of a card that has never had a value ticket is all zeros.
+ * A value ticket with a product code but no end set has not been used yet.
+ */
+public class TicketValidity
+{
+	/** Status for a product that is not on the card. */
+	public static final int NO_PRODUCT = 0;
+	/** Status for a product whose validity has not started. */
+	public static final int NOT_STARTED = 1;
+	/** Status for a valid product. */
+	public static final int VALID = 2;
+	/** Status for a period pass that has started and has no end date. */
+	public static final int VALID_UNTIL_FURTHER_NOTICE = 3;
+	/** Status for a product whose validity has ended. */
+	public static final int EXPIRED = 4;
+	/** Status for a value ticket that has not been used, it becomes valid on the first use. */
+	public static final int UNUSED = 5;
+
+	/**
+	 * Gets the current time in the format of the evaluation methods.
+	 *
+	 * @return minutes since 1.1.1970 UTC
+	 */
+	public static long nowMinute()
+	{
+		return System.currentTimeMillis() / Convert.minuteInMs;
+	}
+
+	/**
+	 * Evaluates the first period pass of a travel card.
+	 *
+	 * @param card the travel card
+	 * @param nowMinute the time to evaluate at, minutes since 1.1.1970 UTC
+	 * @param zone the offset table of the time zone of the card's dates
+	 * @return one of {@code NO_PRODUCT, NOT_STARTED, VALID, VALID_UNTIL_FURTHER_NOTICE, EXPIRED}
+	 */
+	public static int periodPass1(TravelCard card, long nowMinute, ZoneOffsetTable zone)
+	{
+		return period(card.getPeriodStartDate1Millis(), card.getPeriodEndDate1Millis(), nowMinute, zone);
+	}
+
+	/**
+	 * Evaluates the second period pass of a travel card.
+	 *
+	 * @param card the travel card
+	 * @param nowMinute the time to evaluate at, minutes since 1.1.1970 UTC
+	 * @param zone the offset table of the time zone of the card's dates
+	 * @return one of {@code NO_PRODUCT, NOT_STARTED, VALID, VALID_UNTIL_FURTHER_NOTICE, EXPIRED}
+	 */
+	public static int periodPass2(TravelCard card, long nowMinute, ZoneOffsetTable zone)
+	{
+		return period(card.getPeriodStartDate2Millis(), card.getPeriodEndDate2Millis(), nowMinute, zone);
+	}
+
+	/**
+	 * Evaluates the better of the two period passes of a travel card.
+	 *
+	 * @param card the travel card
+	 * @param nowMinute the time to evaluate at, minutes since 1.1.1970 UTC
+	 * @param zone the offset table of the time zone of the card's dates
+	 * @return the status of the valid period pass if either is valid, otherwise the status of the first period pass or the second if the first is missing
+	 */
+	public static int periodPass(TravelCard card, long nowMinute, ZoneOffsetTable zone)
+	{
+		int status1 = periodPass1(card, nowMinute, zone);
+		if (isValid(status1))
+			return status1;
+		int status2 = periodPass2(card, nowMinute, zone);
+		if (isValid(status2) || status1 == NO_PRODUCT)
+			return status2;
+		return status1;
+	}
+
+	/**
+	 * Evaluates a value ticket of a travel card or a single ticket.
+	 *
+	 * @param ticket the ticket, null if there is none
+	 * @param nowMinute the time to evaluate at, minutes since 1.1.1970 UTC
+	 * @param zone the offset table of the time zone of the ticket's dates
+	 * @return one of {@code NO_PRODUCT, UNUSED, NOT_STARTED, VALID, EXPIRED}, {@code NO_PRODUCT} also for a ticket with product code 0
+	 */
+	public static int valueTicket(eTicket ticket, long nowMinute, ZoneOffsetTable zone)
+	{
+		if (ticket == null || ticket.getProductCode() == 0)
+			return NO_PRODUCT;
+		return ticket(ticket.getValidityStartDateMillis(), ticket.getValidityEndDateMillis(), nowMinute, zone);
+	}
+
+	/**
+	 * Evaluates a period given as dates.
+	 *
+	 * @param startMillis the start date in milliseconds since 1.1.1970
+	 * @param endMillis the end date in milliseconds since 1.1.1970, any time of the last valid day
+	 * @param nowMinute the time to evaluate at, minutes since 1.1.1970 UTC
+	 * @param zone the offset table of the time zone of the dates
+	 * @return one of {@code NO_PRODUCT, NOT_STARTED, VALID, VALID_UNTIL_FURTHER_NOTICE, EXPIRED}
+	 */
+	public static int period(long startMillis, long endMillis, long nowMinute, ZoneOffsetTable zone)
+	{
+		long firstSetDate = zone.toMillis(1, 0);
+		if (startMillis < firstSetDate)
+			return NO_PRODUCT;
+
+		long now = nowMinute * Convert.minuteInMs;
+		if (now < startMillis)
+			return NOT_STARTED;
+		if (endMillis < firstSetDate)
+			return VALID_UNTIL_FURTHER_NOTICE;
+
+		//valid until the start of the day after the end date
+		long end = zone.toMillis(zone.toDate(endMillis) + 1, 0);
+		return now < end ? VALID : EXPIRED;
+	}
+
+	/**
+	 * Evaluates a ticket given as a validity start and end time.
+	 *
+	 * @param startMillis the validity start in milliseconds since 1.1.1970
+	 * @param endMillis the validity end in milliseconds since 1.1.1970
+	 * @param nowMinute the time to evaluate at, minutes since 1.1.1970 UTC
+	 * @param zone the offset table of the time zone of the times
+	 * @return one of {@code UNUSED, NOT_STARTED, VALID, EXPIRED}
+	 */
+	public static int ticket(long startMillis, long endMillis, long nowMinute, ZoneOffsetTable zone)
+	{
+		if (endMillis < zone.toMillis(1, 0))
+			return UNUSED;
+
+		long now = nowMinute * Convert.minuteInMs;
+		if (now < startMillis)
+			return NOT_STARTED;
+		return now < endMillis ? VALID : EXPIRED;
+	}
+
+	/**
+	 * Tells if a status allows travelling.
+	 *
+	 * @param status the status
+	 * @return true for {@code VALID} and {@code VALID_UNTIL_FURTHER_NOTICE}
+	 */
+	public static boolean isValid(int status)
+	{
+		return status == VALID || status == VALID_UNTIL_FURTHER_NOTICE;
+	}
+}
@@ -18,13 +18,21 @@
 
 package com.hsl.cardproducts;
 
+import java.util.Arrays;
 import java.util.Date;
+import com.hsl.util.Compare;
 import com.hsl.util.Convert;
+import com.hsl.util.FileLayout;
+import com.hsl.util.ZoneMask;
+import com.hsl.util.ZoneOffsetTable;
 
 /**
  * The Class TravelCard stores all the data read from the HSL travel card.
- * When the class is instantiated it reads the raw file data from given parameters and extracts it to the member variables that can be read through provided getter methods.
+ * When the class is instantiated it copies the raw file data from given parameters. Each file is extracted to the member variables when one of its getters is called for the first time,
+ * so a caller reading only some of the files does not pay for the others. The extraction is thread safe.
  * The class can be instantiated using appropriate error status from reading of the travel card. This may be used as a simple way of forwarding the status of reading of the card from the card reading thread to UI thread.
+ * <p>
+ * Dates are stored as milliseconds and the Date getters return a new Date on every call, the {@code Millis} getters do not allocate.
  *
  * @author Bonwal Oy
  *
@@ -79,10 +87,10 @@ public class TravelCard
 	private int		validityAreaType1;
 	/** The validity area1. */
 	private int		validityArea1;
-	/** The period start date1. */
-	private Date	periodStartDate1;
-	/** The period end date1. */
-	private Date	periodEndDate1;
+	/** The period start date1 in milliseconds since 1.1.1970. */
+	private long	periodStartDate1 = Convert.NO_DATE;
+	/** The period end date1 in milliseconds since 1.1.1970. */
+	private long	periodEndDate1 = Convert.NO_DATE;
 	/** The period length1. */
 	private int		periodLength1;
 
@@ -95,10 +103,10 @@ public class TravelCard
 	private int		validityAreaType2;
 	/** The validity area2. */
 	private int		validityArea2;
-	/** The period start date2. */
-	private Date	periodStartDate2;
-	/** The period end date2. */
-	private Date	periodEndDate2;
+	/** The period start date2 in milliseconds since 1.1.1970. */
+	private long	periodStartDate2 = Convert.NO_DATE;
+	/** The period end date2 in milliseconds since 1.1.1970. */
+	private long	periodEndDate2 = Convert.NO_DATE;
 	/** The period length2. */
 	private int		periodLength2;
 
@@ -107,8 +115,8 @@ public class TravelCard
 	private int		loadedPeriodProductType;
 	/** The loaded period product. */
 	private int		loadedPeriodProduct;
-	/** The period loading date. */
-	private Date	periodLoadingDate;
+	/** The period loading date in milliseconds since 1.1.1970. */
+	private long	periodLoadingDate = Convert.NO_DATE;
 	/** The loaded period length. */
 	private int		loadedPeriodLength;
 	/** The loaded period price. */
@@ -119,8 +127,8 @@ public class TravelCard
 	private int		periodLoadingDeviceNumber;
 
 	//Period pass last boarding info
-	/** The boarding date. */
-	private Date	boardingDate;
+	/** The boarding date in milliseconds since 1.1.1970. */
+	private long	boardingDate = Convert.NO_DATE;
 	/** The boarding vehicle. */
 	private int		boardingVehicle;
 	/** The boarding location num type. */
@@ -142,11 +150,25 @@ public class TravelCard
 	/** The stored value counter. */
 	private int		storedValueCounter;
 
-	//Member variables for data extracted from History file
-	/** The history fields. */
-	private History[] historyFields = new History[8];
+	//Member variables for data extracted from History file, one column per field
+	/** The number of records in the History file. */
+	private static final int HISTORY_RECORDS = 8;
+	/** The transaction date and time of each history record in milliseconds since 1.1.1970. */
+	private final long[] historyTransactionDTimes = new long[HISTORY_RECORDS];
+	/** The transfer end date of each history record in milliseconds since 1.1.1970, {@code Convert.NO_DATE} on old cards. */
+	private final long[] historyTransferEndDates = new long[HISTORY_RECORDS];
+	/** The transaction type of each history record. */
+	private final int[] historyTransactionTypes = new int[HISTORY_RECORDS];
+	/** The price of each history record. */
+	private final int[] historyPrices = new int[HISTORY_RECORDS];
+	/** The group size of each history record. */
+	private final int[] historyGroupSizes = new int[HISTORY_RECORDS];
 	/** The history len. */
 	private int		historyLen;
+	/** The history objects, created from the columns on the first call of {@link #getHistory()}. */
+	private History[] historyFields = new History[HISTORY_RECORDS];
+	/** Tells if the history objects hold the records of the current card. */
+	private volatile boolean historyFieldsFilled;
 
 	// New, TLJ2014 spec card byte array tables
 	/** The application information data byte array */
@@ -175,10 +197,39 @@ public class TravelCard
 	/** The value ticket. */
 	private eTicket valueTicket;
 
+	/** The field values of the file being extracted, indexed by {@code CardLayouts} slot numbers. */
+	private final int[] fieldValues = new int[CardLayouts.MAX_FIELDS];
+	/** The offset table of the time zone used for the date fields. */
+	private ZoneOffsetTable zone;
+	/** The length of the History file data. */
+	private int historyLength;
+
+	//Files are extracted on first access to their getters
+	/** Flag of the ApplicationInformation file. */
+	public static final int FILE_APPLICATION_INFO = 1;
+	/** Flag of the ControlInformation file. */
+	public static final int FILE_CONTROL_INFO = 2;
+	/** Flag of the PeriodPass file. */
+	public static final int FILE_PERIOD_PASS = 4;
+	/** Flag of the StoredValue file. */
+	public static final int FILE_STORED_VALUE = 8;
+	/** Flag of the eTicket file. */
+	public static final int FILE_ETICKET = 16;
+	/** Flag of the History file. */
+	public static final int FILE_HISTORY = 32;
+	/** Flags of all files. */
+	private static final int ALL_FILES = 63;
+
+	/** The flags of the files that have been extracted to the member variables. */
+	private volatile int decodedFiles;
+	/** Tells if the card is shared and can not be re-initialised. */
+	private volatile boolean frozen;
+
 	/**
 	 * Instantiates a new travel card using given data from HSL card's files.
 	 * <p>
 	 * The lengths of the byte arrays to be passed as parameters have to be at least the lengths of the actual files.
+	 * The data is copied, and each file is extracted to the member variables when one of its getters is called for the first time.
 	 *
 	 * @param appInfoBytes data from the ApplicationInformation file
 	 * @param controlInfoBytes data from the ControlInformation file
@@ -191,6 +242,60 @@ public class TravelCard
 	 */
 	public TravelCard(byte[] appInfoBytes, byte[] controlInfoBytes, byte[] periodPassBytes, byte[] storedValueBytes, byte[] eTicketBytes, byte[] historyBytes, int version)
 	{
+		decodeInto(appInfoBytes, controlInfoBytes, periodPassBytes, storedValueBytes, eTicketBytes, historyBytes, version);
+	}
+
+	/**
+	 * Instantiates a new travel card without data, to be filled with {@link #decodeInto(byte[], byte[], byte[], byte[], byte[], byte[], int)}.
+	 */
+	public TravelCard()
+	{
+		//nothing to extract
+		decodedFiles = ALL_FILES;
+	}
+
+	/**
+	 * Re-initialises this travel card from new data from HSL card's files, using the default time zone for the dates.
+	 * <p>
+	 * Works like {@link #decodeInto(byte[], byte[], byte[], byte[], byte[], byte[], int, ZoneOffsetTable)} with {@link ZoneOffsetTable#getDefault()}.
+	 * Getting the default table clones the default TimeZone, so a reader decoding many cards without allocating should pass the table itself.
+	 *
+	 * @param appInfoBytes data from the ApplicationInformation file
+	 * @param controlInfoBytes data from the ControlInformation file
+	 * @param periodPassBytes data from the PeriodPass file
+	 * @param storedValueBytes data from the StoredValue file
+	 * @param eTicketBytes data from the eTicket file
+	 * @param historyBytes data from the History file
+	 * @param version version code for card (1 or 2)
+	 * @return this travel card
+	 */
+	public TravelCard decodeInto(byte[] appInfoBytes, byte[] controlInfoBytes, byte[] periodPassBytes, byte[] storedValueBytes, byte[] eTicketBytes, byte[] historyBytes, int version)
+	{
+		return decodeInto(appInfoBytes, controlInfoBytes, periodPassBytes, storedValueBytes, eTicketBytes, historyBytes, version, ZoneOffsetTable.getDefault());
+	}
+
+	/**
+	 * Re-initialises this travel card from new data from HSL card's files.
+	 * <p>
+	 * The data is copied to the arrays of this instance, and the eTicket and History instances are reused when the files are extracted,
+	 * so a reader can keep one TravelCard per thread and decode every card into it without allocating.
+	 * Instances returned by {@link #getValueTicket()} and {@link #getHistory()} before the call are overwritten with the data of the new card.
+	 * The call must not run at the same time with getters of the same instance in other threads.
+	 *
+	 * @param appInfoBytes data from the ApplicationInformation file
+	 * @param controlInfoBytes data from the ControlInformation file
+	 * @param periodPassBytes data from the PeriodPass file
+	 * @param storedValueBytes data from the StoredValue file
+	 * @param eTicketBytes data from the eTicket file
+	 * @param historyBytes data from the History file
+	 * @param version version code for card (1 or 2)
+	 * @param zone the offset table of the time zone used for the dates
+	 * @return this travel card
+	 * @throws IllegalStateException if the card is shared by {@link TravelCardCache}
+	 */
+	public synchronized TravelCard decodeInto(byte[] appInfoBytes, byte[] controlInfoBytes, byte[] periodPassBytes, byte[] storedValueBytes, byte[] eTicketBytes, byte[] historyBytes, int version, ZoneOffsetTable zone)
+	{
+		checkNotFrozen();
 		this.version = version;
 		// Check card version
 		if (version == 2) {
@@ -201,24 +306,6 @@ public class TravelCard
 			System.arraycopy(storedValueBytes, 0, storedValueData_v2, 0, storedValueData_v2.length);
 			System.arraycopy(eTicketBytes, 0, eTicketData_v2, 0, eTicketData_v2.length);
 			System.arraycopy(historyBytes, 0, historyData_v2, 0, historyBytes.length);
-
-			//Read data from application info
-			readApplicationInfo(applicationInformationData_v2);
-
-			// Read control info from bytes
-			readControlInfo(controlInformationData_v2);
-
-			//Read period pass data
-			readPeriodPass_v2(periodPassData_v2); // readPeriodPass_v2(periodPassData_v2);
-
-			//Read stored value
-			readStoredValue(storedValueData_v2);
-
-			//read value ticket
-			valueTicket = new eTicket(eTicketData_v2, false, 2, false);
-
-			//Read history data
-			readHistory_v2(historyData_v2, historyBytes.length);
 		}
 		else {
 			//Copy raw data
@@ -228,25 +315,99 @@ public class TravelCard
 			System.arraycopy(storedValueBytes, 0, storedValueData, 0, storedValueData.length);
 			System.arraycopy(eTicketBytes, 0, eTicketData, 0, eTicketData.length);
 			System.arraycopy(historyBytes, 0, historyData, 0, historyBytes.length);
+		}
+		historyLength = historyBytes.length;
+		errorStatus = OK_STATUS;
 
-			//Read data from application info
-			readApplicationInfo(applicationInformationData);
+		//Resolve the time zone once for all date fields
+		this.zone = zone;
 
-			// Read control info from bytes
-			readControlInfo(controlInformationData);
+		//extract the files again on next access
+		decodedFiles = 0;
+		return this;
+	}
 
-			//Read period pass data
-			readPeriodPass(periodPassData);
+	/**
+	 * Re-initialises this travel card from new data of the same card, using the default time zone for the dates.
+	 * <p>
+	 * Works like {@link #decodeChanged(byte[], byte[], byte[], byte[], byte[], byte[], int, ZoneOffsetTable)} with {@link ZoneOffsetTable#getDefault()},
+	 * which clones the default TimeZone on every call.
+	 *
+	 * @param appInfoBytes data from the ApplicationInformation file
+	 * @param controlInfoBytes data from the ControlInformation file
+	 * @param periodPassBytes data from the PeriodPass file
+	 * @param storedValueBytes data from the StoredValue file
+	 * @param eTicketBytes data from the eTicket file
+	 * @param historyBytes data from the History file
+	 * @param version version code for card (1 or 2)
+	 * @return this travel card
+	 */
+	public TravelCard decodeChanged(byte[] appInfoBytes, byte[] controlInfoBytes, byte[] periodPassBytes, byte[] storedValueBytes, byte[] eTicketBytes, byte[] historyBytes, int version)
+	{
+		return decodeChanged(appInfoBytes, controlInfoBytes, periodPassBytes, storedValueBytes, eTicketBytes, historyBytes, version, ZoneOffsetTable.getDefault());
+	}
 
-			//Read stored value
-			readStoredValue(storedValueData);
+	/**
+	 * Re-initialises this travel card from new data of the same card, extracting again only the files whose data has changed.
+	 * <p>
+	 * Each file is compared with the data of the previous read, and the member variables of unchanged files are kept.
+	 * When a card is read again after a new boarding, usually only the eTicket and History files are extracted again.
+	 * If the card version, the error status or the time zone differ from the previous read, this works like
+	 * {@link #decodeInto(byte[], byte[], byte[], byte[], byte[], byte[], int, ZoneOffsetTable)}.
+	 * Instances returned by {@link #getValueTicket()} and {@link #getHistory()} before the call are overwritten if their file has changed.
+	 * The call must not run at the same time with getters of the same instance in other threads.
+	 *
+	 * @param appInfoBytes data from the ApplicationInformation file
+	 * @param controlInfoBytes data from the ControlInformation file
+	 * @param periodPassBytes data from the PeriodPass file
+	 * @param storedValueBytes data from the StoredValue file
+	 * @param eTicketBytes data from the eTicket file
+	 * @param historyBytes data from the History file
+	 * @param version version code for card (1 or 2)
+	 * @param zone the offset table of the time zone used for the dates
+	 * @return this travel card
+	 * @throws IllegalStateException if the card is shared by {@link TravelCardCache}
+	 */
+	public synchronized TravelCard decodeChanged(byte[] appInfoBytes, byte[] controlInfoBytes, byte[] periodPassBytes, byte[] storedValueBytes, byte[] eTicketBytes, byte[] historyBytes, int version, ZoneOffsetTable zone)
+	{
+		checkNotFrozen();
+		if (version != this.version || errorStatus != OK_STATUS || zone != this.zone)
+			return decodeInto(appInfoBytes, controlInfoBytes, periodPassBytes, storedValueBytes, eTicketBytes, historyBytes, version, zone);
+
+		int changed = copyIfChanged(FILE_APPLICATION_INFO, appInfoBytes, data(FILE_APPLICATION_INFO).length)
+				| copyIfChanged(FILE_CONTROL_INFO, controlInfoBytes, data(FILE_CONTROL_INFO).length)
+				| copyIfChanged(FILE_PERIOD_PASS, periodPassBytes, data(FILE_PERIOD_PASS).length)
+				| copyIfChanged(FILE_STORED_VALUE, storedValueBytes, data(FILE_STORED_VALUE).length)
+				| copyIfChanged(FILE_ETICKET, eTicketBytes, data(FILE_ETICKET).length);
+		if (historyBytes.length != historyLength)
+		{
+			System.arraycopy(historyBytes, 0, data(FILE_HISTORY), 0, historyBytes.length);
+			historyLength = historyBytes.length;
+			changed |= FILE_HISTORY;
+		}
+		else
+			changed |= copyIfChanged(FILE_HISTORY, historyBytes, historyLength);
 
-			//read value ticket
-			valueTicket = new eTicket(eTicketData, false, 1, false);
+		//extract the changed files again on next access
+		decodedFiles &= ~changed;
+		return this;
+	}
 
-			//Read history data
-			readHistory(historyData, historyBytes.length);
-		}
+	/**
+	 * Copies new data of a file if it differs from the current data.
+	 *
+	 * @param file the flag of the file
+	 * @param bytes the new data
+	 * @param length the number of bytes to compare and copy
+	 * @return the flag of the file if it changed, 0 otherwise
+	 */
+	private int copyIfChanged(int file, byte[] bytes, int length)
+	{
+		byte[] data = data(file);
+		if (Compare.equals(bytes, 0, data, 0, length))
+			return 0;
+		System.arraycopy(bytes, 0, data, 0, length);
+		return file;
 	}
 
 	/**
@@ -259,6 +420,264 @@ public class TravelCard
 	public TravelCard(int errorStatus)
 	{
 		this.errorStatus = errorStatus;
+		//nothing to extract
+		decodedFiles = ALL_FILES;
+	}
+
+	/**
+	 * Extracts all files and makes the card read-only, for cards shared by {@link TravelCardCache}.
+	 * After the call {@code decodeInto} and {@code decodeChanged} of the card and {@code decodeInto} of its value ticket throw
+	 * IllegalStateException, and {@link #getHistory()} returns copies of the History objects.
+	 */
+	synchronized void freeze()
+	{
+		for (int file = FILE_APPLICATION_INFO; file <= FILE_HISTORY; file <<= 1)
+			ensureDecoded(file);
+		fillHistoryFields();
+		if (valueTicket != null)
+			valueTicket.freeze();
+		frozen = true;
+	}
+
+	/**
+	 * Tells if the card is shared and can not be re-initialised, see {@link TravelCardCache}.
+	 *
+	 * @return true if the card is read-only
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Checks that the card can be re-initialised.
+	 *
+	 * @throws IllegalStateException if the card is frozen
+	 */
+	private void checkNotFrozen()
+	{
+		if (frozen)
+			throw new IllegalStateException("The TravelCard is shared and can not be re-initialised");
+	}
+
+	/**
+	 * Makes sure the given file has been extracted to the member variables.
+	 * The check is a single volatile read after the file has been extracted.
+	 *
+	 * @param file the flag of the file
+	 */
+	private void ensureDecoded(int file)
+	{
+		if ((decodedFiles & file) == 0)
+			decodeFile(file);
+	}
+
+	/**
+	 * Extracts one file to the member variables using the layouts of the card version.
+	 * Synchronized so that a file is extracted only once and the shared field value array is used by one thread at a time.
+	 *
+	 * @param file the flag of the file
+	 */
+	private synchronized void decodeFile(int file)
+	{
+		if ((decodedFiles & file) != 0)
+			return;
+
+		switch (file)
+		{
+			case FILE_APPLICATION_INFO:
+				readApplicationInfo(version == 2 ? applicationInformationData_v2 : applicationInformationData);
+				break;
+			case FILE_CONTROL_INFO:
+				readControlInfo(version == 2 ? controlInformationData_v2 : controlInformationData);
+				break;
+			case FILE_PERIOD_PASS:
+				readPeriodPass(version == 2 ? periodPassData_v2 : periodPassData);
+				break;
+			case FILE_STORED_VALUE:
+				readStoredValue(version == 2 ? storedValueData_v2 : storedValueData);
+				break;
+			case FILE_ETICKET:
+				if (valueTicket == null)
+					valueTicket = new eTicket();
+				valueTicket.decodeInto(version == 2 ? eTicketData_v2 : eTicketData, false, version, false, zone, fieldValues);
+				break;
+			case FILE_HISTORY:
+				readHistory(version == 2 ? historyData_v2 : historyData, historyLength);
+				break;
+		}
+		//publish the extracted fields
+		decodedFiles |= file;
+	}
+
+	/**
+	 * Gets the layout of a file of the card version.
+	 *
+	 * @param file the flag of the file, other than the ApplicationInformation file
+	 * @return the layout, the record layout for the History file
+	 */
+	private FileLayout layout(int file)
+	{
+		switch (file)
+		{
+			case FILE_CONTROL_INFO:
+				return CardLayouts.controlInfo(version);
+			case FILE_PERIOD_PASS:
+				return CardLayouts.periodPass(version);
+			case FILE_STORED_VALUE:
+				return CardLayouts.storedValue(version);
+			case FILE_ETICKET:
+				return CardLayouts.eTicket(version, false, false);
+			default:
+				return CardLayouts.history(version);
+		}
+	}
+
+	/**
+	 * Gets the raw data array of a file of the card version.
+	 *
+	 * @param file the flag of the file
+	 * @return the data array
+	 */
+	private byte[] data(int file)
+	{
+		switch (file)
+		{
+			case FILE_APPLICATION_INFO:
+				return version == 2 ? applicationInformationData_v2 : applicationInformationData;
+			case FILE_CONTROL_INFO:
+				return version == 2 ? controlInformationData_v2 : controlInformationData;
+			case FILE_PERIOD_PASS:
+				return version == 2 ? periodPassData_v2 : periodPassData;
+			case FILE_STORED_VALUE:
+				return version == 2 ? storedValueData_v2 : storedValueData;
+			case FILE_ETICKET:
+				return version == 2 ? eTicketData_v2 : eTicketData;
+			default:
+				return version == 2 ? historyData_v2 : historyData;
+		}
+	}
+
+	/**
+	 * Copies the ApplicationInformation file, for {@link TravelCardCodec}.
+	 *
+	 * @param appInfo array for the file data, at least 11 bytes
+	 * @param offset offset of the file in the array
+	 */
+	synchronized void copyApplicationInfo(byte[] appInfo, int offset)
+	{
+		byte[] data = data(FILE_APPLICATION_INFO);
+		System.arraycopy(data, 0, appInfo, offset, data.length);
+	}
+
+	/**
+	 * Extracts the field values of a file with the layout of the card version, for {@link TravelCardCodec}.
+	 *
+	 * @param file the flag of the file, one of {@code FILE_CONTROL_INFO, FILE_PERIOD_PASS, FILE_STORED_VALUE, FILE_ETICKET}
+	 * @param v array for the field values
+	 */
+	synchronized void extractFields(int file, int[] v)
+	{
+		layout(file).decode(data(file), 0, v);
+	}
+
+	/**
+	 * Gets the number of records in the History file data, including records without data.
+	 *
+	 * @return the number of records
+	 */
+	synchronized int getHistoryRecordCount()
+	{
+		return historyLength / CardLayouts.HISTORY_RECORD_LENGTH;
+	}
+
+	/**
+	 * Extracts the field values of a history record, for {@link TravelCardCodec}.
+	 *
+	 * @param index index of the record in the History file data
+	 * @param v array for the field values
+	 * @return false if the record contains no data
+	 */
+	synchronized boolean extractHistoryRecord(int index, int[] v)
+	{
+		byte[] data = data(FILE_HISTORY);
+		int offset = index * CardLayouts.HISTORY_RECORD_LENGTH;
+		if (!hasHistoryData(data, offset))
+			return false;
+		layout(FILE_HISTORY).decode(data, offset, v);
+		return true;
+	}
+
+	/**
+	 * Re-initialises this travel card to be filled with field values by {@link TravelCardCodec}.
+	 * The raw data of the other files is cleared, so files not set with {@link #setFields(int, int[])} are extracted as zeros.
+	 * The call must not run at the same time with getters of the same instance in other threads.
+	 *
+	 * @param version version code for card (1 or 2)
+	 * @param errorStatus the error status
+	 * @param appInfo data from the ApplicationInformation file
+	 * @param offset offset of the file in the array
+	 */
+	synchronized void resetFields(int version, int errorStatus, byte[] appInfo, int offset)
+	{
+		checkNotFrozen();
+		this.version = version;
+		this.errorStatus = errorStatus;
+		for (int file = FILE_CONTROL_INFO; file <= FILE_HISTORY; file <<= 1)
+			Arrays.fill(data(file), (byte) 0);
+		byte[] data = data(FILE_APPLICATION_INFO);
+		System.arraycopy(appInfo, offset, data, 0, data.length);
+
+		historyLength = 0;
+		historyLen = 0;
+		historyFieldsFilled = false;
+		zone = ZoneOffsetTable.getDefault();
+		decodedFiles = 0;
+	}
+
+	/**
+	 * Sets a file from field values, for {@link TravelCardCodec}.
+	 * The values are written to the raw data and set to the member variables, so the file is not extracted again.
+	 *
+	 * @param file the flag of the file, one of {@code FILE_CONTROL_INFO, FILE_PERIOD_PASS, FILE_STORED_VALUE, FILE_ETICKET}
+	 * @param v the field values
+	 */
+	synchronized void setFields(int file, int[] v)
+	{
+		checkNotFrozen();
+		layout(file).encode(v, data(file), 0);
+		switch (file)
+		{
+			case FILE_CONTROL_INFO:
+				appStatus = v[CardLayouts.CI_APP_STATUS];
+				break;
+			case FILE_PERIOD_PASS:
+				setPeriodPass(v);
+				break;
+			case FILE_STORED_VALUE:
+				storedValueCounter = v[CardLayouts.SV_VALUE_COUNTER];
+				break;
+			case FILE_ETICKET:
+				if (valueTicket == null)
+					valueTicket = new eTicket();
+				valueTicket.init(v, zone);
+				break;
+		}
+		decodedFiles |= file;
+	}
+
+	/**
+	 * Appends a history record from field values, for {@link TravelCardCodec}.
+	 *
+	 * @param v the field values of the record
+	 */
+	synchronized void addHistoryFields(int[] v)
+	{
+		if (historyLen >= HISTORY_RECORDS)
+			throw new IllegalArgumentException("Too many history records");
+		layout(FILE_HISTORY).encode(v, data(FILE_HISTORY), historyLen * CardLayouts.HISTORY_RECORD_LENGTH);
+		addHistoryRecord(v);
+		historyLength = historyLen * CardLayouts.HISTORY_RECORD_LENGTH;
+		decodedFiles |= FILE_HISTORY;
 	}
 
 	/**
@@ -272,9 +691,7 @@ public class TravelCard
 		applicationVersion = (byte)(appInfo[0] & 0xF0);
 		applicationKeyVersion = (byte)(appInfo[0] & 0x0F);
 		
-		byte[] temp = new byte[9];
-		System.arraycopy(appInfo, 1, temp, 0, 9);
-		applicationInstanceId = Convert.getHexString(temp);
+		applicationInstanceId = Convert.getHexString(appInfo, 1, 9);
 		
 		platformType = (byte)(appInfo[10] & 0xE0);
 		securityLevel = (byte)(appInfo[10] & 0x10);
@@ -286,227 +703,186 @@ public class TravelCard
 	 * @param ctrlInfo byte array containing ControlInformation file data
 	 */
 	private void readControlInfo(byte[] ctrlInfo) {
-		appStatus = Convert.getByteValue(ctrlInfo, 14, 1);
+		if (version == 2)
+			LayoutDecoders.controlInfoV2(ctrlInfo, 0, fieldValues);
+		else
+			LayoutDecoders.controlInfoV1(ctrlInfo, 0, fieldValues);
+		appStatus = fieldValues[CardLayouts.CI_APP_STATUS];
 	}
 
 	/**
 	 * Extract period pass data from the card to the member variables.
+	 * The same code is used for both card versions, the fields are extracted with the decoder generated from the version's PeriodPass layout.
 	 *
 	 * @param periodPass byte array containing PeriodPass file data
 	 */
 	private void readPeriodPass(byte[] periodPass)
 	{
-		productCode1 =  (short) (((periodPass[0] & 0xFF) << 6) | ((periodPass[1] & 0xFC) >>> 2) );
-		validityAreaType1 = (byte)( (periodPass[1] & 0x02) >>> 1);
-		validityArea1 = (byte)( ((periodPass[1] & 0x01) << 3) | ((periodPass[2] & 0xE0) >>> 5));
-		
-		short date1 = (short)( ((periodPass[2] & 0x1F) << 9) | ((periodPass[3] & 0xFF) << 1) | ((periodPass[4] & 0x80) >>> 7));  
-		periodStartDate1 = Convert.en5145Date2JavaDate(date1);
-		
-		short date2 = (short)( ((periodPass[4] & 0x7F) << 7) | ((periodPass[5] & 0xFE) >>> 1));  
-		periodEndDate1 = Convert.en5145Date2JavaDate(date2);
-		//Add time 23:59:59 to date in milliseconds
-		periodEndDate1.setTime(periodEndDate1.getTime() + (24L*60L*60L-1L)*1000L);
-		//store period length
-		periodLength1 = (short)(date2 - date1 + 1);
-		
-		//Read period pass 2 data
-		productCode2 =  (short) (((periodPass[6] & 0xFF) << 8) | (periodPass[7] & 0xFC));
-		productCode2 >>>= 2;
-		validityAreaType2 = (byte)(periodPass[7] & 0x02);
-		validityArea2 = (byte)( ((periodPass[7] & 0x01) << 3) | ((periodPass[8] & 0xE0) >>> 5));
-		
-		date1 = (short)( ((periodPass[8] & 0x1F) << 9) | ((periodPass[9] & 0xFF) << 1) | ((periodPass[10] & 0x80) >>> 7));  
-		periodStartDate2 = Convert.en5145Date2JavaDate(date1);
-		
-		date2 = (short)( ((periodPass[10] & 0x7F) << 7) | ((periodPass[11] & 0xFE) >>> 1));  
-		periodEndDate2 = Convert.en5145Date2JavaDate(date2);
-		//Add time 23:59:59 to date in milliseconds
-		periodEndDate2.setTime(periodEndDate2.getTime() + (24L*60L*60L-1L)*1000L);
-		
-		//store period length
-		periodLength2 = (short)(date2 - date1 + 1);
-		
-		//LAST LOADING
-		loadedPeriodProduct =  (short) (((periodPass[12] & 0xFF) << 6) | ((periodPass[13] & 0xFC) >>> 2) );
-		date1 = (short)( ((periodPass[13] & 0x03) << 12) | ((periodPass[14] & 0xFF) << 4) | ((periodPass[15] & 0xF0) >>> 4) );
-		short time1 = (short)( ((periodPass[15] & 0x0F) << 7) | ((periodPass[16] & 0xFE) >>> 1) );
-		periodLoadingDate = Convert.en5145DateAndTime2JavaDate(date1, time1);
-		loadedPeriodLength = (short)( ((periodPass[16] & 0x01) << 8) | (periodPass[17] & 0xFF) );
-		loadedPeriodPrice = (int)((periodPass[18] & 0xFF) << 12) | ((periodPass[19] & 0xFF) << 4) | ((periodPass[20] & 0xF0) >>> 4);
-		periodLoadingOrganization = (short) (((periodPass[20] & 0x0F) << 10) | ((periodPass[21] & 0xFF) << 2) | ((periodPass[22] & 0xC0) >>> 6) );
-		periodLoadingDeviceNumber = (short) (((periodPass[22] & 0x3F) << 8) | (periodPass[23] & 0xFF) );
-
-		//LAST USE (BOARDING)
-		date1 = (short) (((periodPass[24] & 0xFF) << 6) | ((periodPass[25] & 0xFC) >>> 2) );
-		time1 = (short)( ((periodPass[25] & 0x03) << 9) | ((periodPass[26] & 0xFF) << 1) | ((periodPass[27] & 0x80) >>> 7) );
-		boardingDate = Convert.en5145DateAndTime2JavaDate(date1, time1);
-		boardingVehicle = (short)( ((periodPass[27] & 0x7F) << 7) | (periodPass[28] & 0xFE) >>> 1);
-		boardingLocationNumType = (byte)( ((periodPass[28] & 0x01) << 1) | ((periodPass[29] & 0x80) >>> 7) );
-		boardingLocationNum = (short)( ((periodPass[29] & 0x7F) << 7) | ((periodPass[30] & 0xFE) >>> 1) );
-		boardingDirection = (byte) (periodPass[30] & 0x01);
-		boardingArea = (byte)((periodPass[31] & 0xF0) >>> 4);
-
+		int[] v = fieldValues;
+		if (version == 2)
+			LayoutDecoders.periodPassV2(periodPass, 0, v);
+		else
+			LayoutDecoders.periodPassV1(periodPass, 0, v);
+		setPeriodPass(v);
 	}
 
 	/**
-	 * Extract period pass data from the card to the member variables for new, TLJ2014 card.
+	 * Sets the period pass member variables from the extracted field values.
 	 *
-	 * @param periodPass byte array containing PeriodPass file data
+	 * @param v the field values, indexed by {@code CardLayouts} PeriodPass slot numbers
 	 */
-	private void readPeriodPass_v2(byte[] periodPass)
+	private void setPeriodPass(int[] v)
 	{
-//		NEW
-//		//Read period pass 1 data
-		productCodeType1			= Convert.getByteValue  (periodPass, 0, 1);
-		productCode1 				= Convert.getShortValue	(periodPass, 1, 14);
-		validityAreaType1			= Convert.getByteValue	(periodPass, 15, 2);
-		validityArea1				= Convert.getShortValue	(periodPass, 17, 6);
-		int date1					= Convert.getShortValue	(periodPass, 23, 14);
-		int date2					= Convert.getShortValue	(periodPass, 37, 14);
-		periodStartDate1 			= Convert.en5145Date2JavaDate(date1);
-		periodEndDate1 				= Convert.en5145Date2JavaDate(date2);
+		//Read period pass 1 data
+		productCodeType1			= v[CardLayouts.PP_PRODUCT_CODE_TYPE1];
+		productCode1				= v[CardLayouts.PP_PRODUCT_CODE1];
+		validityAreaType1			= v[CardLayouts.PP_VALIDITY_AREA_TYPE1];
+		validityArea1				= v[CardLayouts.PP_VALIDITY_AREA1];
+		int date1					= v[CardLayouts.PP_PERIOD_START_DATE1];
+		int date2					= v[CardLayouts.PP_PERIOD_END_DATE1];
+		periodStartDate1			= zone.toMillis(date1, 0);
+		periodEndDate1				= zone.toMillis(date2, 0);
+		//Old cards: add time 23:59:59 to date in milliseconds
+		if (version == 1)
+			periodEndDate1 += (24L*60L*60L-1L)*1000L;
 		//store period length
-		periodLength1 				=	(short)(date2 - date1 + 1);
-
-		//Read PERIOD PASS 2 data
-		productCodeType2			= Convert.getByteValue  (periodPass, 56, 1);
-		productCode2 				= Convert.getShortValue	(periodPass, 57, 14);
-		validityAreaType2			= Convert.getByteValue	(periodPass, 71, 2);
-		validityArea2				= Convert.getShortValue	(periodPass, 73, 6);
-		date1			    		= Convert.getShortValue	(periodPass, 79, 14);
-		date2			   	 		= Convert.getShortValue	(periodPass, 93, 14);
-		periodStartDate2			= Convert.en5145Date2JavaDate(date1);
-		periodEndDate2 				= Convert.en5145Date2JavaDate(date2);
+		periodLength1				= (short)(date2 - date1 + 1);
+
+		//Read period pass 2 data
+		productCodeType2			= v[CardLayouts.PP_PRODUCT_CODE_TYPE2];
+		productCode2				= v[CardLayouts.PP_PRODUCT_CODE2];
+		validityAreaType2			= v[CardLayouts.PP_VALIDITY_AREA_TYPE2];
+		validityArea2				= v[CardLayouts.PP_VALIDITY_AREA2];
+		date1						= v[CardLayouts.PP_PERIOD_START_DATE2];
+		date2						= v[CardLayouts.PP_PERIOD_END_DATE2];
+		periodStartDate2			= zone.toMillis(date1, 0);
+		periodEndDate2				= zone.toMillis(date2, 0);
+		//Old cards: add time 23:59:59 to date in milliseconds
+		if (version == 1)
+			periodEndDate2 += (24L*60L*60L-1L)*1000L;
 		//store period length
-		periodLength2 				=	(short)(date2 - date1 + 1);
-
-        //LAST LOADING
-		loadedPeriodProductType		= Convert.getByteValue	(periodPass, 112, 1);
-        loadedPeriodProduct 		= Convert.getShortValue (periodPass, 113, 14);
-        date1               		= Convert.getShortValue (periodPass, 127, 14);
-        int time1           		= Convert.getShortValue (periodPass, 141, 11);
-        periodLoadingDate   		= Convert.en5145DateAndTime2JavaDate(date1, time1);
-        loadedPeriodLength  		= Convert.getShortValue (periodPass, 152, 9);
-        loadedPeriodPrice   		= Convert.getShortValue (periodPass, 161, 20);
-        periodLoadingOrganization 	= Convert.getShortValue(periodPass, 181, 14);
-        periodLoadingDeviceNumber 	= Convert.getShortValue(periodPass, 195, 13);
-
-        //LAST USE (BOARDING)
-		date1						= Convert.getShortValue (periodPass, 208, 14);
-		time1           			= Convert.getShortValue (periodPass, 222, 11);
-		boardingDate 				= Convert.en5145DateAndTime2JavaDate(date1, time1);
-		boardingVehicle				= Convert.getShortValue (periodPass, 233, 14);
-		boardingLocationNumType 	= Convert.getShortValue (periodPass, 247, 2)	;
-		boardingLocationNum			= Convert.getShortValue (periodPass, 249, 14);
-		boardingDirection			= Convert.getByteValue  (periodPass, 263, 1);
-		boardingAreaType			= Convert.getByteValue  (periodPass, 264, 2);
-		boardingArea				= Convert.getByteValue  (periodPass, 266, 6);
+		periodLength2				= (short)(date2 - date1 + 1);
+
+		//LAST LOADING
+		loadedPeriodProductType		= v[CardLayouts.PP_LOADED_PERIOD_PRODUCT_TYPE];
+		loadedPeriodProduct			= v[CardLayouts.PP_LOADED_PERIOD_PRODUCT];
+		periodLoadingDate			= zone.toMillis(v[CardLayouts.PP_PERIOD_LOADING_DATE], v[CardLayouts.PP_PERIOD_LOADING_TIME]);
+		loadedPeriodLength			= v[CardLayouts.PP_LOADED_PERIOD_LENGTH];
+		loadedPeriodPrice			= v[CardLayouts.PP_LOADED_PERIOD_PRICE];
+		periodLoadingOrganization	= v[CardLayouts.PP_PERIOD_LOADING_ORGANIZATION];
+		periodLoadingDeviceNumber	= v[CardLayouts.PP_PERIOD_LOADING_DEVICE_NUMBER];
+
+		//LAST USE (BOARDING)
+		boardingDate				= zone.toMillis(v[CardLayouts.PP_BOARDING_DATE], v[CardLayouts.PP_BOARDING_TIME]);
+		boardingVehicle				= v[CardLayouts.PP_BOARDING_VEHICLE];
+		boardingLocationNumType		= v[CardLayouts.PP_BOARDING_LOCATION_NUM_TYPE];
+		boardingLocationNum			= v[CardLayouts.PP_BOARDING_LOCATION_NUM];
+		boardingDirection			= v[CardLayouts.PP_BOARDING_DIRECTION];
+		boardingAreaType			= v[CardLayouts.PP_BOARDING_AREA_TYPE];
+		boardingArea				= v[CardLayouts.PP_BOARDING_AREA];
 	}
 
 	/**
 	 * Extracts the stored value file fields to member variables.
 	 * Inserts data into variables:
 	 * <p>
-	 * {@code valueCounter, loadingDate, loadingTime, loadingValue, loadingOrganisationID, loadingDeviceNumber}
+	 * {@code valueCounter}
 	 *
 	 * @param storedValue the StoredValue file contents
 	 */
 	private void readStoredValue(byte[] storedValue)
 	{
-		storedValueCounter = ((storedValue[0]&0xFF) << 12) | ((storedValue[1]&0xFF) << 4) | ((storedValue[2] & 0xF0) >>> 4);
+		if (version == 2)
+			LayoutDecoders.storedValueV2(storedValue, 0, fieldValues);
+		else
+			LayoutDecoders.storedValueV1(storedValue, 0, fieldValues);
+		storedValueCounter = fieldValues[CardLayouts.SV_VALUE_COUNTER];
 	}
 
 	/**
 	 * Read history.
+	 * The same code is used for both card versions, the fields are extracted with the decoder generated from the version's History record layout.
 	 *
 	 * @param historyData the history data
 	 * @param length the length
 	 */
 	private void readHistory(byte[] historyData, int length)
 	{
+		int[] v = fieldValues;
 		//count history data fields
-		int dataCount = length / 12;
-		//set history count initially to zero 
+		int dataCount = length / CardLayouts.HISTORY_RECORD_LENGTH;
+		//set history count initially to zero
 		historyLen = 0;
-		
+		historyFieldsFilled = false;
+
 		for (int i=0; i < dataCount; i++)
 		{
-			//check if current field seems to contain data (some date and time bytes are not zeroes)
-			if ( (historyData[i*12+1] != (byte)0) || (historyData[i*12+2] != (byte)0) || (historyData[i*12+3] != (byte)0) || (historyData[i*12+4] != (byte)0) )
+			int offset = i * CardLayouts.HISTORY_RECORD_LENGTH;
+
+			//check if current field seems to contain data
+			if (hasHistoryData(historyData, offset))
 			{
-				//allocate memory for new history field
-				historyFields[historyLen] = new History();
-				//Store transaction type 
-				historyFields[historyLen].setTransactionType((byte)((historyData[i*12+0] & 0x80) >>> 7)); 
-				//Get transaction date and time (date from transfer end date, and time from boarding time)
-				short date = (short)( ((historyData[i*12+3] & 0x3F) << 8) | (historyData[i*12+4] & 0xFF) );
-				short time = (short)( ((historyData[i*12+1] & 0x01) << 10) | ((historyData[i*12+2] & 0xFF) << 2) | ((historyData[i*12+3] & 0xC0) >>> 6) );
-				short endTime = (short)( ((historyData[i*12+5] & 0xFF) << 3) | ((historyData[i*12+6] & 0xE0) >>> 5) );
-				//if transfer end time is before boarding time, the day has changed after boarding 
-				//and we have to subtract one day from the transfer end date to get real boarding date
-				if (endTime < time)
-					date -= 1;
-				
-				//set visible boarding date and time
-				historyFields[historyLen].setTransactionDTime(Convert.en5145DateAndTime2JavaDate(date, time));
-
-				//Get group size
-				historyFields[historyLen].setGroupSize( (byte)((historyData[i*12+8] & 0x7C) >>> 2) );
-				//Get value ticket price
-				historyFields[historyLen].setPrice( (short)(((historyData[i*12+6] & 0x1F) << 9) | ((historyData[i*12+7] & 0xFF) << 1) | ((historyData[i*12+8] & 0x80) >>> 7)) );
-				
-				//increment counter
-				historyLen++;
+				if (version == 2)
+					LayoutDecoders.historyV2(historyData, offset, v);
+				else
+					LayoutDecoders.historyV1(historyData, offset, v);
+				addHistoryRecord(v);
 			}
 		}
-		
 	}
 
 	/**
-	 * Read history for new, TLJ2014 card.
+	 * Checks if a history record seems to contain data (some date and time bytes are not zeroes).
 	 *
 	 * @param historyData the history data
-	 * @param length the length
+	 * @param offset offset of the record
+	 * @return true if the record contains data
 	 */
-	private void readHistory_v2(byte[] historyData, int length)
+	private static boolean hasHistoryData(byte[] historyData, int offset)
 	{
-		//count history data fields
-		int dataCount = length / 12;
-		//set history count initially to zero
-		historyLen = 0;
+		return (historyData[offset+1] != (byte)0) || (historyData[offset+2] != (byte)0) || (historyData[offset+3] != (byte)0) || (historyData[offset+4] != (byte)0);
+	}
 
-		for (int i=0; i < dataCount; i++)
+	/**
+	 * Appends a record to the history columns.
+	 *
+	 * @param v the field values of the record, indexed by {@code CardLayouts} History slot numbers
+	 */
+	private void addHistoryRecord(int[] v)
+	{
+		int index = historyLen;
+		//Store transaction type
+		historyTransactionTypes[index] = v[CardLayouts.HI_TRANSACTION_TYPE];
+
+		if (version == 1)
 		{
-			//check if current field seems to contain data (some date and time bytes are not zeroes)
-			if ( (historyData[i*12+1] != (byte)0) || (historyData[i*12+2] != (byte)0) || (historyData[i*12+3] != (byte)0) || (historyData[i*12+4] != (byte)0) )
-			{
-				//allocate memory for new history field
-				historyFields[historyLen] = new History();
-				//Store transaction type
-				historyFields[historyLen].setTransactionType(Convert.getByteValue(historyData, 0 + (i * 96), 1));
-				//Get transaction date and time (date from transfer end date, and time from boarding time)
-				int date 	= Convert.getShortValue(historyData, 1 	+ (i * 96), 14);
-				int time 	= Convert.getShortValue(historyData, 15 + (i * 96), 11);
-
-                //set visible boarding date and time
-                historyFields[historyLen].setTransactionDTime(Convert.en5145DateAndTime2JavaDate(date, time));
-
-                // 15.11.2018 Joni
-                // Add end dates
-                date 	= Convert.getShortValue(historyData, 26	+ (i * 96), 14);
-                time 	= Convert.getShortValue(historyData, 40 + (i * 96), 11);
-                historyFields[historyLen].setTransferEndDate(Convert.en5145DateAndTime2JavaDate(date, time));
-
-				//Get value ticket price
-				historyFields[historyLen].setPrice( Convert.getShortValue(historyData, 51 + (i * 96), 14) );
-				//Get group size
-				historyFields[historyLen].setGroupSize( Convert.getByteValue(historyData, 65 + (i * 96), 6) );
-				//increment counter
-				historyLen++;
-			}
+			//Get transaction date and time (date from transfer end date, and time from boarding time)
+			int date = v[CardLayouts.HI_TRANSFER_END_DATE];
+			int time = v[CardLayouts.HI_BOARDING_TIME];
+			//if transfer end time is before boarding time, the day has changed after boarding
+			//and we have to subtract one day from the transfer end date to get real boarding date
+			if (v[CardLayouts.HI_TRANSFER_END_TIME] < time)
+				date -= 1;
+
+			//set visible boarding date and time
+			historyTransactionDTimes[index] = zone.toMillis(date, time);
+			historyTransferEndDates[index] = Convert.NO_DATE;
+		}
+		else
+		{
+			//set visible boarding date and time
+			historyTransactionDTimes[index] = zone.toMillis(v[CardLayouts.HI_BOARDING_DATE], v[CardLayouts.HI_BOARDING_TIME]);
+			// 15.11.2018 Joni
+			// Add end dates
+			historyTransferEndDates[index] = zone.toMillis(v[CardLayouts.HI_TRANSFER_END_DATE], v[CardLayouts.HI_TRANSFER_END_TIME]);
 		}
 
+		//Get value ticket price
+		historyPrices[index] = v[CardLayouts.HI_PRICE];
+		//Get group size
+		historyGroupSizes[index] = v[CardLayouts.HI_GROUP_SIZE];
+		//increment counter
+		historyLen++;
 	}
 
 	/**
@@ -515,6 +891,7 @@ public class TravelCard
 	 * @return the application version
 	 */
 	public int getApplicationVersion() {
+		ensureDecoded(FILE_APPLICATION_INFO);
 		return applicationVersion;
 	}
 
@@ -524,6 +901,7 @@ public class TravelCard
 	 * @return the application key version int
 	 */
 	public int getApplicationKeyVersion() {
+		ensureDecoded(FILE_APPLICATION_INFO);
 		return applicationKeyVersion;
 	}
 
@@ -533,6 +911,7 @@ public class TravelCard
 	 * @return the application instance id string
 	 */
 	public String getApplicationInstanceId() {
+		ensureDecoded(FILE_APPLICATION_INFO);
 		return applicationInstanceId;
 	}
 
@@ -542,6 +921,7 @@ public class TravelCard
 	 * @return the platform type
 	 */
 	public int getPlatformType() {
+		ensureDecoded(FILE_APPLICATION_INFO);
 		return platformType;
 	}
 
@@ -551,6 +931,7 @@ public class TravelCard
 	 * @return the security level
 	 */
 	public int getSecurityLevel() {
+		ensureDecoded(FILE_APPLICATION_INFO);
 		return securityLevel;
 	}
 
@@ -559,7 +940,10 @@ public class TravelCard
 	 *
 	 * @return product code type
 	 */
-	public int getProductCodeType1() { return productCodeType1; }
+	public int getProductCodeType1() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return productCodeType1;
+	}
 
 	/**
 	 * Gets the first period pass product's product code.
@@ -567,6 +951,7 @@ public class TravelCard
 	 * @return product code
 	 */
 	public int getProductCode1() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return productCode1;
 	}
 
@@ -576,6 +961,7 @@ public class TravelCard
 	 * @return period's validity area type
 	 */
 	public int getValidityAreaType1() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return validityAreaType1;
 	}
 
@@ -585,15 +971,37 @@ public class TravelCard
 	 * @return period's validity area
 	 */
 	public int getValidityArea1() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return validityArea1;
 	}
 
+	/**
+	 * Gets the first period pass product's validity area as a {@link ZoneMask} bit mask.
+	 *
+	 * @return the mask of the period's validity area, 0 if the area is unknown
+	 */
+	public int getValidityAreaMask1() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return ZoneMask.forArea(validityAreaType1, validityArea1);
+	}
+
 	/**
 	 * Gets the first period pass product's period start date.
 	 *
 	 * @return period's start date
 	 */
 	public Date getPeriodStartDate1() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return Convert.millis2JavaDate(periodStartDate1);
+	}
+
+	/**
+	 * Gets the first period pass product's period start date without creating a Date.
+	 *
+	 * @return period's start date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodStartDate1Millis() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodStartDate1;
 	}
 
@@ -603,6 +1011,17 @@ public class TravelCard
 	 * @return period's end date
 	 */
 	public Date getPeriodEndDate1() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return Convert.millis2JavaDate(periodEndDate1);
+	}
+
+	/**
+	 * Gets the first period pass product's period end date without creating a Date.
+	 *
+	 * @return period's end date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodEndDate1Millis() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodEndDate1;
 	}
 
@@ -612,6 +1031,7 @@ public class TravelCard
 	 * @return length of the period
 	 */
 	public int getPeriodLength1() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodLength1;
 	}
 
@@ -620,7 +1040,10 @@ public class TravelCard
 	 *
 	 * @return period's product code type
 	 */
-	public int getProductCodeType2() { return productCodeType2; }
+	public int getProductCodeType2() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return productCodeType2;
+	}
 
 	/**
 	 * Gets the second period pass product's product code.
@@ -628,6 +1051,7 @@ public class TravelCard
 	 * @return period's product code
 	 */
 	public int getProductCode2() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return productCode2;
 	}
 
@@ -637,6 +1061,7 @@ public class TravelCard
 	 * @return period's validity area type
 	 */
 	public int getValidityAreaType2() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return validityAreaType2;
 	}
 
@@ -646,15 +1071,37 @@ public class TravelCard
 	 * @return period's validity area
 	 */
 	public int getValidityArea2() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return validityArea2;
 	}
 
+	/**
+	 * Gets the second period pass product's validity area as a {@link ZoneMask} bit mask.
+	 *
+	 * @return the mask of the period's validity area, 0 if the area is unknown
+	 */
+	public int getValidityAreaMask2() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return ZoneMask.forArea(validityAreaType2, validityArea2);
+	}
+
 	/**
 	 * Gets the second period pass product's period start date.
 	 *
 	 * @return period's start date
 	 */
 	public Date getPeriodStartDate2() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return Convert.millis2JavaDate(periodStartDate2);
+	}
+
+	/**
+	 * Gets the second period pass product's period start date without creating a Date.
+	 *
+	 * @return period's start date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodStartDate2Millis() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodStartDate2;
 	}
 
@@ -664,6 +1111,17 @@ public class TravelCard
 	 * @return period's end date
 	 */
 	public Date getPeriodEndDate2() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return Convert.millis2JavaDate(periodEndDate2);
+	}
+
+	/**
+	 * Gets the second period pass product's period end date without creating a Date.
+	 *
+	 * @return period's end date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodEndDate2Millis() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodEndDate2;
 	}
 
@@ -673,6 +1131,7 @@ public class TravelCard
 	 * @return length of the period
 	 */
 	public int getPeriodLength2() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodLength2;
 	}
 
@@ -682,6 +1141,7 @@ public class TravelCard
 	 * @return the amount of stored value
 	 */
 	public int getStoredValueCounter() {
+		ensureDecoded(FILE_STORED_VALUE);
 		return storedValueCounter;
 	}
 
@@ -691,16 +1151,60 @@ public class TravelCard
 	 * @return the value ticket instance
 	 */
 	public eTicket getValueTicket() {
+		ensureDecoded(FILE_ETICKET);
 		return valueTicket;
 	}
 
 	/**
 	 * Gets the card usage history data. The array contains at maximum seven latest boarding events
+	 * in the first {@link #getHistoryLen()} elements, the rest may hold records of a card decoded earlier into the same instance.
+	 * <p>
+	 * The History objects are created from the decoded records on the first call. Use {@link #historyCursor()} to read the records without objects.
+	 * A frozen card returns new copies of its History objects on every call, with the elements after {@link #getHistoryLen()} null.
 	 *
 	 * @return the history
 	 */
 	public History[] getHistory() {
-		return historyFields;
+		ensureDecoded(FILE_HISTORY);
+		if (!historyFieldsFilled)
+			fillHistoryFields();
+		if (!frozen)
+			return historyFields;
+
+		History[] copy = new History[HISTORY_RECORDS];
+		for (int i = 0; i < historyLen; i++)
+			copy[i] = historyFields[i].copy();
+		return copy;
+	}
+
+	/**
+	 * Copies the decoded history records to the History objects, reusing the objects of a card decoded earlier into the same instance.
+	 */
+	private synchronized void fillHistoryFields() {
+		if (historyFieldsFilled)
+			return;
+
+		for (int i = 0; i < historyLen; i++)
+		{
+			History history = historyFields[i];
+			if (history == null)
+				history = historyFields[i] = new History();
+			history.transactionDTime = historyTransactionDTimes[i];
+			history.transferEndDate = historyTransferEndDates[i];
+			history.transactionType = historyTransactionTypes[i];
+			history.price = historyPrices[i];
+			history.groupSize = historyGroupSizes[i];
+		}
+		historyFieldsFilled = true;
+	}
+
+	/**
+	 * Gets a cursor over the card usage history. The cursor reads the decoded records without creating History objects.
+	 *
+	 * @return the cursor, positioned before the first record
+	 */
+	public HistoryCursor historyCursor() {
+		return new HistoryCursor(this);
 	}
 
 	/**
@@ -709,6 +1213,7 @@ public class TravelCard
 	 * @return number of elements in the card's @see History[] array
 	 */
 	public int getHistoryLen(){
+		ensureDecoded(FILE_HISTORY);
 		return historyLen;
 	}
 
@@ -717,7 +1222,10 @@ public class TravelCard
 	 *
 	 * @return the boarding area type
 	 */
-	public int getBoardingAreaType() { return boardingAreaType; }
+	public int getBoardingAreaType() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return boardingAreaType;
+	}
 
 	/**
 	 * Gets the boarding area.
@@ -725,6 +1233,7 @@ public class TravelCard
 	 * @return the boarding area
 	 */
 	public int getBoardingArea() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return boardingArea;
 	}
 
@@ -734,6 +1243,17 @@ public class TravelCard
 	 * @return the boarding date
 	 */
 	public Date getBoardingDate() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return Convert.millis2JavaDate(boardingDate);
+	}
+
+	/**
+	 * Gets the boarding date without creating a Date.
+	 *
+	 * @return the boarding date in milliseconds since 1.1.1970
+	 */
+	public long getBoardingDateMillis() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return boardingDate;
 	}
 
@@ -743,6 +1263,7 @@ public class TravelCard
 	 * @return the boarding vehicle
 	 */
 	public int getBoardingVehicle() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return boardingVehicle;
 	}
 
@@ -752,6 +1273,7 @@ public class TravelCard
 	 * @return the boarding location num type
 	 */
 	public int getBoardingLocationNumType() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return boardingLocationNumType;
 	}
 
@@ -761,6 +1283,7 @@ public class TravelCard
 	 * @return the boarding location num
 	 */
 	public int getBoardingLocationNum() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return boardingLocationNum;
 	}
 
@@ -770,6 +1293,7 @@ public class TravelCard
 	 * @return the boarding direction
 	 */
 	public int getBoardingDirection() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return boardingDirection;
 	}
 
@@ -778,7 +1302,10 @@ public class TravelCard
 	 *
 	 * @return the loaded period product type
 	 */
-	public int getLoadedPeriodProductType() { return loadedPeriodProductType; }
+	public int getLoadedPeriodProductType() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return loadedPeriodProductType;
+	}
 
 	/**
 	 * Gets the loaded period product.
@@ -786,6 +1313,7 @@ public class TravelCard
 	 * @return the loaded period product
 	 */
 	public int getLoadedPeriodProduct() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return loadedPeriodProduct;
 	}
 
@@ -795,6 +1323,17 @@ public class TravelCard
 	 * @return the period loading date
 	 */
 	public Date getPeriodLoadingDate() {
+		ensureDecoded(FILE_PERIOD_PASS);
+		return Convert.millis2JavaDate(periodLoadingDate);
+	}
+
+	/**
+	 * Gets the period loading date without creating a Date.
+	 *
+	 * @return the period loading date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodLoadingDateMillis() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodLoadingDate;
 	}
 
@@ -804,6 +1343,7 @@ public class TravelCard
 	 * @return the loaded period length
 	 */
 	public int getLoadedPeriodLength() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return loadedPeriodLength;
 	}
 
@@ -813,6 +1353,7 @@ public class TravelCard
 	 * @return the loaded period price
 	 */
 	public int getLoadedPeriodPrice() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return loadedPeriodPrice;
 	}
 
@@ -822,6 +1363,7 @@ public class TravelCard
 	 * @return the period loading organization
 	 */
 	public int getPeriodLoadingOrganization() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodLoadingOrganization;
 	}
 
@@ -831,6 +1373,7 @@ public class TravelCard
 	 * @return the period loading device number
 	 */
 	public int getPeriodLoadingDeviceNumber() {
+		ensureDecoded(FILE_PERIOD_PASS);
 		return periodLoadingDeviceNumber;
 	}
 
@@ -840,6 +1383,7 @@ public class TravelCard
 	 * @return the app status
 	 */
 	public int getAppStatus() {
+		ensureDecoded(FILE_CONTROL_INFO);
 		return appStatus;
 	}
 
@@ -853,6 +1397,7 @@ public class TravelCard
 
 	/**
 	 * The History class represents one history record from the History file. History file holds up to 7 records of transaction history.
+	 * History objects are views created on demand, see {@link TravelCard#getHistory()}.
 	 * <p>
 	 * History class stores following data from transaction:
 	 * <ul>
@@ -863,10 +1408,10 @@ public class TravelCard
 	 * <li>{@code price} - The price of the value ticket (used only with value tickets)</li>
 	 * </ul>
 	 */
-	public class History {
+	public static class History {
 
-		/** The transaction d time. */
-	    private Date transactionDTime;
+		/** The transaction d time in milliseconds since 1.1.1970. */
+	    private long transactionDTime = Convert.NO_DATE;
 		/** The transaction type. */
 	    private int transactionType;
 		/** The group size. */
@@ -875,22 +1420,29 @@ public class TravelCard
 	    private int price;
 
 	    // 15.11.2018
-        // Transfer end date field
-        private Date transferEndDate;
+        // Transfer end date field, in milliseconds since 1.1.1970
+        private long transferEndDate = Convert.NO_DATE;
 
 		/**
 		 * Gets the transaction d time.
 		 *
 		 * @return the transaction d time
 		 */
-	    public Date getTransactionDTime() {return transactionDTime;}
+	    public Date getTransactionDTime() {return Convert.millis2JavaDate(transactionDTime);}
+
+		/**
+		 * Gets the transaction d time without creating a Date.
+		 *
+		 * @return the transaction d time in milliseconds since 1.1.1970
+		 */
+	    public long getTransactionDTimeMillis() {return transactionDTime;}
 
 		/**
 		 * Sets the transaction d time.
 		 *
 		 * @param in the new transaction d time
 		 */
-		public void setTransactionDTime(Date in){ transactionDTime = in; }
+		public void setTransactionDTime(Date in){ transactionDTime = in != null ? in.getTime() : Convert.NO_DATE; }
 
 		/**
 		 * Gets the transaction type.
@@ -939,7 +1491,14 @@ public class TravelCard
 		 *
 		 * @return the transfer end date
 		 */
-		public Date getTransferEndDate() { return transferEndDate; }
+		public Date getTransferEndDate() { return Convert.millis2JavaDate(transferEndDate); }
+
+		/**
+		 * Gets the transfer end date without creating a Date.
+		 *
+		 * @return the transfer end date in milliseconds since 1.1.1970, {@code Convert.NO_DATE} if the card has no transfer end date
+		 */
+		public long getTransferEndDateMillis() { return transferEndDate; }
 
 		/**
 		 * Sets the transfer end date.
@@ -947,7 +1506,142 @@ public class TravelCard
 		 * @param transferEndDate new end date
 		 */
         public void setTransferEndDate(Date transferEndDate) {
-            this.transferEndDate = transferEndDate;
+            this.transferEndDate = transferEndDate != null ? transferEndDate.getTime() : Convert.NO_DATE;
         }
+
+		/**
+		 * Copies the history record.
+		 *
+		 * @return a new History with the same values
+		 */
+		History copy() {
+			History history = new History();
+			history.transactionDTime = transactionDTime;
+			history.transactionType = transactionType;
+			history.groupSize = groupSize;
+			history.price = price;
+			history.transferEndDate = transferEndDate;
+			return history;
+		}
     }
+
+	/**
+	 * The HistoryCursor class reads the history records of a travel card one by one without creating objects.
+	 * <p>
+	 * One cursor can be moved to the history of another card with {@link #reset(TravelCard)}, so a loop over many cards needs a single cursor:
+	 * <pre>
+	 * HistoryCursor cursor = new HistoryCursor();
+	 * for (TravelCard card : cards) {
+	 *     cursor.reset(card);
+	 *     while (cursor.next()) {
+	 *         long time = cursor.getTransactionDTimeMillis();
+	 *         ...
+	 *     }
+	 * }
+	 * </pre>
+	 */
+	public static class HistoryCursor {
+
+		/** The card whose history is read. */
+		private TravelCard card;
+		/** The index of the current record, -1 before the first record. */
+		private int index = -1;
+
+		/**
+		 * Instantiates a new cursor without a card, to be set with {@link #reset(TravelCard)}.
+		 */
+		public HistoryCursor() {
+		}
+
+		/**
+		 * Instantiates a new cursor over the history of the given card.
+		 *
+		 * @param card the travel card
+		 */
+		public HistoryCursor(TravelCard card) {
+			reset(card);
+		}
+
+		/**
+		 * Moves the cursor to the history of the given card, before its first record.
+		 *
+		 * @param card the travel card
+		 * @return this cursor
+		 */
+		public HistoryCursor reset(TravelCard card) {
+			card.ensureDecoded(FILE_HISTORY);
+			this.card = card;
+			this.index = -1;
+			return this;
+		}
+
+		/**
+		 * Moves to the next record.
+		 *
+		 * @return true if there is a record, false after the last record
+		 */
+		public boolean next() {
+			if (card == null || index + 1 >= card.historyLen)
+				return false;
+			index++;
+			return true;
+		}
+
+		/**
+		 * Gets the index of the current record.
+		 *
+		 * @return the index, same as in {@link TravelCard#getHistory()}
+		 */
+		public int getIndex() { return index; }
+
+		/**
+		 * Gets the transaction date and time of the current record.
+		 *
+		 * @return the transaction d time in milliseconds since 1.1.1970
+		 */
+		public long getTransactionDTimeMillis() { return card.historyTransactionDTimes[index]; }
+
+		/**
+		 * Gets the transfer end date of the current record.
+		 *
+		 * @return the transfer end date in milliseconds since 1.1.1970, {@code Convert.NO_DATE} if the card has no transfer end date
+		 */
+		public long getTransferEndDateMillis() { return card.historyTransferEndDates[index]; }
+
+		/**
+		 * Gets the transaction type of the current record.
+		 *
+		 * @return the transaction type
+		 */
+		public int getTransactionType() { return card.historyTransactionTypes[index]; }
+
+		/**
+		 * Gets the price of the current record.
+		 *
+		 * @return the price
+		 */
+		public int getPrice() { return card.historyPrices[index]; }
+
+		/**
+		 * Gets the group size of the current record.
+		 *
+		 * @return the group size
+		 */
+		public int getGroupSize() { return card.historyGroupSizes[index]; }
+
+		/**
+		 * Creates a History object of the current record.
+		 *
+		 * @return a new History object
+		 */
+		public History toHistory() {
+			History history = new History();
+			history.transactionDTime = getTransactionDTimeMillis();
+			history.transferEndDate = getTransferEndDateMillis();
+			history.transactionType = getTransactionType();
+			history.price = getPrice();
+			history.groupSize = getGroupSize();
+			return history;
+		}
+	}
 }
@@ -0,0 +1,370 @@
+/*
+ * TravelCardCache.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The Class TravelCardCache keeps recently decoded travel cards, so that a card read again with unchanged data is not decoded again.
+ * <p>
+ * The cache holds one entry per card, keyed by the application instance id. The entry also holds the hash and a copy of the raw data
+ * in the record format of {@link TravelCardView}. A lookup is a hit only if the hash and the data are both equal, so a changed card,
+ * for example after a new boarding, replaces its entry with a newly decoded TravelCard.
+ * <p>
+ * Entries are evicted in least recently used order when the cache is full, and they expire after the given time to live.
+ * The cards returned are shared by all callers, so they are fully decoded and frozen before they are stored:
+ * {@code decodeInto} and {@code decodeChanged} of a cached card or its value ticket throw IllegalStateException,
+ * and {@code getHistory} returns copies of the History objects.
+ * The public {@code errorStatus} field can not be protected. An entry whose card has a changed error status is decoded again.
+ * <p>
+ * The cache is thread safe. Cards are decoded outside the lock of the cache, so a miss does not hold up the lookups of other threads.
+ * Threads missing the same data at the same time each decode it, and the first card stored is returned to all of them.
+ */
+public class TravelCardCache
+{
+	/** The maximum number of entries. */
+	private final int maxEntries;
+	/** The time to live of an entry in nanoseconds, 0 for no expiry. */
+	private final long ttlNanos;
+
+	/** The entries in least recently used order. */
+	private final LinkedHashMap<Key, Entry> entries;
+
+	/** The record of the card being looked up by each thread. */
+	private static final ThreadLocal<byte[]> records = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[TravelCardView.RECORD_LENGTH];
+		}
+	};
+
+	//Statistics
+	/** The number of lookups returning a cached card. */
+	private long hits;
+	/** The number of lookups decoding a card. */
+	private long misses;
+	/** The number of entries evicted because the cache was full. */
+	private long evictions;
+	/** The number of entries dropped because they had expired. */
+	private long expirations;
+
+	/**
+	 * Instantiates a new cache.
+	 *
+	 * @param maxEntries the maximum number of cards
+	 * @param ttlMillis the time to live of an entry in milliseconds, 0 for no expiry
+	 */
+	public TravelCardCache(int maxEntries, long ttlMillis)
+	{
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Invalid cache size " + maxEntries);
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttlMillis * 1000000L;
+
+		entries = new LinkedHashMap<Key, Entry>(Math.min(maxEntries, 1024) * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() <= TravelCardCache.this.maxEntries)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Gets the travel card of the given files, from the cache if the same data has been decoded before.
+	 * The lengths of the byte arrays have to be at least the lengths of the files of the card version, as in the TravelCard constructor.
+	 *
+	 * @param appInfo data from the ApplicationInformation file
+	 * @param ctrlInfo data from the ControlInformation file
+	 * @param periodPass data from the PeriodPass file
+	 * @param storedValue data from the StoredValue file
+	 * @param eTicket data from the eTicket file
+	 * @param history data from the History file
+	 * @param version version code for card (1 or 2)
+	 * @return the travel card, read-only
+	 */
+	public TravelCard get(byte[] appInfo, byte[] ctrlInfo, byte[] periodPass, byte[] storedValue, byte[] eTicket, byte[] history, int version)
+	{
+		byte[] record = records.get();
+		TravelCardView.writeRecord(appInfo, ctrlInfo, periodPass, storedValue, eTicket, history, version, record, 0);
+		Key key = new Key(record, version);
+		int hash = hash(record);
+		TravelCard card = lookup(key, record, hash);
+		if (card != null)
+			return card;
+
+		card = new TravelCard(appInfo, ctrlInfo, periodPass, storedValue, eTicket, history, version);
+		card.freeze();
+		return install(key, record, hash, card);
+	}
+
+	/**
+	 * Gets the travel card of a record in the format of {@link TravelCardView}, from the cache if the same data has been decoded before.
+	 *
+	 * @param data the byte array
+	 * @param offset offset of the record in the array
+	 * @param version version code for card (1 or 2)
+	 * @return the travel card, read-only
+	 */
+	public TravelCard get(byte[] data, int offset, int version)
+	{
+		byte[] record = records.get();
+		System.arraycopy(data, offset, record, 0, TravelCardView.RECORD_LENGTH);
+		Key key = new Key(record, version);
+		int hash = hash(record);
+		TravelCard card = lookup(key, record, hash);
+		if (card != null)
+			return card;
+
+		card = new TravelCardView().wrap(record, 0, version).toTravelCard();
+		card.freeze();
+		return install(key, record, hash, card);
+	}
+
+	/**
+	 * Looks up a record. An expired entry is removed.
+	 *
+	 * @param key the key of the record
+	 * @param record the record
+	 * @param hash the hash of the record
+	 * @return the cached card, null on a miss
+	 */
+	private synchronized TravelCard lookup(Key key, byte[] record, int hash)
+	{
+		Entry entry = entries.get(key);
+		if (entry != null)
+		{
+			if (isExpired(entry, System.nanoTime()))
+			{
+				entries.remove(key);
+				expirations++;
+			}
+			else if (entry.matches(record, hash))
+			{
+				hits++;
+				return entry.card;
+			}
+		}
+
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Stores a card decoded after a miss, unless another thread has stored a card of the same record in the meantime.
+	 *
+	 * @param key the key of the record
+	 * @param record the record, copied to the entry
+	 * @param hash the hash of the record
+	 * @param card the decoded and frozen card
+	 * @return the stored card
+	 */
+	private synchronized TravelCard install(Key key, byte[] record, int hash, TravelCard card)
+	{
+		long now = System.nanoTime();
+		Entry entry = entries.get(key);
+		if (entry != null && !isExpired(entry, now) && entry.matches(record, hash))
+			return entry.card;
+
+		entries.put(key, new Entry(record.clone(), hash, now, card));
+		return card;
+	}
+
+	/**
+	 * Checks if an entry has outlived the time to live.
+	 *
+	 * @param entry the entry
+	 * @param now the current time from System.nanoTime()
+	 * @return true if the entry has expired
+	 */
+	private boolean isExpired(Entry entry, long now)
+	{
+		return ttlNanos > 0 && now - entry.created > ttlNanos;
+	}
+
+	/**
+	 * Removes all entries. The statistics are not reset.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Gets the number of cached cards, including expired cards not yet looked up.
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int size() { return entries.size(); }
+
+	/**
+	 * Gets the maximum number of cached cards.
+	 *
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries() { return maxEntries; }
+
+	/**
+	 * Gets the number of lookups that returned a cached card.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() { return hits; }
+
+	/**
+	 * Gets the number of lookups that decoded a card.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() { return misses; }
+
+	/**
+	 * Gets the number of entries evicted because the cache was full.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() { return evictions; }
+
+	/**
+	 * Gets the number of entries dropped because they had expired.
+	 *
+	 * @return the number of expirations
+	 */
+	public synchronized long getExpirations() { return expirations; }
+
+	/**
+	 * Gets the share of lookups that returned a cached card.
+	 *
+	 * @return the hit rate between 0 and 1
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups > 0 ? (double) hits / lookups : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.ENGLISH, "%d/%d cards, %d hits, %d misses, %d evictions, %d expirations",
+				entries.size(), maxEntries, hits, misses, evictions, expirations);
+	}
+
+	/**
+	 * Computes the hash of a record, FNV-1a over four bytes at a time.
+	 *
+	 * @param data the record
+	 * @return the hash
+	 */
+	static int hash(byte[] data)
+	{
+		int h = 0x811C9DC5;
+		int i = 0;
+		for (; i + 4 <= data.length; i += 4)
+		{
+			h ^= (data[i] & 0xFF) << 24 | (data[i + 1] & 0xFF) << 16 | (data[i + 2] & 0xFF) << 8 | (data[i + 3] & 0xFF);
+			h *= 0x01000193;
+		}
+		for (; i < data.length; i++)
+		{
+			h ^= data[i] & 0xFF;
+			h *= 0x01000193;
+		}
+		return h;
+	}
+
+	/**
+	 * The Key class identifies a card by its application instance id and version.
+	 */
+	private static class Key
+	{
+		/** The first eight bytes of the application instance id. */
+		private final long high;
+		/** The last byte of the application instance id and the card version. */
+		private final int low;
+
+		/**
+		 * Instantiates a new key from the ApplicationInformation file of a record.
+		 *
+		 * @param record the record
+		 * @param version version code for card (1 or 2)
+		 */
+		Key(byte[] record, int version)
+		{
+			long h = 0;
+			for (int i = 1; i <= 8; i++)
+				h = (h << 8) | (record[TravelCardView.APPLICATION_INFO_OFFSET + i] & 0xFF);
+			high = h;
+			low = (record[TravelCardView.APPLICATION_INFO_OFFSET + 9] & 0xFF) | version << 8;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (high ^ (high >>> 32)) * 31 + low;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return high == other.high && low == other.low;
+		}
+	}
+
+	/**
+	 * The Entry class holds a cached card and the data it was decoded from.
+	 */
+	private static class Entry
+	{
+		/** The record the card was decoded from. */
+		final byte[] record;
+		/** The hash of the record. */
+		final int hash;
+		/** The time the entry was created, from System.nanoTime(). */
+		final long created;
+		/** The card. */
+		final TravelCard card;
+
+		Entry(byte[] record, int hash, long created, TravelCard card)
+		{
+			this.record = record;
+			this.hash = hash;
+			this.created = created;
+			this.card = card;
+		}
+
+		/**
+		 * Checks if the entry holds a valid card of a record.
+		 *
+		 * @param record the record
+		 * @param hash the hash of the record
+		 * @return true if the card can be returned for the record
+		 */
+		boolean matches(byte[] record, int hash)
+		{
+			return this.hash == hash && Arrays.equals(this.record, record) && card.errorStatus == TravelCard.OK_STATUS;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * TravelCardCodec.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import java.util.Arrays;
+
+/**
+ * The Class TravelCardCodec encodes a decoded TravelCard to a compact binary form and back, for caching and for sending between services.
+ * <p>
+ * The encoded form holds the field values of the files, indexed by the {@code CardLayouts} slot numbers.
+ * Dates and times are kept as en1545 days and minutes, so they do not depend on the time zone.
+ * Each value is a variable-length number of 7 bits per byte, and only the non-zero fields of a file are written,
+ * after a mask of the slots that have a value. A card in use takes about 80 bytes without its history and up to about 170 bytes with eight history records.
+ * <pre>
+ * byte       format version, {@link #FORMAT_VERSION}
+ * byte       card version in bits 0-1, sections in bits 2-3, bit 7 set for an error status
+ * varint     error status, only if bit 7 is set, in which case nothing follows
+ * 11 bytes   ApplicationInformation file
+ * varint     ControlInformation app status
+ * mask+values PeriodPass fields
+ * varint     StoredValue counter
+ * mask+values eTicket fields, the extension fields only with {@link #SECTION_ETICKET_EXTENSION}
+ * with {@link #SECTION_HISTORY}: byte count, then mask+values of each history record with data
+ * </pre>
+ * {@link #decode(byte[], int, int, TravelCard)} sets the member variables of the card from the values, nothing is extracted from raw data.
+ * The raw data of the decoded card is rebuilt from the values, so it can be encoded again, but bits that are not part of any field are zero.
+ * <p>
+ * A codec is not thread safe, use one instance per thread.
+ */
+public class TravelCardCodec
+{
+	/** The version of the encoded form. */
+	public static final int FORMAT_VERSION = 1;
+
+	/** Section flag for the history records. */
+	public static final int SECTION_HISTORY = 1;
+	/** Section flag for the eTicket extension fields of TLJ2014 cards. */
+	public static final int SECTION_ETICKET_EXTENSION = 2;
+	/** Flags of all sections. */
+	public static final int ALL_SECTIONS = SECTION_HISTORY | SECTION_ETICKET_EXTENSION;
+
+	/** The length of the ApplicationInformation file. */
+	private static final int APPLICATION_INFO_LENGTH = 11;
+	/** The longest variable-length number of a field value. */
+	private static final int MAX_VALUE_LENGTH = 5;
+	/** The longest variable-length mask. */
+	private static final int MAX_MASK_LENGTH = 10;
+
+	/** The longest encoded card. */
+	public static final int MAX_ENCODED_LENGTH = 2 + APPLICATION_INFO_LENGTH + MAX_VALUE_LENGTH
+			+ MAX_MASK_LENGTH + CardLayouts.PERIOD_PASS_FIELDS * MAX_VALUE_LENGTH
+			+ MAX_VALUE_LENGTH
+			+ MAX_MASK_LENGTH + CardLayouts.ETICKET_FIELDS * MAX_VALUE_LENGTH
+			+ 1 + CardBatch.HISTORY_RECORDS * (MAX_MASK_LENGTH + CardLayouts.HISTORY_FIELDS * MAX_VALUE_LENGTH);
+
+	/** The mask of the eTicket extension slots. */
+	private static final long ETICKET_EXTENSION_MASK = extensionMask();
+
+	/** Bit 7 of the second byte, set for an error status. */
+	private static final int ERROR_FLAG = 0x80;
+
+	/** The field values of the file being encoded or decoded. */
+	private final int[] fieldValues = new int[CardLayouts.MAX_FIELDS];
+	/** The buffer for a full encoding, used by {@link #encode(TravelCard)}. */
+	private final byte[] buffer = new byte[MAX_ENCODED_LENGTH];
+	/** The read or write position. */
+	private int pos;
+	/** The end of the data being decoded. */
+	private int end;
+
+	/**
+	 * Builds the mask of the eTicket extension slots.
+	 *
+	 * @return the mask
+	 */
+	private static long extensionMask()
+	{
+		long mask = 0;
+		for (int slot = CardLayouts.ET_EXTRA_ZONE; slot <= CardLayouts.ET_EXT2_FARE; slot++)
+			mask |= 1L << slot;
+		return mask;
+	}
+
+	/**
+	 * Encodes a card with all sections to a new byte array.
+	 *
+	 * @param card the card
+	 * @return the encoded card
+	 */
+	public byte[] encode(TravelCard card)
+	{
+		return Arrays.copyOf(buffer, encode(card, ALL_SECTIONS, buffer, 0));
+	}
+
+	/**
+	 * Encodes a card to a byte array.
+	 *
+	 * @param card the card
+	 * @param sections the optional sections to include, a combination of {@code SECTION_HISTORY, SECTION_ETICKET_EXTENSION}
+	 * @param out the byte array, with room for {@link #MAX_ENCODED_LENGTH} bytes
+	 * @param offset offset in the array
+	 * @return the number of bytes written
+	 */
+	public int encode(TravelCard card, int sections, byte[] out, int offset)
+	{
+		int version = card.getVersion();
+		pos = offset;
+		out[pos++] = (byte) FORMAT_VERSION;
+
+		if (card.errorStatus != TravelCard.OK_STATUS)
+		{
+			out[pos++] = (byte) ((version & 3) | ERROR_FLAG);
+			writeVarint(out, card.errorStatus & 0xFFFFFFFFL);
+			return pos - offset;
+		}
+		out[pos++] = (byte) ((version & 3) | (sections & ALL_SECTIONS) << 2);
+
+		card.copyApplicationInfo(out, pos);
+		pos += APPLICATION_INFO_LENGTH;
+
+		int[] v = fieldValues;
+		card.extractFields(TravelCard.FILE_CONTROL_INFO, v);
+		writeVarint(out, v[CardLayouts.CI_APP_STATUS]);
+
+		card.extractFields(TravelCard.FILE_PERIOD_PASS, v);
+		writeFields(out, v, CardLayouts.PERIOD_PASS_FIELDS, -1L);
+
+		card.extractFields(TravelCard.FILE_STORED_VALUE, v);
+		writeVarint(out, v[CardLayouts.SV_VALUE_COUNTER]);
+
+		card.extractFields(TravelCard.FILE_ETICKET, v);
+		writeFields(out, v, CardLayouts.ETICKET_FIELDS, (sections & SECTION_ETICKET_EXTENSION) != 0 ? -1L : ~ETICKET_EXTENSION_MASK);
+
+		if ((sections & SECTION_HISTORY) != 0)
+		{
+			int countPos = pos++;
+			int count = 0;
+			int records = card.getHistoryRecordCount();
+			for (int i = 0; i < records && count < CardBatch.HISTORY_RECORDS; i++)
+			{
+				if (!card.extractHistoryRecord(i, v))
+					continue;
+				writeFields(out, v, CardLayouts.HISTORY_FIELDS, -1L);
+				count++;
+			}
+			out[countPos] = (byte) count;
+		}
+		return pos - offset;
+	}
+
+	/**
+	 * Decodes a card to a new TravelCard.
+	 *
+	 * @param in the encoded card
+	 * @return the travel card
+	 */
+	public TravelCard decode(byte[] in)
+	{
+		return decode(in, 0, in.length, null);
+	}
+
+	/**
+	 * Decodes a card. The given card is re-initialised like with {@code TravelCard.decodeInto}, so one instance can be reused for many cards.
+	 *
+	 * @param in the byte array
+	 * @param offset offset of the encoded card in the array
+	 * @param length length of the encoded card
+	 * @param into the card to decode into, null to create a new one
+	 * @return the travel card
+	 * @throws IllegalArgumentException if the data is not a valid encoded card
+	 */
+	public TravelCard decode(byte[] in, int offset, int length, TravelCard into)
+	{
+		TravelCard card = into != null ? into : new TravelCard();
+		pos = offset;
+		end = offset + length;
+
+		int format = readByte(in);
+		if (format != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unsupported encoded card format " + format);
+		int flags = readByte(in);
+		int version = flags & 3;
+
+		if ((flags & ERROR_FLAG) != 0)
+		{
+			int errorStatus = (int) readVarint(in);
+			card.resetFields(version, errorStatus, new byte[APPLICATION_INFO_LENGTH], 0);
+			return card;
+		}
+
+		if (end - pos < APPLICATION_INFO_LENGTH)
+			throw new IllegalArgumentException("Truncated encoded card");
+		card.resetFields(version, TravelCard.OK_STATUS, in, pos);
+		pos += APPLICATION_INFO_LENGTH;
+
+		int[] v = fieldValues;
+		Arrays.fill(v, 0);
+		v[CardLayouts.CI_APP_STATUS] = (int) readVarint(in);
+		card.setFields(TravelCard.FILE_CONTROL_INFO, v);
+
+		readFields(in, v, CardLayouts.PERIOD_PASS_FIELDS);
+		card.setFields(TravelCard.FILE_PERIOD_PASS, v);
+
+		Arrays.fill(v, 0);
+		v[CardLayouts.SV_VALUE_COUNTER] = (int) readVarint(in);
+		card.setFields(TravelCard.FILE_STORED_VALUE, v);
+
+		readFields(in, v, CardLayouts.ETICKET_FIELDS);
+		card.setFields(TravelCard.FILE_ETICKET, v);
+
+		if ((flags >>> 2 & SECTION_HISTORY) != 0)
+		{
+			int count = readByte(in);
+			if (count > CardBatch.HISTORY_RECORDS)
+				throw new IllegalArgumentException("Invalid history record count " + count);
+			for (int i = 0; i < count; i++)
+			{
+				readFields(in, v, CardLayouts.HISTORY_FIELDS);
+				card.addHistoryFields(v);
+			}
+		}
+		return card;
+	}
+
+	/**
+	 * Writes the mask of the non-zero fields and their values.
+	 *
+	 * @param out the byte array
+	 * @param v the field values
+	 * @param count number of slots
+	 * @param include mask of the slots to write
+	 */
+	private void writeFields(byte[] out, int[] v, int count, long include)
+	{
+		long mask = 0;
+		for (int slot = 0; slot < count; slot++)
+			if (v[slot] != 0)
+				mask |= 1L << slot;
+		mask &= include;
+
+		writeVarint(out, mask);
+		for (int slot = 0; slot < count; slot++)
+			if ((mask & 1L << slot) != 0)
+				writeVarint(out, v[slot] & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Reads the mask of the non-zero fields and their values. The other fields are set to zero.
+	 *
+	 * @param in the byte array
+	 * @param v array for the field values
+	 * @param count number of slots
+	 */
+	private void readFields(byte[] in, int[] v, int count)
+	{
+		long mask = readVarint(in);
+		if (mask >>> count != 0)
+			throw new IllegalArgumentException("Invalid field mask " + Long.toHexString(mask));
+		for (int slot = 0; slot < count; slot++)
+			v[slot] = (mask & 1L << slot) != 0 ? (int) readVarint(in) : 0;
+	}
+
+	/**
+	 * Writes an unsigned variable-length number, 7 bits per byte with the high bit set in all bytes except the last.
+	 *
+	 * @param out the byte array
+	 * @param value the number
+	 */
+	private void writeVarint(byte[] out, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[pos++] = (byte) value;
+	}
+
+	/**
+	 * Reads an unsigned variable-length number.
+	 *
+	 * @param in the byte array
+	 * @return the number
+	 */
+	private long readVarint(byte[] in)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readByte(in);
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Invalid variable-length number at " + pos);
+	}
+
+	/**
+	 * Reads one byte.
+	 *
+	 * @param in the byte array
+	 * @return the byte as an unsigned number
+	 */
+	private int readByte(byte[] in)
+	{
+		if (pos >= end)
+			throw new IllegalArgumentException("Truncated encoded card");
+		return in[pos++] & 0xFF;
+	}
+}
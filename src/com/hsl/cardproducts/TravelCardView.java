@@ -0,0 +1,539 @@
+/*
+ * TravelCardView.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.cardproducts;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.hsl.util.Convert;
+import com.hsl.util.FileLayout;
+import com.hsl.util.ZoneOffsetTable;
+
+/**
+ * The Class TravelCardView reads HSL travel card fields directly from a record in a caller owned buffer.
+ * <p>
+ * A record holds the six files of one card at fixed offsets, see {@link #RECORD_LENGTH} and the offset constants.
+ * The files of TLJ2010 (version 1) cards are shorter and are stored at the beginning of their slots, padded with zeros.
+ * Records can be written with {@link #writeRecord(byte[], byte[], byte[], byte[], byte[], byte[], int, byte[], int)}.
+ * <p>
+ * The view copies nothing. Each getter extracts its field from the buffer when it is called,
+ * and {@code wrap} re-points the same instance at the next record, so a large dump can be scanned without allocating per record.
+ * The buffer may be a byte array or any ByteBuffer, including direct and memory-mapped buffers.
+ * Dates are returned as milliseconds since 1.1.1970. Use {@link #toTravelCard()} when a full TravelCard is needed.
+ * <p>
+ * A view is not thread safe, use one instance per thread.
+ */
+public class TravelCardView
+{
+	/** The offset of the ApplicationInformation file in a record. */
+	public static final int APPLICATION_INFO_OFFSET = 0;
+	/** The offset of the ControlInformation file in a record. */
+	public static final int CONTROL_INFO_OFFSET = 11;
+	/** The offset of the PeriodPass file in a record. */
+	public static final int PERIOD_PASS_OFFSET = 21;
+	/** The offset of the StoredValue file in a record. */
+	public static final int STORED_VALUE_OFFSET = 56;
+	/** The offset of the eTicket file in a record. */
+	public static final int ETICKET_OFFSET = 69;
+	/** The offset of the History file in a record. */
+	public static final int HISTORY_OFFSET = 114;
+	/** The length of a record, the files of a TLJ2014 (version 2) card. */
+	public static final int RECORD_LENGTH = 210;
+
+	/** The length of the History file. */
+	private static final int HISTORY_LENGTH = RECORD_LENGTH - HISTORY_OFFSET;
+	/** The number of records in the History file. */
+	private static final int HISTORY_RECORDS = HISTORY_LENGTH / CardLayouts.HISTORY_RECORD_LENGTH;
+
+	/** The byte array of the record, null if the record is in a ByteBuffer. */
+	private byte[] array;
+	/** The ByteBuffer of the record, null if the record is in a byte array. */
+	private ByteBuffer buffer;
+	/** The offset of the record. */
+	private int offset;
+	/** Version of card. */
+	private int version;
+
+	//Layouts of the card version
+	/** The ControlInformation layout. */
+	private FileLayout controlInfo;
+	/** The PeriodPass layout. */
+	private FileLayout periodPass;
+	/** The StoredValue layout. */
+	private FileLayout storedValue;
+	/** The eTicket layout. */
+	private FileLayout eTicket;
+	/** The History record layout. */
+	private FileLayout history;
+
+	/** The offset table of the time zone used for the date fields. */
+	private final ZoneOffsetTable zone;
+
+	/**
+	 * Instantiates a new view using the default time zone for the dates.
+	 */
+	public TravelCardView()
+	{
+		this(ZoneOffsetTable.getDefault());
+	}
+
+	/**
+	 * Instantiates a new view using the given time zone for the dates.
+	 *
+	 * @param zone the offset table of the time zone
+	 */
+	public TravelCardView(ZoneOffsetTable zone)
+	{
+		this.zone = zone;
+	}
+
+	/**
+	 * Points the view to a record in a byte array.
+	 *
+	 * @param data the byte array
+	 * @param offset offset of the record in the array
+	 * @param version version code for card (1 or 2)
+	 * @return this view
+	 */
+	public TravelCardView wrap(byte[] data, int offset, int version)
+	{
+		this.array = data;
+		this.buffer = null;
+		return select(offset, version);
+	}
+
+	/**
+	 * Points the view to a record in a ByteBuffer. The position and limit of the buffer are not used or changed.
+	 *
+	 * @param data the buffer
+	 * @param offset absolute offset of the record in the buffer
+	 * @param version version code for card (1 or 2)
+	 * @return this view
+	 */
+	public TravelCardView wrap(ByteBuffer data, int offset, int version)
+	{
+		if (data.hasArray())
+		{
+			//heap buffers are read through their array
+			this.array = data.array();
+			this.buffer = null;
+			return select(data.arrayOffset() + offset, version);
+		}
+		this.array = null;
+		this.buffer = data;
+		return select(offset, version);
+	}
+
+	/**
+	 * Sets the record offset and selects the layouts of the card version.
+	 *
+	 * @param offset offset of the record
+	 * @param version version code for card (1 or 2)
+	 * @return this view
+	 */
+	private TravelCardView select(int offset, int version)
+	{
+		this.offset = offset;
+		if (this.version != version || controlInfo == null)
+		{
+			this.version = version;
+			controlInfo = CardLayouts.controlInfo(version);
+			periodPass = CardLayouts.periodPass(version);
+			storedValue = CardLayouts.storedValue(version);
+			eTicket = CardLayouts.eTicket(version, false, false);
+			history = CardLayouts.history(version);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the files of a card to a record.
+	 * The lengths of the byte arrays have to be at least the lengths of the files of the card version, as in the TravelCard constructor.
+	 *
+	 * @param appInfo data from the ApplicationInformation file
+	 * @param ctrlInfo data from the ControlInformation file
+	 * @param periodPass data from the PeriodPass file
+	 * @param storedValue data from the StoredValue file
+	 * @param eTicket data from the eTicket file
+	 * @param history data from the History file, up to 96 bytes
+	 * @param version version code for card (1 or 2)
+	 * @param record the byte array to write to
+	 * @param offset offset of the record in the array
+	 */
+	public static void writeRecord(byte[] appInfo, byte[] ctrlInfo, byte[] periodPass, byte[] storedValue, byte[] eTicket, byte[] history, int version,
+			byte[] record, int offset)
+	{
+		Arrays.fill(record, offset, offset + RECORD_LENGTH, (byte) 0);
+		System.arraycopy(appInfo, 0, record, offset + APPLICATION_INFO_OFFSET, CONTROL_INFO_OFFSET - APPLICATION_INFO_OFFSET);
+		System.arraycopy(ctrlInfo, 0, record, offset + CONTROL_INFO_OFFSET, CardLayouts.controlInfo(version).getLength());
+		System.arraycopy(periodPass, 0, record, offset + PERIOD_PASS_OFFSET, CardLayouts.periodPass(version).getLength());
+		System.arraycopy(storedValue, 0, record, offset + STORED_VALUE_OFFSET, CardLayouts.storedValue(version).getLength());
+		System.arraycopy(eTicket, 0, record, offset + ETICKET_OFFSET, CardLayouts.eTicket(version, false, false).getLength());
+		System.arraycopy(history, 0, record, offset + HISTORY_OFFSET, Math.min(history.length, HISTORY_LENGTH));
+	}
+
+	/**
+	 * Creates a TravelCard with a copy of the record, using the time zone of this view for the dates.
+	 *
+	 * @return the travel card
+	 */
+	public TravelCard toTravelCard()
+	{
+		return new TravelCard().decodeInto(copy(APPLICATION_INFO_OFFSET, CONTROL_INFO_OFFSET), copy(CONTROL_INFO_OFFSET, PERIOD_PASS_OFFSET),
+				copy(PERIOD_PASS_OFFSET, STORED_VALUE_OFFSET), copy(STORED_VALUE_OFFSET, ETICKET_OFFSET),
+				copy(ETICKET_OFFSET, HISTORY_OFFSET), copy(HISTORY_OFFSET, RECORD_LENGTH), version, zone);
+	}
+
+	/**
+	 * Copies a part of the record.
+	 *
+	 * @param from start offset in the record
+	 * @param to end offset in the record
+	 * @return the copied bytes
+	 */
+	private byte[] copy(int from, int to)
+	{
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = getByte(from + i);
+		return bytes;
+	}
+
+	/**
+	 * Gets one byte of the record.
+	 *
+	 * @param index offset in the record
+	 * @return the byte
+	 */
+	private byte getByte(int index)
+	{
+		return array != null ? array[offset + index] : buffer.get(offset + index);
+	}
+
+	/**
+	 * Extracts a field of a file in the record.
+	 *
+	 * @param layout the layout of the file
+	 * @param slot slot number of the field
+	 * @param fileOffset offset of the file in the record
+	 * @return the field value
+	 */
+	private int field(FileLayout layout, int slot, int fileOffset)
+	{
+		if (array != null)
+			return layout.read(slot, array, offset + fileOffset);
+		return layout.read(slot, buffer, offset + fileOffset);
+	}
+
+	/**
+	 * Gets the card version.
+	 *
+	 * @return the card version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the application version.
+	 *
+	 * @return the application version
+	 */
+	public int getApplicationVersion() {
+		return (byte)(getByte(APPLICATION_INFO_OFFSET) & 0xF0);
+	}
+
+	/**
+	 * Gets the card number as a string form the card. This allocates the string.
+	 *
+	 * @return the application instance id string
+	 */
+	public String getApplicationInstanceId() {
+		if (array != null)
+			return Convert.getHexString(array, offset + APPLICATION_INFO_OFFSET + 1, 9);
+		return Convert.getHexString(copy(APPLICATION_INFO_OFFSET + 1, APPLICATION_INFO_OFFSET + 10));
+	}
+
+	/**
+	 * Gets the app status.
+	 *
+	 * @return the app status
+	 */
+	public int getAppStatus() {
+		return field(controlInfo, CardLayouts.CI_APP_STATUS, CONTROL_INFO_OFFSET);
+	}
+
+	/**
+	 * Gets a PeriodPass field.
+	 *
+	 * @param slot one of the {@code CardLayouts.PP_} slot numbers
+	 * @return the field value
+	 */
+	public int getPeriodPassField(int slot) {
+		return field(periodPass, slot, PERIOD_PASS_OFFSET);
+	}
+
+	/**
+	 * Gets the first period pass product's product code.
+	 *
+	 * @return product code
+	 */
+	public int getProductCode1() {
+		return getPeriodPassField(CardLayouts.PP_PRODUCT_CODE1);
+	}
+
+	/**
+	 * Gets the first period pass product's validity area.
+	 *
+	 * @return period's validity area
+	 */
+	public int getValidityArea1() {
+		return getPeriodPassField(CardLayouts.PP_VALIDITY_AREA1);
+	}
+
+	/**
+	 * Gets the first period pass product's period start date.
+	 *
+	 * @return period's start date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodStartDate1Millis() {
+		return zone.toMillis(getPeriodPassField(CardLayouts.PP_PERIOD_START_DATE1), 0);
+	}
+
+	/**
+	 * Gets the first period pass product's period end date.
+	 *
+	 * @return period's end date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodEndDate1Millis() {
+		return periodEnd(getPeriodPassField(CardLayouts.PP_PERIOD_END_DATE1));
+	}
+
+	/**
+	 * Gets the second period pass product's product code.
+	 *
+	 * @return period's product code
+	 */
+	public int getProductCode2() {
+		return getPeriodPassField(CardLayouts.PP_PRODUCT_CODE2);
+	}
+
+	/**
+	 * Gets the second period pass product's validity area.
+	 *
+	 * @return period's validity area
+	 */
+	public int getValidityArea2() {
+		return getPeriodPassField(CardLayouts.PP_VALIDITY_AREA2);
+	}
+
+	/**
+	 * Gets the second period pass product's period start date.
+	 *
+	 * @return period's start date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodStartDate2Millis() {
+		return zone.toMillis(getPeriodPassField(CardLayouts.PP_PERIOD_START_DATE2), 0);
+	}
+
+	/**
+	 * Gets the second period pass product's period end date.
+	 *
+	 * @return period's end date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodEndDate2Millis() {
+		return periodEnd(getPeriodPassField(CardLayouts.PP_PERIOD_END_DATE2));
+	}
+
+	/**
+	 * Converts a period end date to milliseconds the same way as TravelCard.
+	 *
+	 * @param date the end date in en1545 format
+	 * @return the end of the period in milliseconds since 1.1.1970
+	 */
+	private long periodEnd(int date) {
+		long millis = zone.toMillis(date, 0);
+		//Old cards: add time 23:59:59 to date in milliseconds
+		if (version == 1)
+			millis += (24L*60L*60L-1L)*1000L;
+		return millis;
+	}
+
+	/**
+	 * Gets the period pass boarding date.
+	 *
+	 * @return the boarding date in milliseconds since 1.1.1970
+	 */
+	public long getBoardingDateMillis() {
+		return zone.toMillis(getPeriodPassField(CardLayouts.PP_BOARDING_DATE), getPeriodPassField(CardLayouts.PP_BOARDING_TIME));
+	}
+
+	/**
+	 * Gets the period loading date.
+	 *
+	 * @return the period loading date in milliseconds since 1.1.1970
+	 */
+	public long getPeriodLoadingDateMillis() {
+		return zone.toMillis(getPeriodPassField(CardLayouts.PP_PERIOD_LOADING_DATE), getPeriodPassField(CardLayouts.PP_PERIOD_LOADING_TIME));
+	}
+
+	/**
+	 * Gets the amount of stored value on the card.
+	 *
+	 * @return the amount of stored value
+	 */
+	public int getStoredValueCounter() {
+		return field(storedValue, CardLayouts.SV_VALUE_COUNTER, STORED_VALUE_OFFSET);
+	}
+
+	/**
+	 * Gets a value ticket field.
+	 *
+	 * @param slot one of the {@code CardLayouts.ET_} slot numbers
+	 * @return the field value
+	 */
+	public int getValueTicketField(int slot) {
+		return field(eTicket, slot, ETICKET_OFFSET);
+	}
+
+	/**
+	 * Gets the value ticket's product code, the group product code if there is one.
+	 *
+	 * @return the product code
+	 */
+	public int getValueTicketProductCode() {
+		int productCodeGroup = getValueTicketField(CardLayouts.ET_PRODUCT_CODE_GROUP);
+		return productCodeGroup > 0 ? productCodeGroup : getValueTicketField(CardLayouts.ET_PRODUCT_CODE);
+	}
+
+	/**
+	 * Gets the value ticket's validity area.
+	 *
+	 * @return the validity area
+	 */
+	public int getValueTicketValidityArea() {
+		return getValueTicketField(CardLayouts.ET_VALIDITY_AREA);
+	}
+
+	/**
+	 * Gets the value ticket's validity start date.
+	 *
+	 * @return the validity start date in milliseconds since 1.1.1970
+	 */
+	public long getValueTicketValidityStartDateMillis() {
+		return zone.toMillis(getValueTicketField(CardLayouts.ET_VALIDITY_START_DATE), getValueTicketField(CardLayouts.ET_VALIDITY_START_TIME));
+	}
+
+	/**
+	 * Gets the value ticket's validity end date, the group ticket's end date if there is one.
+	 *
+	 * @return the validity end date in milliseconds since 1.1.1970
+	 */
+	public long getValueTicketValidityEndDateMillis() {
+		int date = getValueTicketField(CardLayouts.ET_VALIDITY_END_DATE_GROUP);
+		int time = getValueTicketField(CardLayouts.ET_VALIDITY_END_TIME_GROUP);
+		if (date > 0 && time > 0)
+			return zone.toMillis(date, time);
+		return zone.toMillis(getValueTicketField(CardLayouts.ET_VALIDITY_END_DATE), getValueTicketField(CardLayouts.ET_VALIDITY_END_TIME));
+	}
+
+	/**
+	 * Gets the value ticket's group size.
+	 *
+	 * @return the group size
+	 */
+	public int getValueTicketGroupSize() {
+		return getValueTicketField(CardLayouts.ET_GROUP_SIZE);
+	}
+
+	/**
+	 * Gets the number of history records that contain data.
+	 *
+	 * @return number of history records
+	 */
+	public int getHistoryLen() {
+		int count = 0;
+		for (int i = 0; i < HISTORY_RECORDS; i++)
+		{
+			if (hasHistoryData(i))
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Gets a field of a history record.
+	 *
+	 * @param index index of the record among the records containing data, as in {@code TravelCard.getHistory()}
+	 * @param slot one of the {@code CardLayouts.HI_} slot numbers
+	 * @return the field value
+	 */
+	public int getHistoryField(int index, int slot) {
+		return field(history, slot, historyOffset(index));
+	}
+
+	/**
+	 * Gets the transaction date and time of a history record.
+	 *
+	 * @param index index of the record among the records containing data
+	 * @return the transaction time in milliseconds since 1.1.1970
+	 */
+	public long getHistoryTransactionDTimeMillis(int index) {
+		int recordOffset = historyOffset(index);
+		int time = field(history, CardLayouts.HI_BOARDING_TIME, recordOffset);
+
+		if (version == 1)
+		{
+			//date from transfer end date, one day earlier if the transfer ends on the next day
+			int date = field(history, CardLayouts.HI_TRANSFER_END_DATE, recordOffset);
+			if (field(history, CardLayouts.HI_TRANSFER_END_TIME, recordOffset) < time)
+				date -= 1;
+			return zone.toMillis(date, time);
+		}
+		return zone.toMillis(field(history, CardLayouts.HI_BOARDING_DATE, recordOffset), time);
+	}
+
+	/**
+	 * Finds the offset of a history record.
+	 *
+	 * @param index index of the record among the records containing data
+	 * @return offset of the record in the record
+	 * @throws IndexOutOfBoundsException if there are not as many records
+	 */
+	private int historyOffset(int index) {
+		int count = 0;
+		for (int i = 0; i < HISTORY_RECORDS; i++)
+		{
+			if (hasHistoryData(i) && count++ == index)
+				return HISTORY_OFFSET + i * CardLayouts.HISTORY_RECORD_LENGTH;
+		}
+		throw new IndexOutOfBoundsException("History record " + index);
+	}
+
+	/**
+	 * Tells if a history record contains data, the same check as in TravelCard (some date and time bytes are not zeroes).
+	 *
+	 * @param record the number of the record in the History file
+	 * @return true if the record contains data
+	 */
+	private boolean hasHistoryData(int record) {
+		int base = HISTORY_OFFSET + record * CardLayouts.HISTORY_RECORD_LENGTH;
+		return getByte(base + 1) != 0 || getByte(base + 2) != 0 || getByte(base + 3) != 0 || getByte(base + 4) != 0;
+	}
+}
@@ -18,13 +18,15 @@
  
 package com.hsl.cardproducts;
 
-import java.util.Calendar;
 import java.util.Date;
 
 import com.hsl.util.Convert;
+import com.hsl.util.ZoneMask;
+import com.hsl.util.ZoneOffsetTable;
 
 /**
  * The Class eTicket represents a single ticket data that is used both in HSL single tickets and in HSL travel card's value tickets.
+ * Dates are stored as milliseconds and the Date getters return a new Date on every call, the {@code Millis} getters do not allocate.
  */
 public class eTicket 
 {
@@ -43,8 +45,8 @@ public class eTicket
 	private int	 	validityAreaType;
 	/** The validity area. **/
 	private int	 	validityArea;
-	/** The sale date. **/
-	private Date	saleDate;
+	/** The sale date in milliseconds since 1.1.1970. **/
+	private long	saleDate;
 	/** The sale time. **/
 	private int		saleTime;
 	/** The group size. **/
@@ -54,15 +56,15 @@ public class eTicket
 	// Joni 9.11.2018
 	// Sale price i.e. ticketFare
 	private int		ticketFare;
-	/** The validity start date. **/
-	private Date 	validityStartDate;
-	/** The validity end date. **/
-	private Date 	validityEndDate;
+	/** The validity start date in milliseconds since 1.1.1970. **/
+	private long	validityStartDate;
+	/** The validity end date in milliseconds since 1.1.1970. **/
+	private long	validityEndDate;
 	/** The validity status. **/
 	private int	 	validityStatus;
 	//Last boarding info
-	/** The boarding date. **/
-	private Date	boardingDate;
+	/** The boarding date in milliseconds since 1.1.1970. **/
+	private long	boardingDate;
 	/** The boarding vehicle. **/
 	private int		boardingVehicle;
 	/** The boarding location num type. **/
@@ -97,8 +99,13 @@ public class eTicket
 	private int		validityLengthGroup;
 	/* Sale price i.e. ticketFare for group ticket. **/
 	private int		ticketFareGroup;
-	/** The validity end date for group ticket. **/
-	private Date	validityEndDateGroup;
+	/** The validity end date for group ticket in milliseconds since 1.1.1970, {@code Convert.NO_DATE} if not set. **/
+	private long	validityEndDateGroup;
+
+	/** The field values for {@code decodeInto}, allocated on first use. **/
+	private int[]	fieldValues;
+	/** Tells if the ticket belongs to a shared card and can not be re-initialised. **/
+	private volatile boolean frozen;
 
 	/**
 	 * Instantiates a new eTicket from given data.
@@ -110,173 +117,141 @@ public class eTicket
 	 */
 	public eTicket(byte[] eTicket, boolean containsSeals, int version, boolean isSingleTicket)
 	{
-		if (version == 1)
-			initV1(eTicket, containsSeals);
-		else {
-			if (isSingleTicket)
-				initV2SingleTicket(eTicket, containsSeals);
-			else
-				initV2(eTicket, containsSeals);
-		}
+		this(eTicket, containsSeals, version, isSingleTicket, ZoneOffsetTable.getDefault());
 	}
 
 	/**
-	 * Instantiates a new eTicket from given data for old card spec.
+	 * Instantiates a new eTicket from given data using the time zone of the card it was read from.
 	 *
 	 * @param eTicket the raw byte data read from single ticket or HSL travel card's eTicket file.
 	 * @param containsSeals tells if the data is from single ticket (or from HSL travel card's value ticket).
+	 * @param version which version value ticket data is from, 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @param isSingleTicket is card type singleticket or travelcard
+	 * @param zone the offset table of the time zone for the date fields
 	 */
-	private void initV1(byte[] eTicket, boolean containsSeals) {
-		int c = 0;
-
-		productCode =  (short) ( ((eTicket[0] & 0xFF) << 6) | ((eTicket[1] & 0xFC) >>> 2) );
-		child = (byte)((eTicket[1] & 0x02) >>> 1);
-		languageCode = (byte)( ((eTicket[1] & 0x01) << 1) | ((eTicket[2] & 0x80) >>> 7) );
-		validityLengthType = (byte)((eTicket[2] & 0x60) >>> 5 );
-		validityLength = (byte)( ((eTicket[2] & 0x1F) << 3) | ((eTicket[3] & 0xE0) >>> 5) );
-		validityAreaType = (byte)((eTicket[3] & 0x10) >>> 4);
-		validityArea = (byte)(eTicket[3] & 0x0F);
-
-		short date1 = (short)( ((eTicket[4] & 0xFF) << 6) | ((eTicket[5] & 0xFC) >>> 2) );
-		saleDate = Convert.en5145Date2JavaDate(date1);
-		saleTime = (byte)( ((eTicket[5] & 0x03) << 3) | ((eTicket[6] & 0xE0) >>> 5) );
-
-		// Joni 9.11.2018
-		// Sale price
-		ticketFare 				= Convert.getShortValue	(eTicket, 68, 14);
-
-		groupSize = (byte)( (eTicket[10] & 0x3E) >>> 1);
-		//sale status is relevant only in value tickets on desfire cards
-		saleStatus = (byte) (eTicket[10] & 0x01);
-
-		//if were reading separate eTicket (single ticket) note the seals
-		if (containsSeals)
-			c = 6;
-
-		//read validity start datestamp
-		date1 = (short)( ((eTicket[11+c] & 0xFF) << 6) | ((eTicket[12+c] & 0xFC) >>> 2) );
-		//read validity start timestamp
-		short time1 = (short)( ((eTicket[12+c] & 0x03) << 9) | ((eTicket[13+c] & 0xFF) << 1) | ((eTicket[14+c] & 0x80) >>> 7) );
-		validityStartDate = Convert.en5145DateAndTime2JavaDate(date1, time1);
-
-		//read validity end datestamp
-		date1 = (short)( ((eTicket[14+c] & 0x7F) << 7) | ((eTicket[15+c] & 0xFF) >>> 1) );
-		//read validity end timestamp
-		time1 = (short)( ((eTicket[15+c] & 0x01) << 10) | ((eTicket[16+c] & 0xFF) << 2) | ((eTicket[17+c] & 0xC0) >>> 6) );
-		validityEndDate = Convert.en5145DateAndTime2JavaDate(date1, time1);
-
-		//validity status is relevant only in value tickets on desfire cards
-		validityStatus = (byte) (eTicket[17+c] & 0x01);
-
-		//LAST USE (BOARDING)
+	eTicket(byte[] eTicket, boolean containsSeals, int version, boolean isSingleTicket, ZoneOffsetTable zone)
+	{
+		decodeInto(eTicket, containsSeals, version, isSingleTicket, zone, new int[CardLayouts.ETICKET_FIELDS]);
+	}
 
-		date1 = (short) (((eTicket[18+c] & 0xFF) << 6) | ((eTicket[19+c] & 0xFC) >>> 2) );
-		time1 = (short)( ((eTicket[19+c] & 0x03) << 9) | ((eTicket[20+c] & 0xFF) << 1) | ((eTicket[21+c] & 0x80) >>> 7) );
-		boardingDate = Convert.en5145DateAndTime2JavaDate(date1, time1);
-		boardingVehicle = (short)( ((eTicket[21+c] & 0x7F) << 7) | (eTicket[22+c] & 0xFE) >>> 1);
-		boardingLocationNumType = (byte)( ((eTicket[22+c] & 0x01) << 1) | ((eTicket[23+c] & 0x80) >>> 7) );
-		boardingLocationNum = (short)( ((eTicket[23+c] & 0x7F) << 7) | ((eTicket[24+c] & 0xFE) >>> 1) );
-		boardingDirection = (byte) (eTicket[24+c] & 0x01);
-		boardingArea = (byte)((eTicket[25+c] & 0xF0) >>> 4);
+	/**
+	 * Instantiates a new eTicket without data, to be filled with {@code decodeInto}.
+	 */
+	public eTicket()
+	{
 	}
 
 	/**
-	 * Instantiates a new eTicket from given data for new card spec.
+	 * Re-initialises this eTicket from new data, so that one instance can be reused for many tickets.
 	 *
 	 * @param eTicket the raw byte data read from single ticket or HSL travel card's eTicket file.
 	 * @param containsSeals tells if the data is from single ticket (or from HSL travel card's value ticket).
+	 * @param version which version value ticket data is from, 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @param isSingleTicket is card type singleticket or travelcard
+	 * @return this eTicket
+	 * @throws IllegalStateException if the ticket belongs to a card shared by {@code TravelCardCache}
 	 */
-	private void initV2(byte[] eTicket, boolean containsSeals) {
-		productCode 			= Convert.getShortValue	(eTicket, 1, 14);
-		productCodeGroup		= Convert.getShortValue (eTicket, 15, 14);
-		languageCode 			= Convert.getByteValue	(eTicket, 39, 2);
-		validityLengthType		= Convert.getByteValue	(eTicket, 41, 2);
-		validityLength			= Convert.getShortValue	(eTicket, 43, 8);
-		validityLengthTypeGroup = Convert.getByteValue  (eTicket, 51, 2);
-		validityLengthGroup		= Convert.getShortValue (eTicket, 53, 8);
-		validityAreaType 		= Convert.getByteValue	(eTicket, 61, 2);
-		validityArea			= Convert.getByteValue	(eTicket, 63, 6);
-		int date1				= Convert.getShortValue	(eTicket, 69, 14);
-		saleDate				= Convert.en5145Date2JavaDate(date1);
-		saleTime				= Convert.getByteValue	(eTicket, 83, 5);
-		ticketFare 				= Convert.getShortValue	(eTicket, 105, 14);
-		ticketFareGroup			= Convert.getShortValue (eTicket, 119, 14);
-		groupSize				= Convert.getByteValue	(eTicket, 133, 6);
-
-		// Extension ticket information
-		extraZone               = Convert.getByteValue (eTicket, 139, 1);
-		extPeriodPassValidityArea = Convert.getByteValue(eTicket, 140, 6);
-		extProductCode          = Convert.getIntValue  (eTicket, 146, 14);
-		ext1ValidityArea        = Convert.getByteValue  (eTicket, 160, 6);
-		ext1Fare                = Convert.getIntValue   (eTicket, 166, 14);
-		ext2ValidityArea        = Convert.getByteValue  (eTicket, 180, 6);
-		ext2Fare                = Convert.getIntValue   (eTicket, 186, 14);
-
-		saleStatus				= Convert.getByteValue	(eTicket, 200, 1);
-
-		date1					= Convert.getShortValue	(eTicket, 205, 14);
-		int time1				= Convert.getShortValue	(eTicket, 219, 11);
-		validityStartDate		= Convert.en5145DateAndTime2JavaDate(date1, time1);
-		date1					= Convert.getShortValue	(eTicket, 230, 14);
-		time1					= Convert.getShortValue	(eTicket, 244, 11);
-		validityEndDate			= Convert.en5145DateAndTime2JavaDate(date1, time1);
-		date1					= Convert.getShortValue (eTicket, 255, 14);
-		time1					= Convert.getShortValue (eTicket, 269, 11);
-		// validityEndDateGroup should be null if date and time are zeros
-		validityEndDateGroup	= date1 > 0 && time1 > 0 ? Convert.en5145DateAndTime2JavaDate(date1, time1) : null;
-		// RFU 5bits
-		validityStatus			= Convert.getByteValue	(eTicket, 285, 1);
-
-		//Last boarding info
-		date1					= Convert.getShortValue	(eTicket, 286, 14);
-		time1					= Convert.getShortValue	(eTicket, 300, 11);
-		boardingDate			= Convert.en5145DateAndTime2JavaDate(date1, time1);
-		boardingVehicle			= Convert.getShortValue	(eTicket, 311, 14);
-		boardingLocationNumType	= Convert.getByteValue	(eTicket, 325, 2);
-		boardingLocationNum		= Convert.getShortValue	(eTicket, 327, 14);
-		boardingDirection		= Convert.getByteValue	(eTicket, 341, 1);
-		boardingArea			= Convert.getByteValue	(eTicket, 344, 6);
+	public eTicket decodeInto(byte[] eTicket, boolean containsSeals, int version, boolean isSingleTicket)
+	{
+		if (fieldValues == null)
+			fieldValues = new int[CardLayouts.ETICKET_FIELDS];
+		return decodeInto(eTicket, containsSeals, version, isSingleTicket, ZoneOffsetTable.getDefault(), fieldValues);
 	}
 
 	/**
-	 * Instantiates a new SingleTicket eTicket from given data for new card spec.
+	 * Re-initialises this eTicket from new data using the given time zone and array for the field values.
 	 *
 	 * @param eTicket the raw byte data read from single ticket or HSL travel card's eTicket file.
 	 * @param containsSeals tells if the data is from single ticket (or from HSL travel card's value ticket).
+	 * @param version which version value ticket data is from, 1 = old, TLJ2010 spec, 2 = new, TLJ2014 spec
+	 * @param isSingleTicket is card type singleticket or travelcard
+	 * @param zone the offset table of the time zone for the date fields
+	 * @param v array for the field values, at least {@code CardLayouts.ETICKET_FIELDS} long
+	 * @return this eTicket
+	 */
+	eTicket decodeInto(byte[] eTicket, boolean containsSeals, int version, boolean isSingleTicket, ZoneOffsetTable zone, int[] v)
+	{
+		if (frozen)
+			throw new IllegalStateException("The eTicket is shared and can not be re-initialised");
+
+		//Extract the fields with the decoder generated from the eTicket layout of the card version
+		if (version == 1) {
+			if (containsSeals)
+				LayoutDecoders.eTicketV1Single(eTicket, 0, v);
+			else
+				LayoutDecoders.eTicketV1(eTicket, 0, v);
+		}
+		else {
+			if (isSingleTicket)
+				LayoutDecoders.eTicketV2Single(eTicket, 0, v);
+			else
+				LayoutDecoders.eTicketV2(eTicket, 0, v);
+		}
+		init(v, zone);
+		return this;
+	}
+
+	/**
+	 * Makes the ticket read-only, for the value tickets of cards shared by {@code TravelCardCache}.
 	 */
-	private void initV2SingleTicket(byte[] eTicket, boolean containsSeals) {
-		productCode 			= Convert.getShortValue	(eTicket, 0, 10);
-		child                   = Convert.getByteValue  (eTicket, 10, 1);
-		languageCode 			= Convert.getByteValue	(eTicket, 11, 2);
-		validityLengthType		= Convert.getByteValue	(eTicket, 13, 2);
-		validityLength			= Convert.getShortValue	(eTicket, 15, 8);
-		validityAreaType 		= Convert.getByteValue	(eTicket, 23, 2);
-		validityArea			= Convert.getByteValue	(eTicket, 25, 6);
-		int date1				= Convert.getShortValue	(eTicket, 31, 14);
-		saleDate				= Convert.en5145Date2JavaDate(date1);
-		saleTime				= Convert.getByteValue	(eTicket, 45, 5);
-		ticketFare 				= Convert.getShortValue	(eTicket, 67, 15);
-		groupSize				= Convert.getByteValue	(eTicket, 82, 6);
-
-		// SEAL1 6 bytes, 48 bits
-
-		date1					= Convert.getShortValue	(eTicket, 136, 14);
-		int time1				= Convert.getShortValue	(eTicket, 150, 11);
-		validityStartDate		= Convert.en5145DateAndTime2JavaDate(date1, time1);
-		date1					= Convert.getShortValue	(eTicket, 161, 14);
-		time1					= Convert.getShortValue	(eTicket, 175, 11);
-		validityEndDate			= Convert.en5145DateAndTime2JavaDate(date1, time1);
-
-		// RFU 1.75 bytes, 14 bits
-		// SEAL2 8 bytes, 64 bits
+	void freeze()
+	{
+		frozen = true;
+	}
+
+	/**
+	 * Sets the ticket fields from the extracted values.
+	 * The same code is used for all card versions, fields missing from the version's layout are zero.
+	 *
+	 * @param v the field values, indexed by {@code CardLayouts} eTicket slot numbers
+	 * @param zone the offset table of the time zone for the date fields
+	 */
+	void init(int[] v, ZoneOffsetTable zone) {
+
+		productCode 			= v[CardLayouts.ET_PRODUCT_CODE];
+		productCodeGroup		= v[CardLayouts.ET_PRODUCT_CODE_GROUP];
+		child					= v[CardLayouts.ET_CHILD];
+		languageCode 			= v[CardLayouts.ET_LANGUAGE_CODE];
+		validityLengthType		= v[CardLayouts.ET_VALIDITY_LENGTH_TYPE];
+		validityLength			= v[CardLayouts.ET_VALIDITY_LENGTH];
+		validityLengthTypeGroup = v[CardLayouts.ET_VALIDITY_LENGTH_TYPE_GROUP];
+		validityLengthGroup		= v[CardLayouts.ET_VALIDITY_LENGTH_GROUP];
+		validityAreaType 		= v[CardLayouts.ET_VALIDITY_AREA_TYPE];
+		validityArea			= v[CardLayouts.ET_VALIDITY_AREA];
+		saleDate				= zone.toMillis(v[CardLayouts.ET_SALE_DATE], 0);
+		saleTime				= v[CardLayouts.ET_SALE_TIME];
+		ticketFare 				= v[CardLayouts.ET_TICKET_FARE];
+		ticketFareGroup			= v[CardLayouts.ET_TICKET_FARE_GROUP];
+		groupSize				= v[CardLayouts.ET_GROUP_SIZE];
+
+		// Extension ticket information
+		extraZone				= v[CardLayouts.ET_EXTRA_ZONE];
+		extPeriodPassValidityArea = v[CardLayouts.ET_EXT_PERIOD_PASS_VALIDITY_AREA];
+		extProductCode			= v[CardLayouts.ET_EXT_PRODUCT_CODE];
+		ext1ValidityArea		= v[CardLayouts.ET_EXT1_VALIDITY_AREA];
+		ext1Fare				= v[CardLayouts.ET_EXT1_FARE];
+		ext2ValidityArea		= v[CardLayouts.ET_EXT2_VALIDITY_AREA];
+		ext2Fare				= v[CardLayouts.ET_EXT2_FARE];
+
+		//sale status is relevant only in value tickets on desfire cards
+		saleStatus				= v[CardLayouts.ET_SALE_STATUS];
+
+		validityStartDate		= zone.toMillis(v[CardLayouts.ET_VALIDITY_START_DATE], v[CardLayouts.ET_VALIDITY_START_TIME]);
+		validityEndDate			= zone.toMillis(v[CardLayouts.ET_VALIDITY_END_DATE], v[CardLayouts.ET_VALIDITY_END_TIME]);
+		int date1				= v[CardLayouts.ET_VALIDITY_END_DATE_GROUP];
+		int time1				= v[CardLayouts.ET_VALIDITY_END_TIME_GROUP];
+		// validityEndDateGroup should be null if date and time are zeros
+		validityEndDateGroup	= date1 > 0 && time1 > 0 ? zone.toMillis(date1, time1) : Convert.NO_DATE;
+		//validity status is relevant only in value tickets on desfire cards
+		validityStatus			= v[CardLayouts.ET_VALIDITY_STATUS];
 
 		//Last boarding info
-		date1					= Convert.getShortValue	(eTicket, 264, 14);
-		time1					= Convert.getShortValue	(eTicket, 278, 11);
-		boardingDate			= Convert.en5145DateAndTime2JavaDate(date1, time1);
-		boardingVehicle			= Convert.getShortValue	(eTicket, 289, 14);
-		boardingLocationNumType	= Convert.getByteValue	(eTicket, 303, 2);
-		boardingDirection		= Convert.getByteValue	(eTicket, 319, 1);
+		boardingDate			= zone.toMillis(v[CardLayouts.ET_BOARDING_DATE], v[CardLayouts.ET_BOARDING_TIME]);
+		boardingVehicle			= v[CardLayouts.ET_BOARDING_VEHICLE];
+		boardingLocationNumType	= v[CardLayouts.ET_BOARDING_LOCATION_NUM_TYPE];
+		boardingLocationNum		= v[CardLayouts.ET_BOARDING_LOCATION_NUM];
+		boardingDirection		= v[CardLayouts.ET_BOARDING_DIRECTION];
+		boardingArea			= v[CardLayouts.ET_BOARDING_AREA];
 	}
 
 	/**
@@ -315,12 +290,30 @@ public class eTicket
 		return validityArea;
 	}
 
+	/**
+	 * Gets the validity area of the ticket as a {@link ZoneMask} bit mask.
+	 *
+	 * @return the mask of the validity area, 0 if the area is unknown
+	 */
+	public int	 getValidityAreaMask() {
+		return ZoneMask.forArea(validityAreaType, validityArea);
+	}
+
 	/**
 	 * Gets the ticket sale date.
 	 *
 	 * @return the sale date
 	 */
 	public Date  getSaleDate() {
+		return new Date(saleDate);
+	}
+
+	/**
+	 * Gets the ticket sale date without creating a Date.
+	 *
+	 * @return the sale date in milliseconds since 1.1.1970
+	 */
+	public long  getSaleDateMillis() {
 		return saleDate;
 	}
 
@@ -357,6 +350,15 @@ public class eTicket
 	 * @return the validity start date
 	 */
 	public Date  getValidityStartDate() {
+		return new Date(validityStartDate);
+	}
+
+	/**
+	 * Gets the validity start date without creating a Date.
+	 *
+	 * @return the validity start date in milliseconds since 1.1.1970
+	 */
+	public long  getValidityStartDateMillis() {
 		return validityStartDate;
 	}
 
@@ -384,6 +386,15 @@ public class eTicket
 	 * @return the boarding date
 	 */
 	public Date  getBoardingDate() {
+		return new Date(boardingDate);
+	}
+
+	/**
+	 * Gets the boarding date without creating a Date.
+	 *
+	 * @return the boarding date in milliseconds since 1.1.1970
+	 */
+	public long  getBoardingDateMillis() {
 		return boardingDate;
 	}
 
@@ -518,7 +529,16 @@ public class eTicket
 	 * @return the validity end date
 	 */
 	public Date  getValidityEndDate() {
-		if (validityEndDateGroup != null) return validityEndDateGroup;
+		return new Date(getValidityEndDateMillis());
+	}
+
+	/**
+	 * Gets the validity end date without creating a Date.
+	 *
+	 * @return the validity end date in milliseconds since 1.1.1970
+	 */
+	public long  getValidityEndDateMillis() {
+		if (validityEndDateGroup != Convert.NO_DATE) return validityEndDateGroup;
 		else return validityEndDate;
 	}
 
@@ -0,0 +1,435 @@
+/*
+ * AsyncCardReader.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.hsl.cardproducts.SingleTicket;
+import com.hsl.cardproducts.TravelCard;
+import com.hsl.util.MyLog;
+
+/**
+ * The class AsyncCardReader reads cards in the background with a time limit for each tap.
+ * <p>
+ * A read returns at once with a Future, and the given callback is called when the read ends. The read always ends by its deadline:
+ * when the time runs out the read is cancelled and completed with the data read so far, even if a command is still waiting for the card.
+ * The callback is called exactly once, on the reading thread, on the timer thread or on the thread calling {@code cancel} of the Future,
+ * so it should pass the result on rather than block, for example by posting it to the UI thread's Handler.
+ * <p>
+ * Each read uses a new {@link CardReader}. The class is thread safe, several cards can be read at the same time.
+ */
+public class AsyncCardReader
+{
+	/**
+	 * The Callback interface receives the results of reads.
+	 */
+	public interface Callback
+	{
+		/**
+		 * Called once when a read has ended.
+		 *
+		 * @param result the result of the read
+		 */
+		void onReadComplete(Result result);
+	}
+
+	/** Status of a read that read all data. */
+	public static final int COMPLETE = 0;
+	/** Status of a read that ran out of time. */
+	public static final int TIMEOUT = 1;
+	/** Status of a read that failed, usually because the card was removed. */
+	public static final int FAILED = 2;
+	/** Status of a read cancelled by the caller. */
+	public static final int CANCELLED = 3;
+
+	/** The executor running the reads. */
+	private final ExecutorService executor;
+	/** The executor of the deadlines. */
+	private final ScheduledExecutorService timer;
+	/** True if the executors were created by this instance. */
+	private final boolean ownExecutors;
+
+	/**
+	 * Instantiates a new reader with its own daemon threads, to be stopped with {@link #shutdown()}.
+	 */
+	public AsyncCardReader()
+	{
+		ThreadFactory threads = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AsyncCardReader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		executor = Executors.newCachedThreadPool(threads);
+		timer = Executors.newSingleThreadScheduledExecutor(threads);
+		ownExecutors = true;
+	}
+
+	/**
+	 * Instantiates a new reader using the given executors.
+	 *
+	 * @param executor the executor for the reads, it needs a thread for each card read at the same time
+	 * @param timer the executor for the deadlines
+	 */
+	public AsyncCardReader(ExecutorService executor, ScheduledExecutorService timer)
+	{
+		this.executor = executor;
+		this.timer = timer;
+		ownExecutors = false;
+	}
+
+	/**
+	 * Starts reading a travel card.
+	 * <p>
+	 * If the read does not end in time, the result has the status {@code TIMEOUT} and the travel card of the files read so far,
+	 * see {@link CardReader#getTravelCard()}.
+	 *
+	 * @param card the transport of the DESFire card, for example an {@link IsoDepTransport}
+	 * @param timeoutMillis the time limit of the read in milliseconds
+	 * @param callback the callback for the result, null if the Future is used instead
+	 * @return the Future of the result, cancelling it cancels the read. Its get methods return the result also after cancelling.
+	 */
+	public Future<Result> readTravelCard(CardTransport card, long timeoutMillis, Callback callback)
+	{
+		return start(new Read(card, new CardReader(), true, callback), timeoutMillis);
+	}
+
+	/**
+	 * Starts reading a single ticket.
+	 * <p>
+	 * A single ticket is read with one or four commands, so a read that does not end in time has no ticket.
+	 *
+	 * @param card the transport of the single ticket, for example an {@link UltralightTransport}
+	 * @param fastRead true to try reading all data with one FAST_READ command
+	 * @param timeoutMillis the time limit of the read in milliseconds
+	 * @param callback the callback for the result, null if the Future is used instead
+	 * @return the Future of the result, cancelling it cancels the read. Its get methods return the result also after cancelling.
+	 */
+	public Future<Result> readSingleTicket(PageTransport card, boolean fastRead, long timeoutMillis, Callback callback)
+	{
+		return start(new Read(card, new CardReader(fastRead), false, callback), timeoutMillis);
+	}
+
+	/**
+	 * Starts a read and its deadline.
+	 *
+	 * @param read the read
+	 * @param timeoutMillis the time limit of the read in milliseconds
+	 * @return the read
+	 */
+	private Read start(final Read read, long timeoutMillis)
+	{
+		read.task = executor.submit(read);
+		read.deadline = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				read.stop(TIMEOUT);
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		//the read may have ended before the deadline was set
+		if (read.isDone())
+			read.deadline.cancel(false);
+		return read;
+	}
+
+	/**
+	 * Stops the threads created by this instance. Reads in progress are cancelled. Given executors are not shut down.
+	 */
+	public void shutdown()
+	{
+		if (ownExecutors)
+		{
+			executor.shutdownNow();
+			timer.shutdownNow();
+		}
+	}
+
+	/**
+	 * The Result class holds the outcome of a read.
+	 */
+	public static class Result
+	{
+		/** The status. */
+		private final int status;
+		/** The travel card, null if none. */
+		private final TravelCard travelCard;
+		/** The single ticket, null if none. */
+		private final SingleTicket singleTicket;
+		/** The file flags of the travel card files read. */
+		private final int filesRead;
+		/** The error that ended the read, null if none. */
+		private final IOException error;
+		/** The duration of the read in nanoseconds. */
+		private final long elapsedNanos;
+
+		/**
+		 * Instantiates a new result.
+		 *
+		 * @param status the status
+		 * @param travelCard the travel card, null if none
+		 * @param singleTicket the single ticket, null if none
+		 * @param filesRead the file flags of the travel card files read
+		 * @param error the error that ended the read, null if none
+		 * @param elapsedNanos the duration of the read in nanoseconds
+		 */
+		Result(int status, TravelCard travelCard, SingleTicket singleTicket, int filesRead, IOException error, long elapsedNanos)
+		{
+			this.status = status;
+			this.travelCard = travelCard;
+			this.singleTicket = singleTicket;
+			this.filesRead = filesRead;
+			this.error = error;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * Gets the status.
+		 *
+		 * @return one of {@code COMPLETE, TIMEOUT, FAILED, CANCELLED}
+		 */
+		public int getStatus() { return status; }
+
+		/**
+		 * Tells if all data was read.
+		 *
+		 * @return true if the status is {@code COMPLETE}
+		 */
+		public boolean isComplete() { return status == COMPLETE; }
+
+		/**
+		 * Gets the travel card. After a complete read this is the card as returned by {@link CardReader#readTravelCard(CardTransport)},
+		 * otherwise it has the files read so far and the error status {@code CARD_READ_FAILURE}.
+		 *
+		 * @return the travel card, null if no card data was read or the data read could not be decoded
+		 */
+		public TravelCard getTravelCard() { return travelCard; }
+
+		/**
+		 * Gets the single ticket.
+		 *
+		 * @return the single ticket, null if the read did not complete
+		 */
+		public SingleTicket getSingleTicket() { return singleTicket; }
+
+		/**
+		 * Gets the travel card files that were read.
+		 *
+		 * @return the file flags of TravelCard, for example {@code TravelCard.FILE_PERIOD_PASS}
+		 */
+		public int getFilesRead() { return filesRead; }
+
+		/**
+		 * Tells if a travel card file was read, so that the data of the file in the partial travel card can be used.
+		 *
+		 * @param file the file flag of TravelCard
+		 * @return true if the file was read
+		 */
+		public boolean hasFile(int file) { return (filesRead & file) == file; }
+
+		/**
+		 * Gets the error that ended the read. A RuntimeException thrown by the read is the cause of an IOException.
+		 *
+		 * @return the error, null if the read did not fail
+		 */
+		public IOException getError() { return error; }
+
+		/**
+		 * Gets the duration of the read.
+		 *
+		 * @return the time from the start of the read to the result in milliseconds
+		 */
+		public long getElapsedMillis() { return elapsedNanos / 1000000; }
+	}
+
+	/**
+	 * The Read class runs one read and is the Future of its result.
+	 */
+	private static class Read implements Runnable, Future<Result>
+	{
+		/** The card. */
+		private final CardTransport card;
+		/** The reader of this read. */
+		private final CardReader reader;
+		/** True for travel cards, false for single tickets. */
+		private final boolean travelCard;
+		/** The callback, null if none. */
+		private final Callback callback;
+		/** The start time from System.nanoTime(). */
+		private final long start = System.nanoTime();
+		/** Released when the result is set. */
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/** The task running the read. */
+		volatile Future<?> task;
+		/** The task of the deadline. */
+		volatile Future<?> deadline;
+		/** The result, null until the read has ended. */
+		private Result result;
+
+		Read(CardTransport card, CardReader reader, boolean travelCard, Callback callback)
+		{
+			this.card = card;
+			this.reader = reader;
+			this.travelCard = travelCard;
+			this.callback = callback;
+		}
+
+		@Override
+		public void run()
+		{
+			try {
+				if (travelCard)
+				{
+					TravelCard read = reader.readTravelCard(card);
+					complete(new Result(COMPLETE, read, null, reader.getFilesRead(), null, System.nanoTime() - start));
+				}
+				else
+				{
+					//single ticket reads are started with a PageTransport
+					SingleTicket read = reader.readSingleTicket((PageTransport) card);
+					complete(new Result(COMPLETE, null, read, 0, null, System.nanoTime() - start));
+				}
+			}
+			catch (IOException e) {
+				//a cancelled read is completed by stop with its own status
+				if (reader.isCancelled())
+					return;
+				MyLog.d("AsyncCardReader: read failed: {}", e);
+				complete(partial(FAILED, e));
+			}
+			catch (RuntimeException e) {
+				//an unexpected response or a bug, the read must still end now and not at the deadline
+				MyLog.e("AsyncCardReader: read failed", e);
+				complete(partial(FAILED, new IOException("Read failed: " + e, e)));
+			}
+		}
+
+		/**
+		 * Ends the read before it has completed.
+		 *
+		 * @param status the status, {@code TIMEOUT} or {@code CANCELLED}
+		 * @return true if this ended the read
+		 */
+		boolean stop(int status)
+		{
+			reader.cancel();
+			Future<?> running = task;
+			if (running != null)
+				running.cancel(true);
+			return complete(partial(status, null));
+		}
+
+		/**
+		 * Makes the result of the data read so far.
+		 *
+		 * @param status the status
+		 * @param error the error that ended the read, null if none
+		 * @return the result
+		 */
+		private Result partial(int status, IOException error)
+		{
+			long elapsed = System.nanoTime() - start;
+			if (!travelCard)
+				return new Result(status, null, null, 0, error, elapsed);
+
+			TravelCard card;
+			try {
+				card = reader.getTravelCard();
+			}
+			catch (RuntimeException e) {
+				//the files read so far could not be made into a card
+				MyLog.e("AsyncCardReader: partial card failed", e);
+				card = null;
+			}
+			return new Result(status, card, null, reader.getFilesRead(), error, elapsed);
+		}
+
+		/**
+		 * Sets the result unless it has been set already, and calls the callback.
+		 *
+		 * @param result the result
+		 * @return true if the result was set
+		 */
+		private boolean complete(Result result)
+		{
+			synchronized (this)
+			{
+				if (this.result != null)
+					return false;
+				this.result = result;
+			}
+			done.countDown();
+
+			Future<?> timeout = deadline;
+			if (timeout != null)
+				timeout.cancel(false);
+			if (callback != null)
+				callback.onReadComplete(result);
+			return true;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return stop(CANCELLED);
+		}
+
+		@Override
+		public synchronized boolean isCancelled() {
+			return result != null && result.status == CANCELLED;
+		}
+
+		@Override
+		public synchronized boolean isDone() {
+			return result != null;
+		}
+
+		@Override
+		public Result get() throws InterruptedException {
+			done.await();
+			return getResult();
+		}
+
+		@Override
+		public Result get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return getResult();
+		}
+
+		/**
+		 * Gets the result after it has been set.
+		 *
+		 * @return the result
+		 */
+		private synchronized Result getResult() {
+			return result;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * CardMetrics.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import com.hsl.cardproducts.TravelCard;
+
+/**
+ * The CardMetrics class passes the timings of card reads to a pluggable sink.
+ * <p>
+ * {@link CardReader} reports the duration and the bytes of every command sent to the card, the durations of the decoding
+ * and of the whole read, and the outcome of each read. The default sink is {@link #NO_OP}: then the reader does not even read the clock,
+ * so the cost of disabled metrics is one volatile read per card. {@link CardMetricsRegistry} collects the timings into histograms.
+ * <p>
+ * A sink is called from the reading threads, so it has to be thread safe and fast.
+ */
+public class CardMetrics
+{
+	//Commands sent to the card
+	/** Step of selecting the HSL application of old cards. */
+	public static final int SELECT_V1 = 0;
+	/** Step of selecting the HSL application of new cards, sent after the old one fails. */
+	public static final int SELECT_V2 = 1;
+	/** Step of reading the ApplicationInformation file. */
+	public static final int READ_APPLICATION_INFO = 2;
+	/** Step of reading the ControlInformation file. */
+	public static final int READ_CONTROL_INFO = 3;
+	/** Step of reading the PeriodPass file. */
+	public static final int READ_PERIOD_PASS = 4;
+	/** Step of reading the StoredValue file. */
+	public static final int READ_STORED_VALUE = 5;
+	/** Step of reading the eTicket file. */
+	public static final int READ_ETICKET = 6;
+	/** Step of reading the History file. */
+	public static final int READ_HISTORY = 7;
+	/** Step of reading the rest of the History file after the status 0x91AF. */
+	public static final int READ_HISTORY_MORE = 8;
+	/** Step of reading four pages of a single ticket. */
+	public static final int READ_PAGES = 9;
+	/** Step of reading a single ticket with FAST_READ. */
+	public static final int FAST_READ = 10;
+
+	//Phases without commands
+	/** Phase of creating the TravelCard from the data read. Its fields are extracted later, on first access. */
+	public static final int DECODE_TRAVEL_CARD = 11;
+	/** Phase of creating the SingleTicket from the data read. */
+	public static final int DECODE_SINGLE_TICKET = 12;
+	/** Phase of a whole travel card read. */
+	public static final int READ_TRAVEL_CARD = 13;
+	/** Phase of a whole single ticket read. */
+	public static final int READ_SINGLE_TICKET = 14;
+	/** The number of steps and phases. */
+	public static final int STEP_COUNT = 15;
+
+	/** The names of the steps and phases. */
+	private static final String[] stepNames = { "select v1", "select v2", "application info", "control info", "period pass", "stored value",
+			"eTicket", "history", "history more", "read pages", "fast read", "decode travel card", "decode single ticket", "travel card", "single ticket" };
+
+	//Outcomes, the first ones are the error statuses of TravelCard
+	/** Outcome of a complete read, {@code TravelCard.OK_STATUS}. */
+	public static final int OK_STATUS = TravelCard.OK_STATUS;
+	/** Outcome of a card without the HSL application, {@code TravelCard.NO_HSL_CARD}. */
+	public static final int NO_HSL_CARD = TravelCard.NO_HSL_CARD;
+	/** Outcome of a read with files of the wrong length, {@code TravelCard.HSL_CARD_DATA_FAILURE}. */
+	public static final int HSL_CARD_DATA_FAILURE = TravelCard.HSL_CARD_DATA_FAILURE;
+	/** Outcome of {@code TravelCard.CARD_READ_FAILURE}. */
+	public static final int CARD_READ_FAILURE = TravelCard.CARD_READ_FAILURE;
+	/** Outcome of {@code TravelCard.HSL_CARDNUMBER_FAILURE}. */
+	public static final int HSL_CARDNUMBER_FAILURE = TravelCard.HSL_CARDNUMBER_FAILURE;
+	/** Outcome of a read that ended with an IOException, usually because the card was removed. */
+	public static final int IO_ERROR = 5;
+	/** Outcome of a read that was cancelled. */
+	public static final int CANCELLED = 6;
+	/** The number of outcomes. */
+	public static final int OUTCOME_COUNT = 7;
+
+	/** The names of the outcomes. */
+	private static final String[] outcomeNames = { "OK_STATUS", "NO_HSL_CARD", "HSL_CARD_DATA_FAILURE", "CARD_READ_FAILURE", "HSL_CARDNUMBER_FAILURE",
+			"IO_ERROR", "CANCELLED" };
+
+	/**
+	 * The Sink interface receives the timings of card reads.
+	 */
+	public interface Sink
+	{
+		/**
+		 * Called after a command has been sent to the card.
+		 *
+		 * @param step the step, for example {@code READ_PERIOD_PASS}
+		 * @param nanos the duration in nanoseconds
+		 * @param sent the number of bytes sent
+		 * @param received the number of bytes received, -1 if the card did not answer
+		 */
+		void exchange(int step, long nanos, int sent, int received);
+
+		/**
+		 * Called after a phase has ended.
+		 *
+		 * @param phase the phase, for example {@code READ_TRAVEL_CARD}
+		 * @param nanos the duration in nanoseconds
+		 */
+		void phase(int phase, long nanos);
+
+		/**
+		 * Called at the end of each read.
+		 *
+		 * @param outcome the outcome, for example {@code OK_STATUS} or {@code IO_ERROR}
+		 */
+		void outcome(int outcome);
+	}
+
+	/** The sink that drops all timings. */
+	public static final Sink NO_OP = new Sink() {
+		@Override
+		public void exchange(int step, long nanos, int sent, int received) {
+		}
+
+		@Override
+		public void phase(int phase, long nanos) {
+		}
+
+		@Override
+		public void outcome(int outcome) {
+		}
+	};
+
+	/** The current sink. */
+	private static volatile Sink sink = NO_OP;
+
+	/**
+	 * Sets the sink. Null selects the no-op sink. Reads in progress keep the sink they started with.
+	 *
+	 * @param newSink the sink to pass the timings to
+	 */
+	public static void setSink(Sink newSink)
+	{
+		sink = newSink != null ? newSink : NO_OP;
+	}
+
+	/**
+	 * Gets the sink.
+	 *
+	 * @return the current sink
+	 */
+	public static Sink getSink()
+	{
+		return sink;
+	}
+
+	/**
+	 * Gets the name of a step or phase.
+	 *
+	 * @param step the step or phase
+	 * @return the name
+	 */
+	public static String getStepName(int step)
+	{
+		return stepNames[step];
+	}
+
+	/**
+	 * Gets the name of an outcome.
+	 *
+	 * @param outcome the outcome
+	 * @return the name
+	 */
+	public static String getOutcomeName(int outcome)
+	{
+		return outcomeNames[outcome];
+	}
+}
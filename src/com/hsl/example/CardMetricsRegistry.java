@@ -0,0 +1,169 @@
+/*
+ * CardMetricsRegistry.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.hsl.util.LatencyHistogram;
+
+/**
+ * The class CardMetricsRegistry collects the timings of card reads in memory.
+ * <p>
+ * Every step and phase of {@link CardMetrics} has a {@link LatencyHistogram} of its durations in nanoseconds. Outcomes, commands,
+ * failed commands and the bytes sent and received are counted. Install it with {@code CardMetrics.setSink(registry)}.
+ * The class is thread safe.
+ */
+public class CardMetricsRegistry implements CardMetrics.Sink
+{
+	/** The durations of each step and phase. */
+	private final LatencyHistogram[] histograms = new LatencyHistogram[CardMetrics.STEP_COUNT];
+	/** The number of commands of each step that the card did not answer. */
+	private final AtomicLongArray failures = new AtomicLongArray(CardMetrics.STEP_COUNT);
+	/** The number of reads of each outcome. */
+	private final AtomicLongArray outcomes = new AtomicLongArray(CardMetrics.OUTCOME_COUNT);
+	/** The number of bytes sent to cards. */
+	private final AtomicLong bytesSent = new AtomicLong();
+	/** The number of bytes received from cards. */
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	/**
+	 * Instantiates a new empty registry.
+	 */
+	public CardMetricsRegistry()
+	{
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram();
+	}
+
+	@Override
+	public void exchange(int step, long nanos, int sent, int received)
+	{
+		histograms[step].record(nanos);
+		bytesSent.addAndGet(sent);
+		if (received < 0)
+			failures.incrementAndGet(step);
+		else
+			bytesReceived.addAndGet(received);
+	}
+
+	@Override
+	public void phase(int phase, long nanos)
+	{
+		histograms[phase].record(nanos);
+	}
+
+	@Override
+	public void outcome(int outcome)
+	{
+		outcomes.incrementAndGet(outcome);
+	}
+
+	/**
+	 * Gets the durations of a step or phase.
+	 *
+	 * @param step the step or phase of {@link CardMetrics}, for example {@code CardMetrics.READ_HISTORY}
+	 * @return the histogram of the durations in nanoseconds
+	 */
+	public LatencyHistogram getHistogram(int step) {
+		return histograms[step];
+	}
+
+	/**
+	 * Gets the number of commands of a step that the card did not answer.
+	 *
+	 * @param step the step
+	 * @return the number of failed commands
+	 */
+	public long getFailures(int step) {
+		return failures.get(step);
+	}
+
+	/**
+	 * Gets the number of reads with an outcome.
+	 *
+	 * @param outcome the outcome of {@link CardMetrics}, for example {@code CardMetrics.NO_HSL_CARD}
+	 * @return the number of reads
+	 */
+	public long getOutcomeCount(int outcome) {
+		return outcomes.get(outcome);
+	}
+
+	/**
+	 * Gets the number of bytes sent to cards.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Gets the number of bytes received from cards.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * Removes all timings and counts.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < histograms.length; i++)
+		{
+			histograms[i].reset();
+			failures.set(i, 0);
+		}
+		for (int i = 0; i < outcomes.length(); i++)
+			outcomes.set(i, 0);
+		bytesSent.set(0);
+		bytesReceived.set(0);
+	}
+
+	/**
+	 * Formats the steps and outcomes that have been recorded, one per line.
+	 *
+	 * @return the report
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < histograms.length; i++)
+		{
+			if (histograms[i].getCount() == 0)
+				continue;
+			sb.append(CardMetrics.getStepName(i)).append(": ").append(histograms[i]);
+			if (failures.get(i) > 0)
+				sb.append(" failed=").append(failures.get(i));
+			sb.append('\n');
+		}
+		for (int i = 0; i < outcomes.length(); i++)
+		{
+			if (outcomes.get(i) > 0)
+				sb.append(CardMetrics.getOutcomeName(i)).append(": ").append(outcomes.get(i)).append('\n');
+		}
+		sb.append("bytes sent=").append(bytesSent.get()).append(" received=").append(bytesReceived.get());
+		return sb.toString();
+	}
+}
@@ -20,16 +20,16 @@ package com.hsl.example;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Date;
 
 import com.hsl.cardlibrary.R;
 import com.hsl.cardproducts.SingleTicket;
+import com.hsl.cardproducts.TicketValidity;
 import com.hsl.cardproducts.TravelCard;
 import com.hsl.cardproducts.eTicket;
-import com.hsl.util.Convert;
 import com.hsl.util.HSLDomicileMappings;
-import com.hsl.util.MyLog;
+import com.hsl.util.ZoneOffsetTable;
 
 import android.content.Context;
 import android.nfc.tech.IsoDep;
@@ -42,61 +42,15 @@ import android.util.Log;
  * and how to read information from created instances.
  * <p>
  * The descriptions of TravelCard and SingleTicket classes include brief description of how to read the data from the cards
- * and how to instantiate classes. The full example is in the source code of this class.
+ * and how to instantiate classes. The full example is in the source code of this class and {@link CardReader}.
+ * <p>
+ * The read methods can be called from several threads at the same time, each call reads with its own CardReader.
  * <p>
  * @author Bonwal Oy
  *
  */
 public class CardOperations 
 {
-	// Fields for old, TLJ2010 spec card
-	/** Select command for the HSL application. */
-	private static byte[] selectHslCommand 			= {(byte)0x90, (byte)0x5A, (byte)0x00, (byte)0x00, (byte)0x03, (byte)0x11, (byte)0x20, (byte)0xEF, (byte)0x00};
-	/** the command for reading the ApplicationInformation file. */
-	private static byte[] readAppinfoCommand 		= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x08, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0B, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the CntrolInformation file. */
-	private static byte[] readControlinfoCommand 	= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x06, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the PeriodPass file. */
-	private static byte[] readPeriodpassCommand 	= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x20, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the StoredValue file. */
-	private static byte[] readStoredvalueCommand 	= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x02, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0C, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the eTicket file. */
-	private static byte[] readETicketCommand 		= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x03, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x1A, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the History file. */
-	private static byte[] readHistoryCommand 		= {(byte)0x90, (byte)0xBB, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x04, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading last part of the History file. */
-	private static byte[] readNextCommand 			= {(byte)0x90, (byte)0xAF, (byte)0x00, (byte)0x00, (byte)0x00};
-
-	// 7.11.2018 Joni
-	// New fields for new, TLJ2014 spec card
-	/** Select command for the HSL application. */
-	private static byte[] selectHslCommand_v2       = {(byte)0x90, (byte)0x5A, (byte)0x00, (byte)0x00, (byte)0x03, (byte)0x14, (byte)0x20, (byte)0xEF, (byte)0x00};
-	/** the command for reading the ApplicationInformation file. */
-	private static byte[] readAppinfoCommand_v2     = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x08, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0B, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the CntrolInformation file. */
-	private static byte[] readControlinfoCommand_v2 = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0A, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the PeriodPass file. */
-	private static byte[] readPeriodpassCommand_v2  = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x23, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the StoredValue file. */
-	private static byte[] readStoredvalueCommand_v2 = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x02, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0D, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the eTicket file. */
-	private static byte[] readETicketCommand_v2     = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x03, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x2D, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading the History file. */
-	private static byte[] readHistoryCommand_v2     = {(byte)0x90, (byte)0xBB, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x04, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00};
-	/** The command for reading last part of the History file. */
-	private static byte[] readNextCommand_v2        = {(byte)0x90, (byte)0xAF, (byte)0x00, (byte)0x00, (byte)0x00};
-
-	// Fields for single ticket
-	/** ApplicationInformation data for single ticket */
-	private static byte[] appinfodata = new byte[23];
-	/** eTicket data for single ticket */
-	private static byte[] eticketdata = new byte[41];
-
-	/** OK response form the card. */
-	private static byte[] ok = { (byte) 0x91, (byte) 0x0 };
-	/** There's more data to be read -response from the card. */
-	private static byte[] moreData = { (byte) 0x91, (byte) 0xAF };
-
 	/**
 	 * This method reads the travel card data from HSL Mifare DESFire card.
 	 * <p>
@@ -147,151 +101,19 @@ public class CardOperations
 	 */
 	public static TravelCard readTravelCardData(IsoDep ISOCard) throws IOException
 	{
-		//Temporary byte arrays
-		byte[]	appInfo, controlInfo, periodPass, storedValue, eTicket, history, hist1, hist2, selection;
-
-		//Start reading
-		MyLog.i("CardOperations.readTravelCardData: start reading");
-
-		// Joni 7.11.2018
-		// Selection checking for new cards
-		selection = new byte[0];
-		//Select HSL application, old TLJ2010 card
-		if (checkSelection(ISOCard, selectHslCommand, selection)) //  Arrays.equals(selection, ok))
-		{
-			//Selection ok, read files
-			MyLog.d("CardOperations.readTravelCardData: Selected HSL application");
-
-			//Read ApplicationInformation
-			appInfo = ISOCard.transceive(readAppinfoCommand);
-			MyLog.d("CardOperations.readTravelCardData: read application info, "+appInfo.length+" bytes");
-
-			//Read ControlInformation
-			controlInfo = ISOCard.transceive(readControlinfoCommand);
-			MyLog.d("CardOperations.readTravelCardData: read control info, "+controlInfo.length+" bytes");
-
-			//Read PeriodPass
-			periodPass = ISOCard.transceive(readPeriodpassCommand);
-			MyLog.d("CardOperations.readTravelCardData: read period pass, "+periodPass.length+" bytes");
-
-			//Read StoredValue
-			storedValue = ISOCard.transceive(readStoredvalueCommand);
-			MyLog.d("CardOperations.readTravelCardData: read stored value, "+storedValue.length+" bytes");
-
-			//Read eTicket
-			eTicket = ISOCard.transceive(readETicketCommand);
-			MyLog.d("CardOperations.readTravelCardData: read value ticket, "+eTicket.length+" bytes");
-
-			//Read History
-			hist1 = ISOCard.transceive(readHistoryCommand);
-			MyLog.d("CardOperations.readTravelCardData: read history data, "+hist1.length+" bytes");
-
-			//Check if more history data is waiting on the card
-			if (Arrays.equals( Arrays.copyOfRange(hist1, hist1.length-2, hist1.length), moreData))
-			{
-				//Read rest of the history data
-				hist2 = ISOCard.transceive(readNextCommand);
-				MyLog.d("CardOperations.readTravelCardData: read more history data, "+hist2.length+" bytes");
-			}
-			else
-				hist2 = new byte[2];
-
-			//Combine the two read history data blocks
-			history = new byte[hist1.length-2 + hist2.length-2];
-			System.arraycopy(hist1, 0, history, 0, hist1.length-2);
-			System.arraycopy(hist2, 0, history, hist1.length-2, hist2.length-2);
-
-			// Check if arrays actually contain data
-			if ( (appInfo.length == 0xB+2) && (periodPass.length == 0x20+2) && (storedValue.length == 0xC+2) && (eTicket.length == 0x1A+2) )
-			{
-				//Create Travelcard
-				return new TravelCard(appInfo, controlInfo, periodPass, storedValue, eTicket, history, 1);
-			}
-			else
-			{
-				//Set HSL application select error status to travel card instance (or throw exception etc.)
-				MyLog.d("CardOperations.readTravelCardData: HSL application data read failure!");
-				return new TravelCard(TravelCard.HSL_CARD_DATA_FAILURE);
-			}
-		}
-		//Select HSL application, new TLJ2014 card
-		else if (checkSelection(ISOCard, selectHslCommand_v2, selection))
-		{
-			//Selection ok, read files
-			MyLog.d("CardOperations.readTravelCardData: Selected HSL application");
-			MyLog.d("CardOperations.readTravelCardData: New card!");
-
-			//Read ApplicationInformation
-			appInfo = ISOCard.transceive(readAppinfoCommand_v2);
-			MyLog.d("CardOperations.readTravelCardData: read application info, "+appInfo.length+" bytes");
-
-			// Read ControlInformation
-			controlInfo = ISOCard.transceive(readControlinfoCommand_v2);
-			MyLog.d("CardOperations.readTravelCardData: read control info, "+controlInfo.length+" bytes");
-
-			//Read PeriodPass
-			periodPass = ISOCard.transceive(readPeriodpassCommand_v2);
-			MyLog.d("CardOperations.readTravelCardData: read period pass, "+periodPass.length+" bytes");
-
-			//Read StoredValue
-			storedValue = ISOCard.transceive(readStoredvalueCommand_v2);
-			MyLog.d("CardOperations.readTravelCardData: read stored value, "+storedValue.length+" bytes");
-
-			//Read eTicket
-			eTicket = ISOCard.transceive(readETicketCommand_v2);
-			MyLog.d("CardOperations.readTravelCardData: read value ticket, "+eTicket.length+" bytes");
-
-			//Read History
-			hist1 = ISOCard.transceive(readHistoryCommand_v2);
-			MyLog.d("CardOperations.readTravelCardData: read history data, "+hist1.length+" bytes");
-
-			//Check if more history data is waiting on the card
-			if (Arrays.equals( Arrays.copyOfRange(hist1, hist1.length-2, hist1.length), moreData))
-			{
-				//Read rest of the history data
-				hist2 = ISOCard.transceive(readNextCommand_v2);
-				MyLog.d("CardOperations.readTravelCardData: read more history data, "+hist2.length+" bytes");
-			}
-			else
-				hist2 = new byte[2];
-
-			//Combine the two read history data blocks
-			history = new byte[hist1.length-2 + hist2.length-2];
-			System.arraycopy(hist1, 0, history, 0, hist1.length-2);
-			System.arraycopy(hist2, 0, history, hist1.length-2, hist2.length-2);
-
-			// Check if arrays actually contain data
-			if ( (appInfo.length == 0xB+2) && (periodPass.length == 0x23+2) && (storedValue.length == 0xD+2) && (eTicket.length == 0x2D+2) )
-			{
-				//Create Travelcard
-				return new TravelCard(appInfo, controlInfo, periodPass, storedValue, eTicket, history, 2);
-			}
-			else
-			{
-				//Set HSL application select error status to travel card instance (or throw exception etc.)
-				MyLog.d("CardOperations.readTravelCardData: HSL application data read failure!");
-				return new TravelCard(TravelCard.HSL_CARD_DATA_FAILURE);
-			}
-		}
-		else
-		{
-			//Set HSL application select error status to travel card instance (or throw exception etc.)
-			MyLog.d("CardOperations.readTravelCardData: HSL application selection failed! (" + Convert.getHexString(selection)+","+Convert.getHexString(ok)+")");
-			return new TravelCard(TravelCard.NO_HSL_CARD);
-		}
+		return new CardReader().readTravelCard(ISOCard);
 	}
 
 	/**
-	 * Transceive selected block from card data, returns true if reading is successful.
-	 * @param ISOCard Card to read from
-	 * @param command Command to try to transceive
-	 * @param selection Array where selected data is stored
-	 * @return boolean value if read was successful.
+	 * Reads the travel card data through a card transport, for example a {@link SimulatedCard}.
+	 *
+	 * @param card the transport of the DESFire card
+	 * @return Instance of created TravelCard class
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
-	private static boolean checkSelection(IsoDep ISOCard, byte[] command, byte[] selection) throws IOException {
-		selection = ISOCard.transceive(command);
-		return Arrays.equals(selection, ok);
+	public static TravelCard readTravelCardData(CardTransport card) throws IOException
+	{
+		return new CardReader().readTravelCard(card);
 	}
 
 	/**
@@ -334,27 +156,37 @@ public class CardOperations
 	 */
 	public static SingleTicket readSingleCardData(MifareUltralight ulCard) throws IOException
 	{
-		//Byte array for all card data
-		byte[] bytes = new byte[64];
-		byte[] pages;
-
-		//Start the reading of ultralight card
-		MyLog.i("CardOperations.readSingleCardData: start reading");
+		return readSingleCardData(ulCard, false);
+	}
 
-		//Read 4 times (16 bytes at a time)
-		for (int i=0; i < 4; i++)
-		{
-			pages = ulCard.readPages(i*4);
-			System.arraycopy(pages, 0, bytes, i*16, pages.length);
-    		MyLog.d("CardOperations.readSingleCardData: read bytes " + (i*16) + "-" + (i*16+pages.length));
-		}
-		//Get ApplicationInformation data from ultralight card's data
-		System.arraycopy(bytes, 0, appinfodata, 0, appinfodata.length);
-		//Get eTicket data from ultralight card's data
-		System.arraycopy(bytes, 23, eticketdata, 0, eticketdata.length);
+	/**
+	 * Read the single ticket card data from HSL single ticket card, optionally with a single FAST_READ command.
+	 * <p>
+	 * With {@code fastRead} all 16 pages are read in one exchange instead of four {@code readPages} calls, which saves three round trips.
+	 * FAST_READ is supported by Ultralight EV1 chips. If the chip does not support it, the card is connected again
+	 * and read with {@code readPages} as in {@link #readSingleCardData(MifareUltralight)}.
+	 *
+	 * @param ulCard the read single ticket as instance of android.nfc.tech.MifareUltralight
+	 * @param fastRead true to try reading all data with one FAST_READ command
+	 * @return Instance of created SingleTicket class.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static SingleTicket readSingleCardData(MifareUltralight ulCard, boolean fastRead) throws IOException
+	{
+		return new CardReader(fastRead).readSingleTicket(ulCard);
+	}
 
-		//Create and return instance of new SingleTicket
-		return new SingleTicket(appinfodata, eticketdata);
+	/**
+	 * Reads the single ticket card data through a card transport, for example a {@link SimulatedCard}.
+	 *
+	 * @param card the transport of the single ticket
+	 * @param fastRead true to try reading all data with one FAST_READ command
+	 * @return Instance of created SingleTicket class.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static SingleTicket readSingleCardData(PageTransport card, boolean fastRead) throws IOException
+	{
+		return new CardReader(fastRead).readSingleTicket(card);
 	}
 
 
@@ -457,60 +289,54 @@ public class CardOperations
 			validityArea = app_context.getResources().getString(R.string.d15);
 		}
 
-		//Ticket's validity start date
-		Calendar periodStartCal = Calendar.getInstance();
-		periodStartCal.setTime (eTicket.getValidityStartDate());
-		//Ticket's validity end date
-		Calendar periodEndCal = Calendar.getInstance();
-		periodEndCal.setTime (eTicket.getValidityEndDate());
-
-		//Current date from the device
-		Calendar currentCal = Calendar.getInstance ();
+		//Ticket's validity start and end dates
+		Date periodStart = eTicket.getValidityStartDate();
+		Date periodEnd = eTicket.getValidityEndDate();
 
 		//Ticket status string
 		String status = "Ticket status: ";
 		//String to tell more about validity of the ticket
 		String validityStr = "\n";
 
-		//NOTE! If a date is not set on ticket, it's extracted date value is 1.1.1997!
-		//This is due to date format on tickets which stores the number of days since 1.1.1997
-
-		//If no end date is set for the ticket (the date is 1.1.1997)
-		if (periodEndCal.get(Calendar.YEAR) == 1997)
+		//Evaluate the validity at the current time of the device
+		switch (TicketValidity.valueTicket(eTicket, TicketValidity.nowMinute(), ZoneOffsetTable.getDefault()))
 		{
-			//Ticket is unused
-			status += "Unused \n\n";
-			//Tell user when the validity starts
-			validityStr += "The ticket is valid from the first use.";
-		}
-		//If start date is set, but start date is in the future
-		else if (periodStartCal.after(currentCal))
-		{
-			//Ticket is not yet valid
-			status += "Not started yet \n\n";
-
-			//tell start and end dates for the validity
-			validityStr += "Valid:\n"
-					+ datetimeFormat.format(periodStartCal.getTime()) + " - "
-					+ datetimeFormat.format(periodEndCal.getTime());
-		}
-		//If ticket's validity end date was before current date
-		else if (periodEndCal.before(currentCal))
-		{
-			//Ticket is used and no longer valid
-			status += "No longer valid \n\n";
-
-			//Tell the time when the validity of the ticket will end or has ended
-			validityStr += "Valid until: " + datetimeFormat.format(periodEndCal.getTime());
-		}
-		//no other options left, ticket is valid
-		else
-		{
-			//Valid ticket
-			status += "Valid \n\n";
-
-			//Tell the time when the validity of the ticket will end or has ended
-			validityStr += "Valid until: " + datetimeFormat.format(periodEndCal.getTime());
+			//If the card has no value ticket, there is nothing more to tell
+			case TicketValidity.NO_PRODUCT:
+				return status + "No ticket";
+			//If no end date is set for the ticket
+			case TicketValidity.UNUSED:
+				//Ticket is unused
+				status += "Unused \n\n";
+				//Tell user when the validity starts
+				validityStr += "The ticket is valid from the first use.";
+				break;
+			//If start date is set, but start date is in the future
+			case TicketValidity.NOT_STARTED:
+				//Ticket is not yet valid
+				status += "Not started yet \n\n";
+
+				//tell start and end dates for the validity
+				validityStr += "Valid:\n"
+						+ datetimeFormat.format(periodStart) + " - "
+						+ datetimeFormat.format(periodEnd);
+				break;
+			//If ticket's validity end date was before current date
+			case TicketValidity.EXPIRED:
+				//Ticket is used and no longer valid
+				status += "No longer valid \n\n";
+
+				//Tell the time when the validity of the ticket will end or has ended
+				validityStr += "Valid until: " + datetimeFormat.format(periodEnd);
+				break;
+			//no other options left, ticket is valid
+			default:
+				//Valid ticket
+				status += "Valid \n\n";
+
+				//Tell the time when the validity of the ticket will end or has ended
+				validityStr += "Valid until: " + datetimeFormat.format(periodEnd);
+				break;
 		}
 
 		//Get validity length number from single ticket field ValidityLength
@@ -559,27 +385,18 @@ public class CardOperations
 		//Set date format to be used on output string
 		SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy");
 
-		//Current calendar
-		Calendar currentCal = Calendar.getInstance ();
-
 		//Instantiate helper class to get names for the ticket's zone or vehicle type where the ticket is valid
 		HSLDomicileMappings mappings = new HSLDomicileMappings(app_context);
 		String validityArea = mappings.getDomicile((int) card.getValidityAreaType1(), (int) card.getValidityArea1());
 
-		//get Calendar instance of Period start date
-		Calendar periodStartCal1 = Calendar.getInstance();
-		periodStartCal1.setTime (card.getPeriodStartDate1());
-
-		//get Calendar instance of Period end date
-		Calendar periodEndCal1 = Calendar.getInstance();
-		periodEndCal1.setTime (card.getPeriodEndDate1());
+		//Evaluate the validity at the current time of the device
+		int validity = TicketValidity.periodPass1(card, TicketValidity.nowMinute(), ZoneOffsetTable.getDefault());
 
 		//Check that we've got validity area and that period 1 exists (it's starting date is set)
-		//If period 1 does not exist, it's data on the card is filled with zeroes and en1545 date with 0 value is converted to java Date 1.1.1997...
-		if ( (validityArea != null) && (periodStartCal1.get(Calendar.YEAR) > 1997) )
+		if ( (validityArea != null) && (validity != TicketValidity.NO_PRODUCT) )
 		{
 			//if period is valid for now (no end date set)
-			if ( periodStartCal1.before(currentCal) && (periodEndCal1.get(Calendar.YEAR) == 1997) )
+			if (validity == TicketValidity.VALID_UNTIL_FURTHER_NOTICE)
 			{
 				//Info
 				period1Info = "Zone: " + validityArea;
@@ -590,10 +407,10 @@ public class CardOperations
 			{
 				//Set Info text
 				period1Info = "Zone: " + validityArea + "\n"
-						+ dateFormat.format(periodStartCal1.getTime());
+						+ dateFormat.format(card.getPeriodStartDate1());
 
-				//If period's end date is not set
-				if (periodEndCal1.get(Calendar.YEAR) == 1997)
+				//If period's end date is not set (en1545 date 0 is converted to 1.1.1997)
+				if (card.getPeriodEndDate1Millis() < ZoneOffsetTable.getDefault().toMillis(1, 0))
 				{
 					//Indication of no ending date
 					period1Info += " -->";
@@ -602,18 +419,18 @@ public class CardOperations
 				else
 				{
 					//Write ending date into info string
-					period1Info += " - " + dateFormat.format(periodEndCal1.getTime()) ;
+					period1Info += " - " + dateFormat.format(card.getPeriodEndDate1()) ;
 				}
 
 				//Determine the status of the period 1
 				//If period starting date is in the future
-				if (periodStartCal1.after(currentCal))
+				if (validity == TicketValidity.NOT_STARTED)
 				{
 					//Set status text
 					period1Status = "Not started yet";
 				}
 				//if period is currently valid
-				else if (currentCal.before(periodEndCal1) && currentCal.after(periodStartCal1))
+				else if (validity == TicketValidity.VALID)
 				{
 					//Set status text
 					period1Status = "Currently valid";
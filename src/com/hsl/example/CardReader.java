@@ -0,0 +1,674 @@
+/*
+ * CardReader.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+import com.hsl.cardproducts.SingleTicket;
+import com.hsl.cardproducts.TravelCard;
+import com.hsl.util.Convert;
+import com.hsl.util.MyLog;
+
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.MifareUltralight;
+
+/**
+ * The class CardReader reads HSL travel cards and single tickets for one reader session.
+ * <p>
+ * The commands sent to the cards are constants that are never written, so they are shared by all readers.
+ * The data read from a card is kept in the reader instance until the TravelCard or SingleTicket has been created,
+ * so readers used by different threads never share buffers. Each NFC reader should have its own CardReader,
+ * an instance must not be used by two threads at the same time.
+ * <p>
+ * The commands are sent through a {@link CardTransport}. The methods taking IsoDep or MifareUltralight use the Android adapters,
+ * and a {@link SimulatedCard} can be read the same way without a device.
+ * <p>
+ * The static read methods of {@link CardOperations} create a new CardReader for every call.
+ * The steps of reading the cards are described there.
+ */
+public class CardReader
+{
+	// Fields for old, TLJ2010 spec card
+	/** Select command for the HSL application. */
+	private static final byte[] selectHslCommand 			= {(byte)0x90, (byte)0x5A, (byte)0x00, (byte)0x00, (byte)0x03, (byte)0x11, (byte)0x20, (byte)0xEF, (byte)0x00};
+	/** the command for reading the ApplicationInformation file. */
+	private static final byte[] readAppinfoCommand 		= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x08, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0B, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the CntrolInformation file. */
+	private static final byte[] readControlinfoCommand 	= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x06, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the PeriodPass file. */
+	private static final byte[] readPeriodpassCommand 	= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x20, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the StoredValue file. */
+	private static final byte[] readStoredvalueCommand 	= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x02, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0C, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the eTicket file. */
+	private static final byte[] readETicketCommand 		= {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x03, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x1A, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the History file. */
+	private static final byte[] readHistoryCommand 		= {(byte)0x90, (byte)0xBB, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x04, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading last part of the History file. */
+	private static final byte[] readNextCommand 			= {(byte)0x90, (byte)0xAF, (byte)0x00, (byte)0x00, (byte)0x00};
+
+	// 7.11.2018 Joni
+	// New fields for new, TLJ2014 spec card
+	/** Select command for the HSL application. */
+	private static final byte[] selectHslCommand_v2       = {(byte)0x90, (byte)0x5A, (byte)0x00, (byte)0x00, (byte)0x03, (byte)0x14, (byte)0x20, (byte)0xEF, (byte)0x00};
+	/** the command for reading the ApplicationInformation file. */
+	private static final byte[] readAppinfoCommand_v2     = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x08, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0B, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the CntrolInformation file. */
+	private static final byte[] readControlinfoCommand_v2 = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0A, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the PeriodPass file. */
+	private static final byte[] readPeriodpassCommand_v2  = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x23, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the StoredValue file. */
+	private static final byte[] readStoredvalueCommand_v2 = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x02, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0D, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the eTicket file. */
+	private static final byte[] readETicketCommand_v2     = {(byte)0x90, (byte)0xBD, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x03, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x2D, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading the History file. */
+	private static final byte[] readHistoryCommand_v2     = {(byte)0x90, (byte)0xBB, (byte)0x00, (byte)0x00, (byte)0x07, (byte)0x04, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00};
+	/** The command for reading last part of the History file. */
+	private static final byte[] readNextCommand_v2        = {(byte)0x90, (byte)0xAF, (byte)0x00, (byte)0x00, (byte)0x00};
+
+	/** OK response form the card. */
+	private static final byte[] ok = { (byte) 0x91, (byte) 0x0 };
+	/** There's more data to be read -response from the card. */
+	private static final byte[] moreData = { (byte) 0x91, (byte) 0xAF };
+
+	/** The read commands of the files of old cards, indexed by file. */
+	private static final byte[][] readCommands = { readAppinfoCommand, readControlinfoCommand, readPeriodpassCommand, readStoredvalueCommand, readETicketCommand, readHistoryCommand };
+	/** The read commands of the files of new cards, indexed by file. */
+	private static final byte[][] readCommands_v2 = { readAppinfoCommand_v2, readControlinfoCommand_v2, readPeriodpassCommand_v2, readStoredvalueCommand_v2, readETicketCommand_v2, readHistoryCommand_v2 };
+	/** The lengths of the files of old cards without the status bytes, indexed by file. The length of the History file varies. */
+	private static final int[] fileLengths = { 0xB, 0x6, 0x20, 0xC, 0x1A };
+	/** The lengths of the files of new cards without the status bytes, indexed by file. The length of the History file varies. */
+	private static final int[] fileLengths_v2 = { 0xB, 0xA, 0x23, 0xD, 0x2D };
+	/** The metrics steps of reading the files, indexed by file. */
+	private static final int[] readSteps = { CardMetrics.READ_APPLICATION_INFO, CardMetrics.READ_CONTROL_INFO, CardMetrics.READ_PERIOD_PASS,
+			CardMetrics.READ_STORED_VALUE, CardMetrics.READ_ETICKET, CardMetrics.READ_HISTORY };
+	/** The names of the files for logging, indexed by file. */
+	private static final String[] fileNames = { "application info", "control info", "period pass", "stored value", "value ticket", "history data" };
+
+	/** The index of the History file, the files are indexed in the order of the file flags of TravelCard. */
+	private static final int HISTORY = 5;
+	/** The number of files. */
+	private static final int FILE_COUNT = 6;
+	/** The flags of all files. */
+	private static final int ALL_FILES = (1 << FILE_COUNT) - 1;
+
+	/** The FAST_READ command of Ultralight EV1 chips, reads a range of pages in one exchange. */
+	private static final byte FAST_READ = (byte)0x3A;
+	/** The number of pages in the single ticket data. */
+	private static final int SINGLE_TICKET_PAGES = 16;
+
+	/** True to read single tickets with one FAST_READ command. */
+	private final boolean fastRead;
+
+	/** True after the reader has been cancelled. */
+	private volatile boolean cancelled;
+	/** The metrics sink of the current read, see {@link CardMetrics}. */
+	private CardMetrics.Sink metrics = CardMetrics.NO_OP;
+
+	/** The response to the last select command. */
+	private byte[] selection = new byte[0];
+
+	// Fields for travel card
+	/** The version of the card being read, 0 until the HSL application has been selected. */
+	private int version;
+	/** The data read from the files of the card, with the status bytes except for the History file, indexed by file. */
+	private final byte[][] files = new byte[FILE_COUNT][];
+	/** The flags of the files read from the card, the flags are {@code 1 << index} as in TravelCard. */
+	private int filesRead;
+	/** True if the next read continues from the files of an earlier read. */
+	private boolean resumed;
+
+	// Fields for single ticket
+	/** All data of the single ticket. */
+	private final byte[] pageData = new byte[SINGLE_TICKET_PAGES * MifareUltralight.PAGE_SIZE];
+	/** ApplicationInformation data for single ticket */
+	private final byte[] appinfodata = new byte[23];
+	/** eTicket data for single ticket */
+	private final byte[] eticketdata = new byte[41];
+
+	/**
+	 * Instantiates a new reader that reads single tickets page by page.
+	 */
+	public CardReader()
+	{
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new reader.
+	 *
+	 * @param fastRead true to read single tickets with one FAST_READ command, see {@link CardOperations#readSingleCardData(MifareUltralight, boolean)}
+	 */
+	public CardReader(boolean fastRead)
+	{
+		this.fastRead = fastRead;
+	}
+
+	/**
+	 * Reads the travel card data from HSL Mifare DESFire card, see {@link CardOperations#readTravelCardData(IsoDep)}.
+	 *
+	 * @param ISOCard as instance of read android.nfc.tech.IsoDep
+	 * @return Instance of created TravelCard class
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public TravelCard readTravelCard(IsoDep ISOCard) throws IOException
+	{
+		return readTravelCard(new IsoDepTransport(ISOCard));
+	}
+
+	/**
+	 * Reads the travel card data through a card transport, for example a {@link SimulatedCard}.
+	 * <p>
+	 * The files are read one at a time, and the data read so far is available from {@link #getTravelCard()} during the read
+	 * and after a failed read.
+	 *
+	 * @param ISOCard the transport of the DESFire card
+	 * @return Instance of created TravelCard class
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public TravelCard readTravelCard(CardTransport ISOCard) throws IOException
+	{
+		metrics = CardMetrics.getSink();
+		if (metrics == CardMetrics.NO_OP)
+			return readFiles(ISOCard);
+
+		long start = System.nanoTime();
+		try {
+			TravelCard card = readFiles(ISOCard);
+			metrics.outcome(card.errorStatus);
+			return card;
+		}
+		catch (IOException e) {
+			metrics.outcome(cancelled ? CardMetrics.CANCELLED : CardMetrics.IO_ERROR);
+			throw e;
+		}
+		finally {
+			metrics.phase(CardMetrics.READ_TRAVEL_CARD, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Reads the files of the travel card.
+	 *
+	 * @param ISOCard the transport of the DESFire card
+	 * @return Instance of created TravelCard class
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private TravelCard readFiles(CardTransport ISOCard) throws IOException
+	{
+		//Start reading
+		MyLog.i("CardReader.readTravelCard: start reading");
+		int resumedVersion = startCard();
+
+		//Select the application of the resumed card, the files read before are used if it is still there
+		if (resumedVersion != 0 && !checkSelection(ISOCard, resumedVersion == 2 ? CardMetrics.SELECT_V2 : CardMetrics.SELECT_V1,
+				resumedVersion == 2 ? selectHslCommand_v2 : selectHslCommand))
+		{
+			clearCard();
+			resumedVersion = 0;
+		}
+
+		if (resumedVersion != 0)
+			MyLog.d("CardReader.readTravelCard: Resuming, files read before {}", getFilesRead());
+		// Joni 7.11.2018
+		// Selection checking for new cards
+		//Select HSL application, old TLJ2010 card
+		else if (checkSelection(ISOCard, CardMetrics.SELECT_V1, selectHslCommand))
+			selected(1);
+		//Select HSL application, new TLJ2014 card
+		else if (checkSelection(ISOCard, CardMetrics.SELECT_V2, selectHslCommand_v2))
+		{
+			MyLog.d("CardReader.readTravelCard: New card!");
+			selected(2);
+		}
+		else
+		{
+			//Set HSL application select error status to travel card instance (or throw exception etc.)
+			if (MyLog.isDebugEnabled())
+				MyLog.d("CardReader.readTravelCard: HSL application selection failed! ({},{})", Convert.getHexString(selection), Convert.getHexString(ok));
+			return new TravelCard(TravelCard.NO_HSL_CARD);
+		}
+
+		//Selection ok, read files
+		MyLog.d("CardReader.readTravelCard: Selected HSL application");
+		byte[][] commands = version == 2 ? readCommands_v2 : readCommands;
+
+		for (int file = 0; file < HISTORY; file++)
+		{
+			if (isRead(file))
+				continue;
+			byte[] data = transceive(ISOCard, readSteps[file], commands[file]);
+			MyLog.d("CardReader.readTravelCard: read {}, {} bytes", fileNames[file], data.length);
+			fileRead(file, data);
+		}
+		if (!isRead(HISTORY))
+			readHistory(ISOCard, commands[HISTORY]);
+
+		if (metrics == CardMetrics.NO_OP)
+			return getTravelCard();
+		long start = System.nanoTime();
+		TravelCard card = getTravelCard();
+		metrics.phase(CardMetrics.DECODE_TRAVEL_CARD, System.nanoTime() - start);
+		return card;
+	}
+
+	/**
+	 * Reads the History file, in two parts if the card has more data than fits in one response.
+	 *
+	 * @param ISOCard the transport of the DESFire card
+	 * @param command the command for reading the History file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void readHistory(CardTransport ISOCard, byte[] command) throws IOException
+	{
+		//Read History
+		byte[] hist1 = transceive(ISOCard, readSteps[HISTORY], command);
+		byte[] hist2;
+		MyLog.d("CardReader.readTravelCard: read history data, {} bytes", hist1.length);
+
+		//Check if more history data is waiting on the card
+		if (Arrays.equals( Arrays.copyOfRange(hist1, hist1.length-2, hist1.length), moreData))
+		{
+			//Read rest of the history data
+			hist2 = transceive(ISOCard, CardMetrics.READ_HISTORY_MORE, version == 2 ? readNextCommand_v2 : readNextCommand);
+			MyLog.d("CardReader.readTravelCard: read more history data, {} bytes", hist2.length);
+		}
+		else
+			hist2 = new byte[2];
+
+		//Combine the two read history data blocks
+		byte[] history = new byte[hist1.length-2 + hist2.length-2];
+		System.arraycopy(hist1, 0, history, 0, hist1.length-2);
+		System.arraycopy(hist2, 0, history, hist1.length-2, hist2.length-2);
+		fileRead(HISTORY, history);
+	}
+
+	/**
+	 * Gets the travel card of the data read so far.
+	 * <p>
+	 * After a complete read this is the card returned by {@link #readTravelCard(CardTransport)}. If some files have not been read,
+	 * because the read failed or was cancelled, the card has the data of the files that were read, the other files are empty and the
+	 * error status is {@code CARD_READ_FAILURE}. See {@link #getFilesRead()} for the files that can be used.
+	 * The method can be called from another thread during the read.
+	 *
+	 * @return the travel card, null if the ApplicationInformation file has not been read
+	 */
+	public synchronized TravelCard getTravelCard()
+	{
+		if ((filesRead & TravelCard.FILE_APPLICATION_INFO) == 0)
+			return null;
+
+		int[] lengths = version == 2 ? fileLengths_v2 : fileLengths;
+		byte[][] data = new byte[FILE_COUNT][];
+
+		for (int file = 0; file < HISTORY; file++)
+		{
+			if (files[file] == null)
+				data[file] = new byte[lengths[file]];
+			// Check if arrays actually contain data
+			else if (files[file].length == lengths[file]+2)
+				data[file] = files[file];
+			else
+			{
+				//Set HSL application select error status to travel card instance (or throw exception etc.)
+				MyLog.d("CardReader.readTravelCard: HSL application data read failure!");
+				return new TravelCard(TravelCard.HSL_CARD_DATA_FAILURE);
+			}
+		}
+		data[HISTORY] = files[HISTORY] != null ? files[HISTORY] : new byte[0];
+
+		//Create Travelcard
+		TravelCard card = new TravelCard(data[0], data[1], data[2], data[3], data[4], data[HISTORY], version);
+		if (filesRead != ALL_FILES)
+			card.errorStatus = TravelCard.CARD_READ_FAILURE;
+		return card;
+	}
+
+	/**
+	 * Gets the files read from the current travel card.
+	 *
+	 * @return the file flags of TravelCard, for example {@code TravelCard.FILE_PERIOD_PASS}, of the files read
+	 */
+	public synchronized int getFilesRead() {
+		return filesRead;
+	}
+
+	/**
+	 * Gets the version of the current travel card.
+	 *
+	 * @return version code for card (1 or 2), 0 if the HSL application has not been selected
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Cancels the read in progress. No more commands are sent to the card, and the next command throws an InterruptedIOException.
+	 * A command already sent is not interrupted. A cancelled reader cannot be used again.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Tells if the reader has been cancelled.
+	 *
+	 * @return true after {@link #cancel()}
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Continues the next travel card read from the files of an earlier read that failed.
+	 * If the card still has the HSL application of the given version, only the files not read before are read.
+	 * The caller has to make sure that the files are from the same card, for example by its UID.
+	 *
+	 * @param previous the reader of the earlier read
+	 * @see ResumableCardReader
+	 */
+	synchronized void resume(CardReader previous)
+	{
+		synchronized (previous)
+		{
+			version = previous.version;
+			filesRead = previous.filesRead;
+			System.arraycopy(previous.files, 0, files, 0, FILE_COUNT);
+		}
+		resumed = version != 0;
+	}
+
+	/**
+	 * Starts a travel card read, forgetting the data of the previous card unless the read is resumed.
+	 *
+	 * @return the version of a resumed card, 0 if the read starts from the beginning
+	 */
+	private synchronized int startCard()
+	{
+		if (resumed)
+		{
+			resumed = false;
+			return version;
+		}
+		clearCard();
+		return 0;
+	}
+
+	/**
+	 * Forgets the data of the previous travel card.
+	 */
+	private synchronized void clearCard()
+	{
+		version = 0;
+		filesRead = 0;
+		Arrays.fill(files, null);
+	}
+
+	/**
+	 * Tells if a file has been read.
+	 *
+	 * @param file the index of the file
+	 * @return true if the data of the file has been read
+	 */
+	private synchronized boolean isRead(int file)
+	{
+		return (filesRead & (1 << file)) != 0;
+	}
+
+	/**
+	 * Stores the version of the selected card.
+	 *
+	 * @param version version code for card (1 or 2)
+	 */
+	private synchronized void selected(int version)
+	{
+		this.version = version;
+	}
+
+	/**
+	 * Stores the data of a file.
+	 *
+	 * @param file the index of the file
+	 * @param data the data read
+	 */
+	private synchronized void fileRead(int file, byte[] data)
+	{
+		files[file] = data;
+		filesRead |= 1 << file;
+	}
+
+	/**
+	 * Sends a command to the card unless the reader has been cancelled.
+	 *
+	 * @param card the card
+	 * @param step the metrics step of the command
+	 * @param command the command
+	 * @return the response
+	 * @throws IOException if the card did not answer or the reader has been cancelled
+	 */
+	private byte[] transceive(CardTransport card, int step, byte[] command) throws IOException
+	{
+		checkCancelled();
+		if (metrics == CardMetrics.NO_OP)
+			return card.transceive(command);
+
+		long start = System.nanoTime();
+		byte[] response;
+		try {
+			response = card.transceive(command);
+		}
+		catch (IOException e) {
+			metrics.exchange(step, System.nanoTime() - start, command.length, -1);
+			throw e;
+		}
+		metrics.exchange(step, System.nanoTime() - start, command.length, response.length);
+		return response;
+	}
+
+	/**
+	 * Reads four pages of a single ticket unless the reader has been cancelled.
+	 *
+	 * @param card the card
+	 * @param page the number of the first page
+	 * @return the data of the pages
+	 * @throws IOException if the card did not answer or the reader has been cancelled
+	 */
+	private byte[] readPages(PageTransport card, int page) throws IOException
+	{
+		checkCancelled();
+		if (metrics == CardMetrics.NO_OP)
+			return card.readPages(page);
+
+		long start = System.nanoTime();
+		byte[] response;
+		try {
+			response = card.readPages(page);
+		}
+		catch (IOException e) {
+			metrics.exchange(CardMetrics.READ_PAGES, System.nanoTime() - start, 2, -1);
+			throw e;
+		}
+		metrics.exchange(CardMetrics.READ_PAGES, System.nanoTime() - start, 2, response.length);
+		return response;
+	}
+
+	/**
+	 * Throws if the reader has been cancelled.
+	 *
+	 * @throws InterruptedIOException if the reader has been cancelled
+	 */
+	private void checkCancelled() throws InterruptedIOException
+	{
+		if (cancelled)
+			throw new InterruptedIOException("Card read cancelled");
+	}
+
+	/**
+	 * Transceive selected block from card data, returns true if reading is successful.
+	 * The response is kept for logging.
+	 * @param ISOCard Card to read from
+	 * @param step the metrics step of the command
+	 * @param command Command to try to transceive
+	 * @return boolean value if read was successful.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean checkSelection(CardTransport ISOCard, int step, byte[] command) throws IOException {
+		selection = transceive(ISOCard, step, command);
+		return Arrays.equals(selection, ok);
+	}
+
+	/**
+	 * Reads the single ticket card data from HSL single ticket card, see {@link CardOperations#readSingleCardData(MifareUltralight)}.
+	 *
+	 * @param ulCard the read single ticket as instance of android.nfc.tech.MifareUltralight
+	 * @return Instance of created SingleTicket class.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public SingleTicket readSingleTicket(MifareUltralight ulCard) throws IOException
+	{
+		//Ultralight C does not have FAST_READ
+		return readSingleTicket(new UltralightTransport(ulCard), fastRead && ulCard.getType() != MifareUltralight.TYPE_ULTRALIGHT_C);
+	}
+
+	/**
+	 * Reads the single ticket card data through a card transport, for example a {@link SimulatedCard}.
+	 *
+	 * @param ulCard the transport of the single ticket
+	 * @return Instance of created SingleTicket class.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public SingleTicket readSingleTicket(PageTransport ulCard) throws IOException
+	{
+		return readSingleTicket(ulCard, fastRead);
+	}
+
+	/**
+	 * Reads the single ticket card data.
+	 *
+	 * @param ulCard the transport of the single ticket
+	 * @param fastRead true to try reading all data with one FAST_READ command
+	 * @return Instance of created SingleTicket class.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private SingleTicket readSingleTicket(PageTransport ulCard, boolean fastRead) throws IOException
+	{
+		metrics = CardMetrics.getSink();
+		if (metrics == CardMetrics.NO_OP)
+			return readPageData(ulCard, fastRead);
+
+		long start = System.nanoTime();
+		try {
+			SingleTicket ticket = readPageData(ulCard, fastRead);
+			metrics.outcome(CardMetrics.OK_STATUS);
+			return ticket;
+		}
+		catch (IOException e) {
+			metrics.outcome(cancelled ? CardMetrics.CANCELLED : CardMetrics.IO_ERROR);
+			throw e;
+		}
+		finally {
+			metrics.phase(CardMetrics.READ_SINGLE_TICKET, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Reads the pages of the single ticket.
+	 *
+	 * @param ulCard the transport of the single ticket
+	 * @param fastRead true to try reading all data with one FAST_READ command
+	 * @return Instance of created SingleTicket class.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private SingleTicket readPageData(PageTransport ulCard, boolean fastRead) throws IOException
+	{
+		byte[] pages;
+
+		//Start the reading of ultralight card
+		MyLog.i("CardReader.readSingleTicket: start reading");
+
+		checkCancelled();
+		if (fastRead && fastReadPages(ulCard, pageData))
+		{
+			MyLog.d("CardReader.readSingleTicket: read bytes 0-{} with FAST_READ", pageData.length);
+		}
+		else
+		{
+			//Read 4 times (16 bytes at a time)
+			for (int i=0; i < 4; i++)
+			{
+				pages = readPages(ulCard, i*4);
+				System.arraycopy(pages, 0, pageData, i*16, pages.length);
+				MyLog.d("CardReader.readSingleTicket: read bytes {}-{}", i*16, i*16+pages.length);
+			}
+		}
+		//Get ApplicationInformation data from ultralight card's data
+		System.arraycopy(pageData, 0, appinfodata, 0, appinfodata.length);
+		//Get eTicket data from ultralight card's data
+		System.arraycopy(pageData, 23, eticketdata, 0, eticketdata.length);
+
+		//Create and return instance of new SingleTicket, it copies the data
+		if (metrics == CardMetrics.NO_OP)
+			return new SingleTicket(appinfodata, eticketdata);
+		long start = System.nanoTime();
+		SingleTicket ticket = new SingleTicket(appinfodata, eticketdata);
+		metrics.phase(CardMetrics.DECODE_SINGLE_TICKET, System.nanoTime() - start);
+		return ticket;
+	}
+
+	/**
+	 * Reads the single ticket data with one FAST_READ command.
+	 *
+	 * @param ulCard the single ticket
+	 * @param bytes array for the data of all pages
+	 * @return true if the data was read, false if the chip does not support FAST_READ
+	 * @throws IOException if the card could not be connected again
+	 */
+	private boolean fastReadPages(PageTransport ulCard, byte[] bytes) throws IOException
+	{
+		//the whole response must fit in one frame
+		if (ulCard.getMaxTransceiveLength() < bytes.length)
+			return false;
+
+		byte[] response;
+		try {
+			response = transceive(ulCard, CardMetrics.FAST_READ, new byte[] { FAST_READ, (byte)0, (byte)(SINGLE_TICKET_PAGES - 1) });
+		}
+		catch (InterruptedIOException e) {
+			//cancelled
+			throw e;
+		}
+		catch (IOException e) {
+			response = null;
+		}
+
+		if (response != null && response.length >= bytes.length)
+		{
+			System.arraycopy(response, 0, bytes, 0, bytes.length);
+			return true;
+		}
+
+		//the chip halts after a command it does not support, connect again for the page reads.
+		//If the card was lost, connecting fails and the exception is thrown
+		MyLog.d("CardReader.readSingleTicket: FAST_READ failed, reading pages");
+		ulCard.reconnect();
+		return false;
+	}
+}
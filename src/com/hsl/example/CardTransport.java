@@ -0,0 +1,62 @@
+/*
+ * CardTransport.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+
+/**
+ * The CardTransport interface is the connection to a card that {@link CardReader} sends its commands through.
+ * Travel cards are read through this interface, single tickets through {@link PageTransport}, which adds the page reads of Ultralight cards.
+ * <p>
+ * {@link IsoDepTransport} and {@link UltralightTransport} pass the commands to the Android NFC classes,
+ * {@link SimulatedCard} answers them from memory so that the reading can be run and measured without a device.
+ */
+public interface CardTransport
+{
+	/**
+	 * Sends a command to the card and returns the response.
+	 *
+	 * @param command the command bytes
+	 * @return the response bytes, including the status bytes of DESFire cards
+	 * @throws IOException if the card did not answer
+	 */
+	byte[] transceive(byte[] command) throws IOException;
+
+	/**
+	 * Gets the UID of the card.
+	 *
+	 * @return the UID, null if it is not known
+	 */
+	byte[] getId();
+
+	/**
+	 * Gets the longest command or response that fits in one exchange.
+	 *
+	 * @return the maximum length in bytes
+	 */
+	int getMaxTransceiveLength();
+
+	/**
+	 * Closes the connection to the card and connects again, for example after a command the card did not support.
+	 *
+	 * @throws IOException if the card could not be connected
+	 */
+	void reconnect() throws IOException;
+}
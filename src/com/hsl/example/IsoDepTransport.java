@@ -0,0 +1,73 @@
+/*
+ * IsoDepTransport.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+
+import android.nfc.tech.IsoDep;
+
+/**
+ * The IsoDepTransport class sends the commands of {@link CardReader} to a DESFire card through android.nfc.tech.IsoDep.
+ */
+public class IsoDepTransport implements CardTransport
+{
+	/** The card. */
+	private final IsoDep card;
+
+	/**
+	 * Instantiates a new transport.
+	 *
+	 * @param card the connected card
+	 */
+	public IsoDepTransport(IsoDep card)
+	{
+		this.card = card;
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		return card.transceive(command);
+	}
+
+	@Override
+	public byte[] getId() {
+		return card.getTag().getId();
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return card.getMaxTransceiveLength();
+	}
+
+	@Override
+	public void reconnect() throws IOException {
+		card.close();
+		card.connect();
+	}
+
+	/**
+	 * Gets the card.
+	 *
+	 * @return the IsoDep instance
+	 */
+	public IsoDep getCard() {
+		return card;
+	}
+}
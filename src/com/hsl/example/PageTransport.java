@@ -0,0 +1,38 @@
+/*
+ * PageTransport.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+
+/**
+ * The PageTransport interface is the connection to a Mifare Ultralight card, which is read in pages of four bytes.
+ * Single tickets are read through this interface.
+ */
+public interface PageTransport extends CardTransport
+{
+	/**
+	 * Reads four pages (16 bytes) of an Ultralight card.
+	 *
+	 * @param pageOffset the number of the first page
+	 * @return the 16 bytes of the pages
+	 * @throws IOException if the card did not answer
+	 */
+	byte[] readPages(int pageOffset) throws IOException;
+}
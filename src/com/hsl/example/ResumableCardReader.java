@@ -0,0 +1,215 @@
+/*
+ * ResumableCardReader.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.hsl.cardproducts.TravelCard;
+import com.hsl.util.Convert;
+import com.hsl.util.MyLog;
+
+import android.nfc.tech.IsoDep;
+
+/**
+ * The class ResumableCardReader continues travel card reads that failed when the card is tapped again.
+ * <p>
+ * When a read ends with an IOException, usually because the card was pulled away, the files read so far are kept by the UID of the card.
+ * If the same card is read again within the time window, the HSL application is selected again and only the files that are missing
+ * are read before the TravelCard is created. A card tapped again after the window, or not tapped again, is read from the beginning.
+ * <p>
+ * The files are assumed not to change between the taps, so the window should be short, a few seconds.
+ * Cards with random UIDs, four bytes starting with 0x08, are never resumed. The class is thread safe, one instance can serve several NFC readers.
+ */
+public class ResumableCardReader
+{
+	/** The default number of failed reads kept. */
+	private static final int DEFAULT_MAX_CARDS = 16;
+
+	/** The time window in nanoseconds. */
+	private final long windowNanos;
+	/** The maximum number of failed reads kept. */
+	private final int maxCards;
+	/** The failed reads by card UID, oldest first. */
+	private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<String, Session>();
+
+	//Statistics
+	/** The number of reads that continued a failed read. */
+	private long resumedReads;
+	/** The number of failed reads kept. */
+	private long savedReads;
+
+	/**
+	 * Instantiates a new reader keeping at most 16 failed reads.
+	 *
+	 * @param windowMillis the time in milliseconds a failed read can be continued
+	 */
+	public ResumableCardReader(long windowMillis)
+	{
+		this(windowMillis, DEFAULT_MAX_CARDS);
+	}
+
+	/**
+	 * Instantiates a new reader.
+	 *
+	 * @param windowMillis the time in milliseconds a failed read can be continued
+	 * @param maxCards the maximum number of failed reads kept, the oldest are dropped first
+	 */
+	public ResumableCardReader(long windowMillis, int maxCards)
+	{
+		if (maxCards < 1)
+			throw new IllegalArgumentException("Invalid number of cards " + maxCards);
+		this.windowNanos = windowMillis * 1000000L;
+		this.maxCards = maxCards;
+	}
+
+	/**
+	 * Reads the travel card data from HSL Mifare DESFire card, continuing a failed read of the same card.
+	 *
+	 * @param ISOCard as instance of read android.nfc.tech.IsoDep
+	 * @return Instance of created TravelCard class
+	 * @throws IOException Signals that an I/O exception has occurred, the files read are kept for the next tap.
+	 */
+	public TravelCard readTravelCard(IsoDep ISOCard) throws IOException
+	{
+		return readTravelCard(new IsoDepTransport(ISOCard));
+	}
+
+	/**
+	 * Reads the travel card data through a card transport, continuing a failed read of the same card.
+	 *
+	 * @param card the transport of the DESFire card
+	 * @return Instance of created TravelCard class
+	 * @throws IOException Signals that an I/O exception has occurred, the files read are kept for the next tap.
+	 */
+	public TravelCard readTravelCard(CardTransport card) throws IOException
+	{
+		byte[] id = card.getId();
+		String key = id != null && !isRandomId(id) ? Convert.getHexString(id) : null;
+		CardReader reader = new CardReader();
+
+		CardReader previous = key != null ? take(key) : null;
+		if (previous != null)
+			reader.resume(previous);
+
+		try {
+			return reader.readTravelCard(card);
+		}
+		catch (IOException e) {
+			//keep the files if the application was selected
+			if (key != null && reader.getVersion() != 0)
+				save(key, reader);
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks if a UID is a random ID, generated again by the card at every tap, so it does not identify the card.
+	 *
+	 * @param id the UID of the card
+	 * @return true for a random ID
+	 */
+	static boolean isRandomId(byte[] id)
+	{
+		return id.length == 4 && (id[0] & 0xFF) == 0x08;
+	}
+
+	/**
+	 * Removes the failed read of a card if it is still within the window.
+	 *
+	 * @param key the UID of the card
+	 * @return the reader of the failed read, null if there is none
+	 */
+	private synchronized CardReader take(String key)
+	{
+		Session session = sessions.remove(key);
+		if (session == null || System.nanoTime() - session.time > windowNanos)
+			return null;
+
+		resumedReads++;
+		MyLog.d("ResumableCardReader: resuming card {}", key);
+		return session.reader;
+	}
+
+	/**
+	 * Keeps a failed read.
+	 *
+	 * @param key the UID of the card
+	 * @param reader the reader of the failed read
+	 */
+	private synchronized void save(String key, CardReader reader)
+	{
+		long now = System.nanoTime();
+
+		//drop expired reads and the oldest ones over the limit
+		Iterator<Session> i = sessions.values().iterator();
+		while (i.hasNext())
+		{
+			Session session = i.next();
+			if (now - session.time > windowNanos || sessions.size() >= maxCards)
+				i.remove();
+			else
+				break;
+		}
+
+		sessions.put(key, new Session(reader, now));
+		savedReads++;
+	}
+
+	/**
+	 * Forgets all failed reads.
+	 */
+	public synchronized void clear()
+	{
+		sessions.clear();
+	}
+
+	/**
+	 * Gets the number of reads that continued a failed read.
+	 *
+	 * @return the number of resumed reads
+	 */
+	public synchronized long getResumedReads() { return resumedReads; }
+
+	/**
+	 * Gets the number of failed reads that were kept to be continued.
+	 *
+	 * @return the number of saved reads
+	 */
+	public synchronized long getSavedReads() { return savedReads; }
+
+	/**
+	 * The Session class holds a failed read.
+	 */
+	private static class Session
+	{
+		/** The reader holding the files read. */
+		final CardReader reader;
+		/** The time the read failed, from System.nanoTime(). */
+		final long time;
+
+		Session(CardReader reader, long time)
+		{
+			this.reader = reader;
+			this.time = time;
+		}
+	}
+}
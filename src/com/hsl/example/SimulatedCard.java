@@ -0,0 +1,459 @@
+/*
+ * SimulatedCard.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The SimulatedCard class is a card in memory that answers the commands of {@link CardReader} like a real card.
+ * <p>
+ * A DESFire travel card answers the select and the read commands of the HSL application.
+ * Responses longer than one frame end with the status 0x91AF, and the rest is read with the additional frame command.
+ * A single ticket answers {@code readPages} and the Ultralight READ and FAST_READ commands. After a command it does not support
+ * it stops answering until {@link #reconnect()}, like the chip.
+ * <p>
+ * A card can be removed after a given number of exchanges, after which it throws an IOException like a lost tag until it is tapped again.
+ * <p>
+ * Each command can be given a latency, so that the time of a read can be measured as on a reader. The latency is spent
+ * waiting, not computing, so simulated cards can be read in parallel. An interrupted wait throws an InterruptedIOException.
+ * The class is thread safe.
+ */
+public class SimulatedCard implements PageTransport
+{
+	/** The DESFire select application command. */
+	public static final int SELECT_APPLICATION = 0x5A;
+	/** The DESFire read data command. */
+	public static final int READ_DATA = 0xBD;
+	/** The DESFire read records command. */
+	public static final int READ_RECORDS = 0xBB;
+	/** The DESFire additional frame command. */
+	public static final int ADDITIONAL_FRAME = 0xAF;
+	/** The Ultralight READ command, also used by {@link #readPages(int)}. */
+	public static final int READ = 0x30;
+	/** The Ultralight FAST_READ command. */
+	public static final int FAST_READ = 0x3A;
+
+	/** The longest data in one DESFire response frame. */
+	public static final int FRAME_LENGTH = 59;
+	/** The number of the History file. */
+	public static final int HISTORY_FILE = 4;
+	/** The length of one record of the History file. */
+	public static final int HISTORY_RECORD_LENGTH = 12;
+
+	/** The longest command or response in one exchange. */
+	private static final int MAX_TRANSCEIVE_LENGTH = 253;
+	/** The serial number part of the UIDs of new cards. */
+	private static final AtomicLong serialNumbers = new AtomicLong(1);
+
+	//DESFire status codes
+	private static final int OPERATION_OK = 0x00;
+	private static final int ILLEGAL_COMMAND = 0x1C;
+	private static final int LENGTH_ERROR = 0x7E;
+	private static final int PERMISSION_DENIED = 0x9D;
+	private static final int APPLICATION_NOT_FOUND = 0xA0;
+	private static final int BOUNDARY_ERROR = 0xBE;
+	private static final int FILE_NOT_FOUND = 0xF0;
+
+	/** The id of the application, in the byte order of the select command, null for single tickets. */
+	private final byte[] applicationId;
+	/** The files of the application by file number. */
+	private final byte[][] files = new byte[32][];
+	/** The pages of a single ticket, null for travel cards. */
+	private final byte[] pages;
+	/** The UID. */
+	private byte[] id;
+
+	/** The latency of each command code in nanoseconds. */
+	private final long[] latencyNanos = new long[256];
+	/** True if the single ticket has FAST_READ. */
+	private boolean fastReadSupported = true;
+
+	/** True after the application has been selected. */
+	private boolean selected;
+	/** The response waiting for the additional frame command, null if none. */
+	private byte[] pending;
+	/** The offset of the next frame of the pending response. */
+	private int pendingOffset;
+	/** True after a single ticket has stopped answering. */
+	private boolean halted;
+	/** The number of exchanges with the card. */
+	private int exchanges;
+	/** The number of exchanges left before the card is removed, -1 if it is not removed. */
+	private int exchangesLeft = -1;
+
+	/**
+	 * Instantiates a new card.
+	 *
+	 * @param applicationId the application id, null for single tickets
+	 * @param pages the pages of a single ticket, null for travel cards
+	 */
+	private SimulatedCard(byte[] applicationId, byte[] pages)
+	{
+		this.applicationId = applicationId;
+		this.pages = pages;
+
+		//a unique seven byte UID
+		long serial = serialNumbers.getAndIncrement();
+		id = new byte[7];
+		id[0] = (byte)0x04;
+		for (int i = 1; i < id.length; i++)
+			id[i] = (byte)(serial >>> ((id.length - 1 - i) * 8));
+	}
+
+	/**
+	 * Creates an HSL travel card with the given file contents. The arrays are the file data without status bytes, they are copied.
+	 *
+	 * @param version version code for card (1 or 2)
+	 * @param appInfo data of the ApplicationInformation file
+	 * @param ctrlInfo data of the ControlInformation file
+	 * @param periodPass data of the PeriodPass file
+	 * @param storedValue data of the StoredValue file
+	 * @param eTicket data of the eTicket file
+	 * @param history data of the History file, whole records
+	 * @return the card
+	 */
+	public static SimulatedCard travelCard(int version, byte[] appInfo, byte[] ctrlInfo, byte[] periodPass, byte[] storedValue, byte[] eTicket, byte[] history)
+	{
+		byte[] aid = version == 2 ? new byte[] { (byte)0x14, (byte)0x20, (byte)0xEF } : new byte[] { (byte)0x11, (byte)0x20, (byte)0xEF };
+		SimulatedCard card = new SimulatedCard(aid, null);
+		card.setFile(8, appInfo);
+		card.setFile(0, ctrlInfo);
+		card.setFile(1, periodPass);
+		card.setFile(2, storedValue);
+		card.setFile(3, eTicket);
+		card.setFile(HISTORY_FILE, history);
+		return card;
+	}
+
+	/**
+	 * Creates a single ticket with the given memory.
+	 *
+	 * @param data the contents of the pages, at least 64 bytes, copied
+	 * @return the card
+	 */
+	public static SimulatedCard singleTicket(byte[] data)
+	{
+		if (data.length < 64 || data.length % 4 != 0)
+			throw new IllegalArgumentException("Invalid page data length " + data.length);
+		return new SimulatedCard(null, data.clone());
+	}
+
+	/**
+	 * Sets the contents of a file of a travel card.
+	 *
+	 * @param fileNumber the file number
+	 * @param data the file data, copied, null to remove the file
+	 */
+	public synchronized void setFile(int fileNumber, byte[] data)
+	{
+		files[fileNumber] = data != null ? data.clone() : null;
+	}
+
+	/**
+	 * Sets the latency of all commands.
+	 *
+	 * @param micros the latency in microseconds
+	 */
+	public synchronized void setLatency(long micros)
+	{
+		Arrays.fill(latencyNanos, micros * 1000);
+	}
+
+	/**
+	 * Sets the latency of one command.
+	 *
+	 * @param command the command code, for example {@link #READ_DATA} or {@link #READ}
+	 * @param micros the latency in microseconds
+	 */
+	public synchronized void setLatency(int command, long micros)
+	{
+		latencyNanos[command & 0xFF] = micros * 1000;
+	}
+
+	/**
+	 * Sets if the single ticket has the FAST_READ command, as Ultralight EV1 chips do.
+	 *
+	 * @param supported true if FAST_READ is answered
+	 */
+	public synchronized void setFastReadSupported(boolean supported)
+	{
+		fastReadSupported = supported;
+	}
+
+	/**
+	 * Sets the UID of the card. Every card has a unique UID by default.
+	 *
+	 * @param id the UID, copied
+	 */
+	public synchronized void setId(byte[] id)
+	{
+		this.id = id.clone();
+	}
+
+	/**
+	 * Removes the card after the given number of exchanges. After that every exchange, and {@link #reconnect()},
+	 * throws an IOException until {@link #tap()} is called.
+	 *
+	 * @param exchanges the number of exchanges the card still answers, 0 to remove it at once
+	 */
+	public synchronized void removeAfter(int exchanges)
+	{
+		exchangesLeft = exchanges;
+	}
+
+	/**
+	 * Taps the card again after it has been removed. The card is in the state after connecting, no application is selected.
+	 */
+	public synchronized void tap()
+	{
+		exchangesLeft = -1;
+		selected = false;
+		pending = null;
+		halted = false;
+	}
+
+	/**
+	 * Gets the number of exchanges with the card, including failed ones.
+	 *
+	 * @return the number of exchanges
+	 */
+	public synchronized int getExchangeCount() {
+		return exchanges;
+	}
+
+	@Override
+	public synchronized byte[] transceive(byte[] command) throws IOException
+	{
+		if (command.length == 0)
+			throw new IOException("Empty command");
+
+		if (pages != null)
+		{
+			exchange(command[0]);
+			return ultralight(command);
+		}
+
+		if ((command[0] & 0xFF) != 0x90 || command.length < 5)
+		{
+			exchange(0);
+			//class not supported
+			return new byte[] { (byte)0x6E, (byte)0x00 };
+		}
+		exchange(command[1]);
+		return desfire(command);
+	}
+
+	@Override
+	public synchronized byte[] readPages(int pageOffset) throws IOException
+	{
+		if (pages == null)
+			throw new IOException("Not an Ultralight card");
+		exchange(READ);
+		return ultralight(new byte[] { (byte)READ, (byte)pageOffset });
+	}
+
+	@Override
+	public synchronized byte[] getId() {
+		return id.clone();
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return MAX_TRANSCEIVE_LENGTH;
+	}
+
+	@Override
+	public synchronized void reconnect() throws IOException
+	{
+		if (exchangesLeft == 0)
+			throw new IOException("Tag was lost");
+		selected = false;
+		pending = null;
+		halted = false;
+	}
+
+	/**
+	 * Counts an exchange and waits for the latency of the command.
+	 *
+	 * @param command the command code
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 * @throws IOException if the card has been removed
+	 */
+	private void exchange(int command) throws IOException
+	{
+		exchanges++;
+		if (exchangesLeft == 0)
+			throw new IOException("Tag was lost");
+		if (exchangesLeft > 0)
+			exchangesLeft--;
+
+		long latency = latencyNanos[command & 0xFF];
+		if (latency <= 0)
+			return;
+
+		long end = System.nanoTime() + latency;
+		for (long left = latency; left > 0; left = end - System.nanoTime())
+		{
+			LockSupport.parkNanos(left);
+			if (Thread.interrupted())
+				throw new InterruptedIOException("Transceive interrupted");
+		}
+	}
+
+	/**
+	 * Answers a DESFire command.
+	 *
+	 * @param command the command in ISO 7816 wrapping
+	 * @return the response with the status bytes
+	 */
+	private byte[] desfire(byte[] command)
+	{
+		int code = command[1] & 0xFF;
+		if (code != ADDITIONAL_FRAME)
+			pending = null;
+
+		switch (code)
+		{
+			case SELECT_APPLICATION:
+				if (command.length < 8)
+					return status(LENGTH_ERROR);
+				//the application, or the card level with id 0
+				selected = Arrays.equals(Arrays.copyOfRange(command, 5, 8), applicationId);
+				if (selected || (command[5] | command[6] | command[7]) == 0)
+					return status(OPERATION_OK);
+				return status(APPLICATION_NOT_FOUND);
+
+			case READ_DATA:
+			case READ_RECORDS:
+				if (command.length < 12)
+					return status(LENGTH_ERROR);
+				if (!selected)
+					return status(PERMISSION_DENIED);
+
+				byte[] file = files[command[5] & 0x1F];
+				if (file == null)
+					return status(FILE_NOT_FOUND);
+
+				int unit = code == READ_RECORDS ? HISTORY_RECORD_LENGTH : 1;
+				int offset = littleEndian(command, 6) * unit;
+				int length = littleEndian(command, 9) * unit;
+				if (length == 0)
+					length = file.length - offset;
+				if (offset > file.length || length < 0 || offset + length > file.length)
+					return status(BOUNDARY_ERROR);
+
+				pending = Arrays.copyOfRange(file, offset, offset + length);
+				pendingOffset = 0;
+				return nextFrame();
+
+			case ADDITIONAL_FRAME:
+				if (pending == null)
+					return status(ILLEGAL_COMMAND);
+				return nextFrame();
+
+			default:
+				return status(ILLEGAL_COMMAND);
+		}
+	}
+
+	/**
+	 * Gets the next frame of the pending response.
+	 *
+	 * @return the frame with the status 0x9100, or 0x91AF if more frames follow
+	 */
+	private byte[] nextFrame()
+	{
+		int length = Math.min(FRAME_LENGTH, pending.length - pendingOffset);
+		byte[] response = new byte[length + 2];
+		System.arraycopy(pending, pendingOffset, response, 0, length);
+		pendingOffset += length;
+
+		response[length] = (byte)0x91;
+		if (pendingOffset < pending.length)
+			response[length + 1] = (byte)ADDITIONAL_FRAME;
+		else
+			pending = null;
+		return response;
+	}
+
+	/**
+	 * Answers an Ultralight command.
+	 *
+	 * @param command the command
+	 * @return the response
+	 * @throws IOException if the card does not answer, after which it is halted
+	 */
+	private byte[] ultralight(byte[] command) throws IOException
+	{
+		int pageCount = pages.length / 4;
+		int code = command[0] & 0xFF;
+
+		if (!halted)
+		{
+			if (code == READ && command.length >= 2 && (command[1] & 0xFF) < pageCount)
+			{
+				//the read wraps around to the first page
+				byte[] response = new byte[16];
+				int start = (command[1] & 0xFF) * 4;
+				for (int i = 0; i < response.length; i++)
+					response[i] = pages[(start + i) % pages.length];
+				return response;
+			}
+
+			if (code == FAST_READ && fastReadSupported && command.length >= 3)
+			{
+				int start = command[1] & 0xFF;
+				int end = command[2] & 0xFF;
+				if (start <= end && end < pageCount)
+					return Arrays.copyOfRange(pages, start * 4, (end + 1) * 4);
+			}
+		}
+
+		halted = true;
+		throw new IOException("Transceive failed");
+	}
+
+	/**
+	 * Makes a response of only the status bytes.
+	 *
+	 * @param status the DESFire status code
+	 * @return the response
+	 */
+	private static byte[] status(int status)
+	{
+		return new byte[] { (byte)0x91, (byte)status };
+	}
+
+	/**
+	 * Reads a three byte little endian number of a command.
+	 *
+	 * @param command the command
+	 * @param offset the offset of the number
+	 * @return the number
+	 */
+	private static int littleEndian(byte[] command, int offset)
+	{
+		return (command[offset] & 0xFF) | (command[offset + 1] & 0xFF) << 8 | (command[offset + 2] & 0xFF) << 16;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * UltralightTransport.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.example;
+
+import java.io.IOException;
+
+import android.nfc.tech.MifareUltralight;
+
+/**
+ * The UltralightTransport class sends the commands of {@link CardReader} to a single ticket through android.nfc.tech.MifareUltralight.
+ */
+public class UltralightTransport implements PageTransport
+{
+	/** The card. */
+	private final MifareUltralight card;
+
+	/**
+	 * Instantiates a new transport.
+	 *
+	 * @param card the connected card
+	 */
+	public UltralightTransport(MifareUltralight card)
+	{
+		this.card = card;
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		return card.transceive(command);
+	}
+
+	@Override
+	public byte[] readPages(int pageOffset) throws IOException {
+		return card.readPages(pageOffset);
+	}
+
+	@Override
+	public byte[] getId() {
+		return card.getTag().getId();
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return card.getMaxTransceiveLength();
+	}
+
+	@Override
+	public void reconnect() throws IOException {
+		card.close();
+		card.connect();
+	}
+
+	/**
+	 * Gets the card.
+	 *
+	 * @return the MifareUltralight instance
+	 */
+	public MifareUltralight getCard() {
+		return card;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * AndroidLogBackend.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.util;
+
+import android.util.Log;
+
+/**
+ * The AndroidLogBackend class writes the MyLog messages to android.util.Log.
+ * It is the only class of the library that refers to android.util.Log, and it is loaded only when that class is available.
+ */
+class AndroidLogBackend implements MyLog.Backend
+{
+	@Override
+	public boolean isEnabled(int level)
+	{
+		//android.util.Log writes all levels, the level of MyLog does the filtering
+		return true;
+	}
+
+	@Override
+	public void log(int level, String tag, String message)
+	{
+		switch (level)
+		{
+			case MyLog.ERROR:
+				Log.e(tag, message);
+				break;
+			case MyLog.INFO:
+				Log.i(tag, message);
+				break;
+			default:
+				Log.d(tag, message);
+				break;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * BitReader.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.util;
+
+/**
+ * The BitReader class reads big-endian bit fields from a byte array.
+ * <p>
+ * Only the bytes covered by the field are touched, so a field ending on the last byte of the buffer can be read.
+ * Reading a field does not allocate anything.
+ */
+public class BitReader
+{
+	/** AND masks for field lengths 0 - 32 bits. */
+	private static final long[] MASKS = new long[33];
+
+	static
+	{
+		for (int i = 0; i < MASKS.length; i++)
+			MASKS[i] = (1L << i) - 1L;
+	}
+
+	/**
+	 * Reads a big-endian bit field from the given buffer.
+	 *
+	 * @param buffer byte array to read from
+	 * @param bitOffset offset of the field
+	 * @param bitLength length of the field, 0 - 32 bits
+	 * @return the field value (fields of 32 bits are returned as the raw int bits)
+	 */
+	public static int read(byte[] buffer, int bitOffset, int bitLength)
+	{
+		if (bitLength == 0)
+			return 0;
+
+		int first = bitOffset >>> 3;
+		int end = bitOffset + bitLength;
+		int last = (end - 1) >>> 3;
+		long value = 0;
+
+		//collect the bytes covering the field (at most 5)
+		for (int i = first; i <= last; i++)
+			value = (value << 8) | (buffer[i] & 0xFF);
+
+		//shift to right and trim left with AND
+		return (int)((value >>> (((last + 1) << 3) - end)) & MASKS[bitLength]);
+	}
+}
@@ -34,4 +34,40 @@ public class Compare
 		return true;
 	}
 
+	/**
+	 * Compares ranges of two byte arrays.
+	 *
+	 * @param a the first array
+	 * @param aOffset offset of the range in the first array
+	 * @param b the second array
+	 * @param bOffset offset of the range in the second array
+	 * @param length length of the ranges
+	 * @return true if the ranges are equal
+	 */
+	public static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+	{
+		return mismatch(a, aOffset, b, bOffset, length) < 0;
+	}
+
+	/**
+	 * Finds the first difference between ranges of two byte arrays.
+	 *
+	 * @param a the first array
+	 * @param aOffset offset of the range in the first array
+	 * @param b the second array
+	 * @param bOffset offset of the range in the second array
+	 * @param length length of the ranges
+	 * @return index of the first differing byte relative to the range offsets, -1 if the ranges are equal
+	 */
+	public static int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (a[aOffset + i] != b[bOffset + i])
+				return i;
+		}
+
+		return -1;
+	}
+
 }
@@ -18,13 +18,9 @@
 
 package com.hsl.util;
 
-import java.util.Calendar;
 import java.util.Date;
-import java.nio.ByteBuffer;
 import java.util.Locale;
 
-import com.hsl.util.MyLog;
-
 /**
  * The Convert class contains conversion utilities for hex string and date conversions from the ticket data.
  */
@@ -37,6 +33,19 @@ public class Convert
 	public static long dayInMs = 86400000L;
 	/** The length of one minute in milliseconds. */
 	public static long minuteInMs = 60000L;
+	/** The value of millisecond date fields that have no date. */
+	public static final long NO_DATE = Long.MIN_VALUE;
+
+	/** The hex digits for encoding. */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	/** The values of the hex digits for decoding, indexed by character, -1 for characters that are not hex digits. */
+	private static final byte[] HEX_VALUES = new byte[128];
+
+	static
+	{
+		for (int i = 0; i < HEX_VALUES.length; i++)
+			HEX_VALUES[i] = (byte) Character.digit((char) i, 16);
+	}
 
 	/**
 	 * Gets the hex string.
@@ -46,33 +55,196 @@ public class Convert
 	 */
 	public static String getHexString(byte[] b) //throws Exception
 	{
-		String result = "";
+		return getHexString(b, 0, b.length);
+	}
 
-		for (int i=0; i < b.length; i++)
+	/**
+	 * Gets the hex string of a part of a byte array.
+	 *
+	 * @param b the Byte buffer to convert
+	 * @param offset offset of the first byte to convert
+	 * @param length number of bytes to convert
+	 * @return String representing the hex values of the given bytes
+	 */
+	public static String getHexString(byte[] b, int offset, int length)
+	{
+		char[] chars = new char[length * 2];
+		encodeHex(b, offset, length, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the hex digits of a part of a byte array to a char array.
+	 *
+	 * @param b the Byte buffer to convert
+	 * @param offset offset of the first byte to convert
+	 * @param length number of bytes to convert
+	 * @param out the char array to write to
+	 * @param outOffset offset of the first char to write
+	 * @return the number of chars written
+	 */
+	public static int encodeHex(byte[] b, int offset, int length, char[] out, int outOffset)
+	{
+		for (int i = 0; i < length; i++)
 		{
-			result += Integer.toString( ( b[i] & 0xff ) + 0x100, 16).substring( 1 );
+			int v = b[offset + i] & 0xFF;
+			out[outOffset++] = HEX_DIGITS[v >>> 4];
+			out[outOffset++] = HEX_DIGITS[v & 0x0F];
 		}
+		return length * 2;
+	}
 
-		return result;
+	/**
+	 * Appends the hex digits of a part of a byte array to a StringBuilder.
+	 *
+	 * @param sb the StringBuilder to append to
+	 * @param b the Byte buffer to convert
+	 * @param offset offset of the first byte to convert
+	 * @param length number of bytes to convert
+	 * @return the given StringBuilder
+	 */
+	public static StringBuilder appendHex(StringBuilder sb, byte[] b, int offset, int length)
+	{
+		sb.ensureCapacity(sb.length() + length * 2);
+		for (int i = 0; i < length; i++)
+		{
+			int v = b[offset + i] & 0xFF;
+			sb.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0x0F]);
+		}
+		return sb;
 	}
 
 	/**
 	 * Gets byte array.
 	 * @param s the String buffer to convert
 	 * @return Byte array representing the hex values of given string.
+	 * @throws IllegalArgumentException if the length is odd or the string contains other characters than hex digits
 	 */
 	public static byte[] hexStringToByteArray(String s)
 	{
 		int len = s.length();
+		if ((len & 1) != 0)
+			throw new IllegalArgumentException("Odd number of hex digits: " + len);
+
 		byte[] data = new byte[len / 2];
+		decodeHex(s, 0, len, data, 0);
+		return data;
+	}
+
+	/**
+	 * Decodes hex digits from a CharSequence (String, StringBuilder etc.) to a byte array.
+	 *
+	 * @param s the characters to decode
+	 * @param offset offset of the first hex digit
+	 * @param length number of hex digits to decode, an even number
+	 * @param out the byte array to write to
+	 * @param outOffset offset of the first byte to write
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException if the length is odd or a character is not a hex digit
+	 */
+	public static int decodeHex(CharSequence s, int offset, int length, byte[] out, int outOffset)
+	{
+		if ((length & 1) != 0)
+			throw new IllegalArgumentException("Odd number of hex digits: " + length);
 
-		for (int i = 0; i < len; i += 2)
+		int count = length / 2;
+		for (int i = 0; i < count; i++)
 		{
-			data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-					+ Character.digit(s.charAt(i+1), 16));
+			int c = offset + i * 2;
+			out[outOffset + i] = (byte) ((hexValue(s.charAt(c), c) << 4) | hexValue(s.charAt(c + 1), c + 1));
 		}
+		return count;
+	}
 
-		return data;
+	/**
+	 * Decodes hex digits from a char array to a byte array.
+	 *
+	 * @param chars the characters to decode
+	 * @param offset offset of the first hex digit
+	 * @param length number of hex digits to decode, an even number
+	 * @param out the byte array to write to
+	 * @param outOffset offset of the first byte to write
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException if the length is odd or a character is not a hex digit
+	 */
+	public static int decodeHex(char[] chars, int offset, int length, byte[] out, int outOffset)
+	{
+		if ((length & 1) != 0)
+			throw new IllegalArgumentException("Odd number of hex digits: " + length);
+
+		int count = length / 2;
+		for (int i = 0; i < count; i++)
+		{
+			int c = offset + i * 2;
+			out[outOffset + i] = (byte) ((hexValue(chars[c], c) << 4) | hexValue(chars[c + 1], c + 1));
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes a sequence of fixed length hex records, for example a dump with one card file per line, to a byte array.
+	 * <p>
+	 * Each record is {@code 2 * recordLength} hex digits. Whitespace and commas between the records are skipped.
+	 * The records are written one after another to the output array.
+	 *
+	 * @param s the characters to decode
+	 * @param offset offset of the first character
+	 * @param end offset after the last character
+	 * @param recordLength length of one record in bytes
+	 * @param out the byte array to write to
+	 * @param outOffset offset of the first byte to write
+	 * @param maxRecords maximum number of records to decode
+	 * @return the number of records decoded
+	 * @throws IllegalArgumentException if a record is incomplete or contains other characters than hex digits
+	 */
+	public static int decodeHexRecords(CharSequence s, int offset, int end, int recordLength, byte[] out, int outOffset, int maxRecords)
+	{
+		int records = 0;
+		int pos = offset;
+		int digits = recordLength * 2;
+
+		while (records < maxRecords)
+		{
+			//skip separators
+			while (pos < end && isRecordSeparator(s.charAt(pos)))
+				pos++;
+			if (pos >= end)
+				break;
+			if (end - pos < digits)
+				throw new IllegalArgumentException("Incomplete hex record at " + pos);
+
+			decodeHex(s, pos, digits, out, outOffset + records * recordLength);
+			pos += digits;
+			records++;
+		}
+		return records;
+	}
+
+	/**
+	 * Tells if the character may separate hex records.
+	 *
+	 * @param c the character
+	 * @return true for whitespace and commas
+	 */
+	private static boolean isRecordSeparator(char c)
+	{
+		return c == ',' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	/**
+	 * Gets the value of a hex digit.
+	 *
+	 * @param c the character
+	 * @param index index of the character for the error message
+	 * @return the value 0 - 15
+	 * @throws IllegalArgumentException if the character is not a hex digit
+	 */
+	private static int hexValue(char c, int index)
+	{
+		int v = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+		if (v < 0)
+			throw new IllegalArgumentException("Invalid hex digit '" + c + "' at " + index);
+		return v;
 	}
 
 	/**
@@ -83,12 +255,19 @@ public class Convert
 	 */
 	public static Date en5145Date2JavaDate(int date)
 	{
-		Calendar cal = Calendar.getInstance();
-		int utcOffset = cal.getTimeZone().getOffset(((long)date * dayInMs) + en1545zeroDate );
-		MyLog.d("UTC offset: "+ utcOffset);
-		Date utcDate = new Date( ((long)date * dayInMs) + en1545zeroDate - (long)utcOffset);
+		return en5145Date2JavaDate(date, ZoneOffsetTable.getDefault());
+	}
 
-		return utcDate;
+	/**
+	 * En5145 date to java Date conversion in the given time zone.
+	 *
+	 * @param date the date in the en5145 format (number of days since 1.1.1997)
+	 * @param zone the offset table of the time zone
+	 * @return the date in java Date format
+	 */
+	public static Date en5145Date2JavaDate(int date, ZoneOffsetTable zone)
+	{
+		return new Date(zone.toMillis(date, 0));
 	}
 
 	/**
@@ -112,12 +291,32 @@ public class Convert
 	 */
 	public static Date en5145DateAndTime2JavaDate(int date, int time)
 	{
-		Calendar cal = Calendar.getInstance();
-		int utcOffset = cal.getTimeZone().getOffset(((long)date * dayInMs) + en1545zeroDate + ((long)time * minuteInMs));
-		MyLog.d("UTC offset: "+ utcOffset);
-		Date utcDate = new Date( ((long)date * dayInMs) + en1545zeroDate + ((long)time * minuteInMs) - (long)utcOffset);
+		return en5145DateAndTime2JavaDate(date, time, ZoneOffsetTable.getDefault());
+	}
 
-		return utcDate;
+	/**
+	 * En5145 date and time to java Date conversion in the given time zone.
+	 *
+	 * @param date the date in the en5145 format (number of days since 1.1.1997)
+	 * @param time the time in en1545 format (number of minutes since 00:00)
+	 * @param zone the offset table of the time zone
+	 * @return the date  (with time) in java Date format
+	 */
+	public static Date en5145DateAndTime2JavaDate(int date, int time, ZoneOffsetTable zone)
+	{
+		return new Date(zone.toMillis(date, time));
+	}
+
+	/**
+	 * Millisecond time to java Date conversion.
+	 * A new Date is returned on every call, so the caller may modify it.
+	 *
+	 * @param millis the time in milliseconds since 1.1.1970, or {@link #NO_DATE}
+	 * @return the date in java Date format, null for {@link #NO_DATE}
+	 */
+	public static Date millis2JavaDate(long millis)
+	{
+		return millis == NO_DATE ? null : new Date(millis);
 	}
 
 	/**
@@ -129,26 +328,11 @@ public class Convert
 	 */
 	public static int getByteValue(byte[] buffer, int bitOffset, int bitLength)
 	{
-		int byteOffset = bitOffset/8;
-		int bitStart = bitOffset % 8;
-		int andValue = 0, shortValue;
-		int returnValue;
-
 		//cut oversized
 		if (bitLength > 8)
 			bitLength = 8;
 
-		//get buffer
-		shortValue = ByteBuffer.wrap(buffer, byteOffset, 2).getShort();
-
-		//create AND value
-		for (int i=0; i < bitLength; i++)
-			andValue = (andValue << 1) + 1;
-
-		//shift to right and trim left with AND
-		returnValue = (shortValue >> (16-bitStart-bitLength)) & andValue;
-
-		return returnValue;
+		return BitReader.read(buffer, bitOffset, bitLength);
 	}
 
 	/**
@@ -160,26 +344,11 @@ public class Convert
 	 */
 	public static int getShortValue(byte[] buffer, int bitOffset, int bitLength)
 	{
-		int byteOffset = bitOffset/8;
-		int bitStart = bitOffset % 8;
-		int andValue = 0, intValue;
-		int returnValue;
-
 		//cut oversized
 		if (bitLength > 16)
 			bitLength = 16;
 
-		//get buffer
-		intValue = ByteBuffer.wrap(buffer, byteOffset, 4).getInt();
-
-		//create AND value
-		for (int i=0; i < bitLength; i++)
-			andValue = (andValue << 1) +1;
-
-		//shift to right and trim left with AND
-		returnValue =  (intValue >> (32-bitStart-bitLength)) & andValue;
-
-		return returnValue;
+		return BitReader.read(buffer, bitOffset, bitLength);
 	}
 
 	/**
@@ -191,25 +360,11 @@ public class Convert
 	 */
 	public static int getIntValue(byte[] buffer, int bitOffset, int bitLength)
 	{
-		int byteOffset = bitOffset/8;
-		int bitStart = bitOffset % 8;
-		int andValue = 0, intValue, returnValue;
-
 		//cut oversized
 		if (bitLength > 25)
 			bitLength = 25;
 
-		//get buffer
-		intValue = ByteBuffer.wrap(buffer, byteOffset, 4).getInt();
-
-		//create AND value
-		for (int i=0; i < bitLength; i++)
-			andValue = (andValue << 1) +1;
-
-		//shift to right and trim left with AND
-		returnValue = (intValue >> (32-bitStart-bitLength)) & andValue;
-
-		return returnValue;
+		return BitReader.read(buffer, bitOffset, bitLength);
 	}
 
 	/**
@@ -0,0 +1,344 @@
+/*
+ * FileLayout.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The FileLayout class describes the bit fields of one card file.
+ * <p>
+ * Each field is described once with a slot number, name, bit offset, bit length and type.
+ * When the layout is built the fields are compiled into flat tables of byte index, byte count, shift and mask,
+ * and {@link #decode(byte[], int, int[])} extracts all fields of a file with a single loop over those tables.
+ * <p>
+ * Layouts of different versions of the same file use the same slot numbers, so the decoded values can be read the same way for every card version.
+ * A slot that has no field in a version is decoded as zero.
+ */
+public class FileLayout
+{
+	/** Field type for plain unsigned numbers. */
+	public static final int TYPE_NUMBER = 0;
+	/** Field type for en1545 dates (number of days since 1.1.1997). */
+	public static final int TYPE_DATE = 1;
+	/** Field type for en1545 times (number of minutes since 00:00). */
+	public static final int TYPE_TIME = 2;
+
+	/** The longest supported field, so that every field fits in a window of four bytes. */
+	public static final int MAX_FIELD_LENGTH = 25;
+
+	/** The name of the file. */
+	private final String name;
+	/** The length of the file in bytes. */
+	private final int length;
+
+	//Field descriptions
+	/** The field names, null for slots without a field. */
+	private final String[] fieldNames;
+	/** The field bit offsets. */
+	private final int[] bitOffsets;
+	/** The field bit lengths, 0 for slots without a field. */
+	private final int[] bitLengths;
+	/** The field types. */
+	private final int[] types;
+
+	//Compiled tables
+	/** The index of the first byte of each field. */
+	private final int[] byteIndex;
+	/** The number of bytes covered by each field. */
+	private final int[] byteCount;
+	/** The right shift of each field after the bytes have been collected. */
+	private final int[] shift;
+	/** The AND mask of each field. */
+	private final int[] mask;
+
+	/**
+	 * Instantiates a new layout from the builder's field descriptions.
+	 *
+	 * @param builder the builder holding the field descriptions
+	 */
+	private FileLayout(Builder builder)
+	{
+		int count = builder.bitLengths.length;
+
+		name = builder.name;
+		length = builder.length;
+		fieldNames = builder.fieldNames.clone();
+		bitOffsets = builder.bitOffsets.clone();
+		bitLengths = builder.bitLengths.clone();
+		types = builder.types.clone();
+
+		byteIndex = new int[count];
+		byteCount = new int[count];
+		shift = new int[count];
+		mask = new int[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			if (bitLengths[i] == 0)
+				continue;
+
+			int end = bitOffsets[i] + bitLengths[i];
+			byteIndex[i] = bitOffsets[i] >>> 3;
+			byteCount[i] = ((end - 1) >>> 3) - byteIndex[i] + 1;
+			shift[i] = (byteCount[i] << 3) - (end - (byteIndex[i] << 3));
+			mask[i] = (1 << bitLengths[i]) - 1;
+		}
+	}
+
+	/**
+	 * Extracts all fields of the file to the given array.
+	 *
+	 * @param data byte array containing the file data
+	 * @param offset offset of the file in the byte array
+	 * @param values array for the field values, indexed by slot number
+	 */
+	public void decode(byte[] data, int offset, int[] values)
+	{
+		for (int i = 0; i < mask.length; i++)
+		{
+			int index = offset + byteIndex[i];
+			int count = byteCount[i];
+			int value = 0;
+
+			for (int b = 0; b < count; b++)
+				value = (value << 8) | (data[index + b] & 0xFF);
+
+			values[i] = (value >>> shift[i]) & mask[i];
+		}
+	}
+
+	/**
+	 * Extracts one field of the file.
+	 *
+	 * @param slot slot number of the field
+	 * @param data byte array containing the file data
+	 * @param offset offset of the file in the byte array
+	 * @return the field value
+	 */
+	public int read(int slot, byte[] data, int offset)
+	{
+		int index = offset + byteIndex[slot];
+		int count = byteCount[slot];
+		int value = 0;
+
+		for (int b = 0; b < count; b++)
+			value = (value << 8) | (data[index + b] & 0xFF);
+
+		return (value >>> shift[slot]) & mask[slot];
+	}
+
+	/**
+	 * Extracts one field of the file from a ByteBuffer with absolute reads.
+	 * Works with heap, direct and memory-mapped buffers, the position and limit of the buffer are not changed.
+	 *
+	 * @param slot slot number of the field
+	 * @param data buffer containing the file data
+	 * @param offset offset of the file in the buffer
+	 * @return the field value
+	 */
+	public int read(int slot, ByteBuffer data, int offset)
+	{
+		int index = offset + byteIndex[slot];
+		int count = byteCount[slot];
+		int value = 0;
+
+		for (int b = 0; b < count; b++)
+			value = (value << 8) | (data.get(index + b) & 0xFF);
+
+		return (value >>> shift[slot]) & mask[slot];
+	}
+
+	/**
+	 * Writes all fields of the file from the given array, the reverse of {@link #decode(byte[], int, int[])}.
+	 * Bits that do not belong to any field, such as seals, are not changed. Values are truncated to the field lengths.
+	 *
+	 * @param values the field values, indexed by slot number
+	 * @param data byte array for the file data
+	 * @param offset offset of the file in the byte array
+	 */
+	public void encode(int[] values, byte[] data, int offset)
+	{
+		for (int i = 0; i < mask.length; i++)
+		{
+			if (bitLengths[i] == 0)
+				continue;
+
+			int index = offset + byteIndex[i];
+			int count = byteCount[i];
+			//the field and its value within the window of bytes, which can be 32 bits long
+			long fieldMask = ((long) mask[i]) << shift[i];
+			long value = ((long) (values[i] & mask[i])) << shift[i];
+
+			for (int b = 0; b < count; b++)
+			{
+				int bits = (count - 1 - b) << 3;
+				int m = (int) (fieldMask >>> bits) & 0xFF;
+				data[index + b] = (byte) ((data[index + b] & ~m) | ((int) (value >>> bits) & m));
+			}
+		}
+	}
+
+	/**
+	 * Gets the name of the file.
+	 *
+	 * @return the file name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the length of the file.
+	 *
+	 * @return the file length in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Gets the number of slots in the layout.
+	 *
+	 * @return the number of slots
+	 */
+	public int getFieldCount() {
+		return bitLengths.length;
+	}
+
+	/**
+	 * Tells if the layout has a field in the given slot.
+	 *
+	 * @param slot slot number
+	 * @return true if the slot has a field in this layout
+	 */
+	public boolean hasField(int slot) {
+		return bitLengths[slot] > 0;
+	}
+
+	/**
+	 * Gets the field name.
+	 *
+	 * @param slot slot number
+	 * @return the field name, null if the slot has no field
+	 */
+	public String getFieldName(int slot) {
+		return fieldNames[slot];
+	}
+
+	/**
+	 * Gets the field bit offset.
+	 *
+	 * @param slot slot number
+	 * @return the bit offset of the field
+	 */
+	public int getBitOffset(int slot) {
+		return bitOffsets[slot];
+	}
+
+	/**
+	 * Gets the field bit length.
+	 *
+	 * @param slot slot number
+	 * @return the bit length of the field, 0 if the slot has no field
+	 */
+	public int getBitLength(int slot) {
+		return bitLengths[slot];
+	}
+
+	/**
+	 * Gets the field type.
+	 *
+	 * @param slot slot number
+	 * @return the field type, one of {@code TYPE_NUMBER, TYPE_DATE, TYPE_TIME}
+	 */
+	public int getType(int slot) {
+		return types[slot];
+	}
+
+	/**
+	 * The Builder class collects the field descriptions of a file layout.
+	 */
+	public static class Builder
+	{
+		/** The name of the file. */
+		private final String name;
+		/** The length of the file in bytes. */
+		private final int length;
+		/** The field names. */
+		private final String[] fieldNames;
+		/** The field bit offsets. */
+		private final int[] bitOffsets;
+		/** The field bit lengths. */
+		private final int[] bitLengths;
+		/** The field types. */
+		private final int[] types;
+
+		/**
+		 * Instantiates a new layout builder.
+		 *
+		 * @param name the name of the file
+		 * @param length the length of the file in bytes
+		 * @param slotCount the number of slots shared by all versions of the file
+		 */
+		public Builder(String name, int length, int slotCount)
+		{
+			this.name = name;
+			this.length = length;
+			fieldNames = new String[slotCount];
+			bitOffsets = new int[slotCount];
+			bitLengths = new int[slotCount];
+			types = new int[slotCount];
+		}
+
+		/**
+		 * Adds a field to the layout.
+		 *
+		 * @param slot slot number of the field
+		 * @param fieldName name of the field
+		 * @param bitOffset offset of the field from the beginning of the file
+		 * @param bitLength length of the field, 1 - {@link #MAX_FIELD_LENGTH} bits
+		 * @param type one of {@code TYPE_NUMBER, TYPE_DATE, TYPE_TIME}
+		 * @return this builder
+		 * @throws IllegalArgumentException if the field does not fit in the file or the slot is already in use
+		 */
+		public Builder field(int slot, String fieldName, int bitOffset, int bitLength, int type)
+		{
+			if (bitLength < 1 || bitLength > MAX_FIELD_LENGTH || bitOffset < 0 || bitOffset + bitLength > length * 8)
+				throw new IllegalArgumentException(name + "." + fieldName + ": invalid field " + bitOffset + "/" + bitLength);
+			if (bitLengths[slot] != 0)
+				throw new IllegalArgumentException(name + "." + fieldName + ": slot " + slot + " already used by " + fieldNames[slot]);
+
+			fieldNames[slot] = fieldName;
+			bitOffsets[slot] = bitOffset;
+			bitLengths[slot] = bitLength;
+			types[slot] = type;
+			return this;
+		}
+
+		/**
+		 * Compiles the field descriptions into a layout.
+		 *
+		 * @return the file layout
+		 */
+		public FileLayout build()
+		{
+			return new FileLayout(this);
+		}
+	}
+}
@@ -153,12 +153,7 @@ public class HSLDomicileMappings {
         }
         else if (type == 2) {
             // 12.4.2019 - New zones addition
-            int zoneFrom = bitExtracted(code, 3, 4);
-            int zoneTo = bitExtracted(code, 3, 1);
-            domicile = "";
-            for (int i = zoneFrom; i < (zoneTo+1); i++) {
-                domicile += codes2.get(i);
-            }
+            domicile = ZoneMask.toZoneString(ZoneMask.forArea(ZoneMask.TYPE_ZONES, code));
         }
         else {
             domicile = "ERROR";
@@ -227,16 +222,8 @@ public class HSLDomicileMappings {
      * @return string for new zone domicile.
      **/
     public static String getArcDomicile(int code) {
-        switch (code) {
-            case 1: return "AB";    // Helsinki
-            case 2: return "BC";    // Espoo
-            case 4: return "BC";    // Vantaa
-            case 5: return "ABC";   // Seutu
-            case 6: return "D";     // Knummi-Siuntio
-            case 9: return "D";     // Kerava-Sipoo-Tuusula
-            case 14: return "BCD";  // Lähiseutu
-            case 15: return "ABCD"; // Lähiseutu3
-            default: return null;
-        }
+        // the mappings are in ZoneMask
+        int mask = ZoneMask.forArea(ZoneMask.TYPE_MUNICIPALITY, code);
+        return mask != 0 ? ZoneMask.toZoneString(mask) : null;
     }
 }
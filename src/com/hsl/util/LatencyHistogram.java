@@ -0,0 +1,195 @@
+/*
+ * LatencyHistogram.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class counts durations in log-linear buckets, in the manner of an HDR histogram.
+ * <p>
+ * Values below 64 have a bucket each. Above that every power of two is divided into 32 buckets, so a value is known within about 3 %
+ * of its size. The buckets cover values up to 2^41, for nanoseconds about 36 minutes, larger values are counted in the last bucket.
+ * Recording a value is a few shifts and an atomic increment, it creates no objects.
+ * <p>
+ * The class is thread safe. Percentiles read while values are recorded may not include the newest values.
+ */
+public class LatencyHistogram
+{
+	/** The number of buckets of each power of two, as a power of two. */
+	private static final int SUB_BUCKET_BITS = 5;
+	/** The number of buckets of each power of two. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** The values below this have a bucket each. */
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+	/** The highest power of two with buckets. */
+	private static final int MAX_EXPONENT = 40;
+	/** The number of buckets. */
+	private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/** The counts of the buckets. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/** The number of values. */
+	private final AtomicLong count = new AtomicLong();
+	/** The sum of the values. */
+	private final AtomicLong sum = new AtomicLong();
+	/** The largest value. */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value the value, negative values are counted as 0
+	 */
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value))
+			current = max.get();
+	}
+
+	/**
+	 * Gets the number of values.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the largest value.
+	 *
+	 * @return the maximum, 0 if there are no values
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the average of the values.
+	 *
+	 * @return the mean, 0 if there are no values
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n > 0 ? (double) sum.get() / n : 0;
+	}
+
+	/**
+	 * Gets the value at a percentile, the highest value of its bucket but at most the largest value.
+	 *
+	 * @param percentile the percentile, 0 - 100
+	 * @return the value, 0 if there are no values
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * total);
+		if (rank < 1)
+			rank = 1;
+
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(highestValue(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Formats the count and the main percentiles of durations in nanoseconds.
+	 *
+	 * @return for example "n=120 p50=2.10ms p90=3.05ms p99=4.20ms max=5.00ms"
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.ENGLISH, "n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", getCount(),
+				getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6, getValueAtPercentile(99) / 1e6, getMax() / 1e6);
+	}
+
+	/**
+	 * Gets the bucket of a value.
+	 *
+	 * @param value the value, not negative
+	 * @return the index of the bucket
+	 */
+	static int bucket(long value)
+	{
+		if (value < LINEAR_LIMIT)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		//the top bits of the value are SUB_BUCKETS - 2 * SUB_BUCKETS - 1
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Gets the highest value of a bucket.
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the highest value counted in the bucket
+	 */
+	static long highestValue(int bucket)
+	{
+		if (bucket < LINEAR_LIMIT)
+			return bucket;
+		if (bucket == BUCKETS - 1)
+			return Long.MAX_VALUE;
+
+		int index = bucket - LINEAR_LIMIT;
+		int shift = index / SUB_BUCKETS + 1;
+		long top = SUB_BUCKETS + index % SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+}
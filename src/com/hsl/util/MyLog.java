@@ -18,23 +18,246 @@
 
 package com.hsl.util;
 
-import android.util.Log;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 
 /*
  * Logger class
+ *
+ * Messages are passed to a pluggable backend. On Android the default backend writes to android.util.Log,
+ * elsewhere nothing is logged unless a backend is set with setBackend(). An SLF4J or other logger can be
+ * plugged in by implementing Backend.
+ *
+ * Messages below the level set with setLevel() are dropped before they are formatted.
+ * The parameterized variants replace each {} in the message with the next argument only when the level is enabled,
+ * so callers should prefer them to concatenating strings.
+ * The variants taking a Throwable append its stack trace to the message.
  */
-public class MyLog 
+public class MyLog
 {
+	/** The debug level, same value as android.util.Log.DEBUG. */
+	public static final int DEBUG = 3;
+	/** The info level, same value as android.util.Log.INFO. */
+	public static final int INFO = 4;
+	/** The error level, same value as android.util.Log.ERROR. */
+	public static final int ERROR = 6;
+	/** The level that disables all logging. */
+	public static final int OFF = Integer.MAX_VALUE;
+
+	/** The tag of the library's log messages. */
+	public static final String TAG = "CardLib";
+
+	/**
+	 * The Backend interface writes the log messages.
+	 */
+	public interface Backend
+	{
+		/**
+		 * Tells if messages of the given level are written.
+		 *
+		 * @param level one of {@code DEBUG, INFO, ERROR}
+		 * @return true if the level is enabled
+		 */
+		boolean isEnabled(int level);
+
+		/**
+		 * Writes a message.
+		 *
+		 * @param level one of {@code DEBUG, INFO, ERROR}
+		 * @param tag the tag of the message
+		 * @param message the message
+		 */
+		void log(int level, String tag, String message);
+	}
+
+	/** The backend that drops all messages. */
+	public static final Backend NO_OP = new Backend() {
+		@Override
+		public boolean isEnabled(int level) {
+			return false;
+		}
+
+		@Override
+		public void log(int level, String tag, String message) {
+		}
+	};
+
+	/** The current backend. */
+	private static volatile Backend backend = defaultBackend();
+	/** The lowest level that is logged. */
+	private static volatile int level = DEBUG;
+
+	/**
+	 * Selects the Android backend if android.util.Log is available and the no-op backend otherwise.
+	 *
+	 * @return the default backend
+	 */
+	private static Backend defaultBackend()
+	{
+		try {
+			Class.forName("android.util.Log");
+			return new AndroidLogBackend();
+		}
+		catch (ClassNotFoundException e) {
+			return NO_OP;
+		}
+		catch (LinkageError e) {
+			return NO_OP;
+		}
+	}
+
+	/**
+	 * Sets the backend. Null selects the no-op backend.
+	 *
+	 * @param newBackend the backend to write the messages with
+	 */
+	public static void setBackend(Backend newBackend)
+	{
+		backend = newBackend != null ? newBackend : NO_OP;
+	}
+
+	/**
+	 * Gets the backend.
+	 *
+	 * @return the current backend
+	 */
+	public static Backend getBackend()
+	{
+		return backend;
+	}
+
+	/**
+	 * Sets the lowest level that is logged, {@code DEBUG} by default.
+	 *
+	 * @param newLevel one of {@code DEBUG, INFO, ERROR, OFF}
+	 */
+	public static void setLevel(int newLevel)
+	{
+		level = newLevel;
+	}
+
+	/**
+	 * Tells if messages of the given level are logged.
+	 *
+	 * @param messageLevel one of {@code DEBUG, INFO, ERROR}
+	 * @return true if the level is enabled
+	 */
+	public static boolean isEnabled(int messageLevel)
+	{
+		return messageLevel >= level && backend.isEnabled(messageLevel);
+	}
+
+	/**
+	 * Tells if debug messages are logged. Use this to skip building arguments that are expensive to compute.
+	 *
+	 * @return true if debug messages are logged
+	 */
+	public static boolean isDebugEnabled()
+	{
+		return isEnabled(DEBUG);
+	}
+
 	public static void i(String message)
 	{
-		Log.i("CardLib", message);
+		log(INFO, message);
+	}
+	public static void i(String format, int arg)
+	{
+		if (isEnabled(INFO))
+			backend.log(INFO, TAG, format(format, Integer.toString(arg), null));
 	}
 	public static void d(String message)
 	{
-		Log.d("CardLib", message);
+		log(DEBUG, message);
+	}
+	public static void d(String format, int arg)
+	{
+		if (isEnabled(DEBUG))
+			backend.log(DEBUG, TAG, format(format, Integer.toString(arg), null));
+	}
+	public static void d(String format, int arg1, int arg2)
+	{
+		if (isEnabled(DEBUG))
+			backend.log(DEBUG, TAG, format(format, Integer.toString(arg1), Integer.toString(arg2)));
+	}
+	public static void d(String format, Object arg)
+	{
+		if (isEnabled(DEBUG))
+			backend.log(DEBUG, TAG, format(format, String.valueOf(arg), null));
+	}
+	public static void d(String format, Object arg1, Object arg2)
+	{
+		if (isEnabled(DEBUG))
+			backend.log(DEBUG, TAG, format(format, String.valueOf(arg1), String.valueOf(arg2)));
 	}
 	public static void e(String message)
 	{
-		Log.e("CardLib", message);
+		log(ERROR, message);
+	}
+	public static void e(String format, Object arg)
+	{
+		if (isEnabled(ERROR))
+			backend.log(ERROR, TAG, format(format, String.valueOf(arg), null));
+	}
+	public static void e(String message, Throwable t)
+	{
+		if (isEnabled(ERROR))
+			backend.log(ERROR, TAG, message + '\n' + getStackTraceString(t));
+	}
+
+	/**
+	 * Gets the stack trace of a throwable and its causes as printed by printStackTrace.
+	 *
+	 * @param t the throwable, may be null
+	 * @return the stack trace, empty for null
+	 */
+	public static String getStackTraceString(Throwable t)
+	{
+		if (t == null)
+			return "";
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		t.printStackTrace(pw);
+		pw.flush();
+		return sw.toString();
+	}
+
+	/**
+	 * Writes a message if its level is enabled.
+	 *
+	 * @param messageLevel the level of the message
+	 * @param message the message
+	 */
+	private static void log(int messageLevel, String message)
+	{
+		if (isEnabled(messageLevel))
+			backend.log(messageLevel, TAG, message);
+	}
+
+	/**
+	 * Replaces the first two {} placeholders of the format with the given arguments.
+	 *
+	 * @param format the message with placeholders
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument, null if there is only one
+	 * @return the formatted message
+	 */
+	static String format(String format, String arg1, String arg2)
+	{
+		int first = format.indexOf("{}");
+		if (first < 0)
+			return format;
+
+		StringBuilder sb = new StringBuilder(format.length() + 16);
+		sb.append(format, 0, first).append(arg1);
+
+		int next = first + 2;
+		int second = arg2 != null ? format.indexOf("{}", next) : -1;
+		if (second >= 0)
+		{
+			sb.append(format, next, second).append(arg2);
+			next = second + 2;
+		}
+		return sb.append(format, next, format.length()).toString();
 	}
 }
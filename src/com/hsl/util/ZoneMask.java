@@ -0,0 +1,172 @@
+/*
+ * ZoneMask.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.util;
+
+/**
+ * The ZoneMask class represents ticket validity areas as bit masks, so that area checks are single bitwise operations.
+ * <p>
+ * Bits 0-7 are the HSL zones A-H and bits 16-31 are the vehicle types 0-15. The masks of all validity areas are computed when the class is loaded:
+ * <ul>
+ * <li>type 0, old municipal areas, are mapped to the zones that replaced them, as in {@code HSLDomicileMappings.getArcDomicile}</li>
+ * <li>type 1, vehicle types, have the bit of the vehicle type</li>
+ * <li>type 2, zone ranges, have the bits of the zones from the first to the last zone of the range</li>
+ * </ul>
+ * Areas without a mapping have the mask 0, which is not contained in or overlapping with any area.
+ * <p>
+ * For example a ticket covers the zone of a stop if {@code ZoneMask.contains(ticketMask, ZoneMask.zone('C'))}.
+ */
+public class ZoneMask
+{
+	/** Validity area type of the old municipal areas. */
+	public static final int TYPE_MUNICIPALITY = 0;
+	/** Validity area type of the vehicle types. */
+	public static final int TYPE_VEHICLE = 1;
+	/** Validity area type of the zone ranges. */
+	public static final int TYPE_ZONES = 2;
+
+	/** The mask of all zones A-H. */
+	public static final int ZONES = 0xFF;
+	/** The mask of all vehicle types. */
+	public static final int VEHICLES = 0xFFFF0000;
+	/** The bit of vehicle type 0. */
+	private static final int VEHICLE_SHIFT = 16;
+
+	/** The number of validity area codes, the validity area field is at most 6 bits long. */
+	private static final int CODES = 64;
+
+	/** The masks of the validity areas, indexed by type and code. */
+	private static final int[][] MASKS = new int[3][CODES];
+
+	static
+	{
+		//old municipal areas and the zones that replaced them
+		MASKS[TYPE_MUNICIPALITY][1] = zones("AB");		// Helsinki
+		MASKS[TYPE_MUNICIPALITY][2] = zones("BC");		// Espoo
+		MASKS[TYPE_MUNICIPALITY][4] = zones("BC");		// Vantaa
+		MASKS[TYPE_MUNICIPALITY][5] = zones("ABC");		// Seutu
+		MASKS[TYPE_MUNICIPALITY][6] = zones("D");		// Knummi-Siuntio
+		MASKS[TYPE_MUNICIPALITY][9] = zones("D");		// Kerava-Sipoo-Tuusula
+		MASKS[TYPE_MUNICIPALITY][14] = zones("BCD");	// Lähiseutu
+		MASKS[TYPE_MUNICIPALITY][15] = zones("ABCD");	// Lähiseutu3
+
+		for (int code = 0; code < CODES; code++)
+		{
+			if (code < 32 - VEHICLE_SHIFT)
+				MASKS[TYPE_VEHICLE][code] = 1 << (VEHICLE_SHIFT + code);
+
+			//zone range: first zone in bits 3-5, last zone in bits 0-2
+			int from = (code >> 3) & 7;
+			int to = code & 7;
+			for (int zone = from; zone <= to; zone++)
+				MASKS[TYPE_ZONES][code] |= 1 << zone;
+		}
+	}
+
+	/**
+	 * Gets the mask of a validity area.
+	 *
+	 * @param type the validity area type, one of {@code TYPE_MUNICIPALITY, TYPE_VEHICLE, TYPE_ZONES}
+	 * @param code the validity area code
+	 * @return the mask, 0 for unknown areas
+	 */
+	public static int forArea(int type, int code)
+	{
+		if (type < 0 || type >= MASKS.length || code < 0 || code >= CODES)
+			return 0;
+		return MASKS[type][code];
+	}
+
+	/**
+	 * Gets the mask of one zone.
+	 *
+	 * @param zone the zone letter, A-H
+	 * @return the mask, 0 for other characters
+	 */
+	public static int zone(char zone)
+	{
+		int index = zone - 'A';
+		return index >= 0 && index < 8 ? 1 << index : 0;
+	}
+
+	/**
+	 * Gets the mask of zones given as a string of zone letters.
+	 *
+	 * @param zones the zone letters, for example "ABC"
+	 * @return the mask
+	 */
+	public static int zones(String zones)
+	{
+		int mask = 0;
+		for (int i = 0; i < zones.length(); i++)
+			mask |= zone(zones.charAt(i));
+		return mask;
+	}
+
+	/**
+	 * Gets the mask of one vehicle type.
+	 *
+	 * @param vehicleType the vehicle type, the code of a type 1 validity area
+	 * @return the mask
+	 */
+	public static int vehicle(int vehicleType)
+	{
+		return forArea(TYPE_VEHICLE, vehicleType);
+	}
+
+	/**
+	 * Tells if an area contains all of another area.
+	 *
+	 * @param mask the mask of the area, for example a ticket's validity area
+	 * @param required the mask of the required area, for example the zone of a stop
+	 * @return true if every bit of the required area is in the area and the required area is not empty
+	 */
+	public static boolean contains(int mask, int required)
+	{
+		return required != 0 && (mask & required) == required;
+	}
+
+	/**
+	 * Tells if two areas have anything in common.
+	 *
+	 * @param mask1 the mask of the first area
+	 * @param mask2 the mask of the second area
+	 * @return true if the areas share a zone or vehicle type
+	 */
+	public static boolean overlaps(int mask1, int mask2)
+	{
+		return (mask1 & mask2) != 0;
+	}
+
+	/**
+	 * Gets the zone letters of a mask, for display.
+	 *
+	 * @param mask the mask
+	 * @return the zone letters in order, for example "ABC", empty if the mask has no zones
+	 */
+	public static String toZoneString(int mask)
+	{
+		StringBuilder sb = new StringBuilder(8);
+		for (int zone = 0; zone < 8; zone++)
+		{
+			if ((mask & (1 << zone)) != 0)
+				sb.append((char) ('A' + zone));
+		}
+		return sb.toString();
+	}
+}
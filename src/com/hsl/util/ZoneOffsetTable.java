@@ -0,0 +1,245 @@
+/*
+ * ZoneOffsetTable.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.util;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ZoneOffsetTable class converts en1545 local dates and times to UTC using a precomputed table of one time zone.
+ * <p>
+ * The table holds the UTC offset of the start of every en1545 day (the whole 14 bit date range, 1.1.1997 - 2041)
+ * and, for days with a daylight saving time transition, the first minute of the day that has the new offset.
+ * A conversion is then an array lookup and some arithmetic instead of a {@code Calendar} instance and a time zone calculation.
+ * <p>
+ * The offsets are taken the same way as before: the local date and time is handed to the offset source as if it were a UTC time.
+ * The results are exact to the minute, which is the resolution of the en1545 time fields.
+ * Days outside the table and days with more than one change of offset are passed to the offset source directly.
+ * The table assumes that the offset does not change and change back within one day.
+ */
+public class ZoneOffsetTable
+{
+	/** The number of days in the table, the range of 14 bit en1545 dates. */
+	public static final int DAYS = 1 << 14;
+	/** The number of minutes in a day. */
+	public static final int MINUTES_PER_DAY = 24 * 60;
+	/** Transition minute of the days that are not a single change of offset. */
+	private static final int IRREGULAR_DAY = -1;
+
+	/**
+	 * The OffsetSource interface provides the UTC offsets the table is built from.
+	 */
+	public interface OffsetSource
+	{
+		/**
+		 * Gets the UTC offset at the given time.
+		 *
+		 * @param millis time in milliseconds since 1.1.1970
+		 * @return the UTC offset in milliseconds
+		 */
+		int getOffset(long millis);
+	}
+
+	/** The tables of the zones used so far, by zone id. */
+	private static final ConcurrentHashMap<String, ZoneOffsetTable> zones = new ConcurrentHashMap<String, ZoneOffsetTable>();
+	/** The table of the default time zone at the last call of {@link #getDefault()}. */
+	private static volatile ZoneOffsetTable defaultZone;
+
+	/** The zone id. */
+	private final String id;
+	/** The offset source for dates outside the table. */
+	private final OffsetSource source;
+	/** The UTC offset in milliseconds at the start of each day, one extra entry for the day after the table. */
+	private final int[] dayOffsets = new int[DAYS + 1];
+	/** The first minute of each day having the offset of the next day, {@code MINUTES_PER_DAY} if the offset does not change during the day. */
+	private final short[] transitionMinutes = new short[DAYS];
+
+	/**
+	 * Instantiates a new table for the given offset source.
+	 * The table is filled in the constructor, which takes a few milliseconds.
+	 *
+	 * @param id the zone id
+	 * @param source the source of the UTC offsets
+	 */
+	public ZoneOffsetTable(String id, OffsetSource source)
+	{
+		this.id = id;
+		this.source = source;
+
+		for (int day = 0; day <= DAYS; day++)
+			dayOffsets[day] = source.getOffset(dayStart(day));
+
+		for (int day = 0; day < DAYS; day++)
+		{
+			if (dayOffsets[day] == dayOffsets[day + 1])
+			{
+				transitionMinutes[day] = MINUTES_PER_DAY;
+				continue;
+			}
+
+			//find the minute of the transition, days with more than one change are left to the offset source
+			int transition = MINUTES_PER_DAY;
+			int previous = dayOffsets[day];
+			for (int minute = 1; minute < MINUTES_PER_DAY; minute++)
+			{
+				int offset = source.getOffset(dayStart(day) + minute * Convert.minuteInMs);
+				if (offset == previous)
+					continue;
+
+				if (transition != MINUTES_PER_DAY || offset != dayOffsets[day + 1])
+				{
+					transition = IRREGULAR_DAY;
+					break;
+				}
+				transition = minute;
+				previous = offset;
+			}
+			transitionMinutes[day] = (short) transition;
+		}
+	}
+
+	/**
+	 * Gets the table of the given time zone. Tables are created on first use and shared after that.
+	 *
+	 * @param timeZone the time zone
+	 * @return the offset table of the zone
+	 */
+	public static ZoneOffsetTable forTimeZone(TimeZone timeZone)
+	{
+		String id = timeZone.getID();
+		ZoneOffsetTable table = zones.get(id);
+
+		if (table == null)
+		{
+			final TimeZone zone = (TimeZone) timeZone.clone();
+			table = new ZoneOffsetTable(id, new OffsetSource() {
+				@Override
+				public int getOffset(long millis) {
+					return zone.getOffset(millis);
+				}
+			});
+			ZoneOffsetTable previous = zones.putIfAbsent(id, table);
+			if (previous != null)
+				table = previous;
+		}
+		return table;
+	}
+
+	/**
+	 * Registers a table for a zone id, for example one built from a custom offset source.
+	 * Later calls of {@link #forTimeZone(TimeZone)} and {@link #getDefault()} for the id return the given table.
+	 *
+	 * @param table the table to use for its zone id
+	 */
+	public static void register(ZoneOffsetTable table)
+	{
+		zones.put(table.getId(), table);
+		defaultZone = null;
+	}
+
+	/**
+	 * Gets the table of the device's default time zone.
+	 *
+	 * @return the offset table of the default zone
+	 */
+	public static ZoneOffsetTable getDefault()
+	{
+		TimeZone timeZone = TimeZone.getDefault();
+		ZoneOffsetTable table = defaultZone;
+
+		if (table == null || !table.id.equals(timeZone.getID()))
+		{
+			table = forTimeZone(timeZone);
+			defaultZone = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the zone id.
+	 *
+	 * @return the zone id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the UTC offset of an en1545 local date and time.
+	 *
+	 * @param date the date in the en1545 format (number of days since 1.1.1997)
+	 * @param time the time in en1545 format (number of minutes since 00:00)
+	 * @return the UTC offset in milliseconds
+	 */
+	public int getOffset(int date, int time)
+	{
+		//times over 24 hours belong to the following days
+		int day = date + time / MINUTES_PER_DAY;
+		int minute = time % MINUTES_PER_DAY;
+
+		if (day < 0 || day >= DAYS || minute < 0 || transitionMinutes[day] == IRREGULAR_DAY)
+			return source.getOffset(dayStart(date) + (long)time * Convert.minuteInMs);
+
+		return minute < transitionMinutes[day] ? dayOffsets[day] : dayOffsets[day + 1];
+	}
+
+	/**
+	 * Converts an en1545 local date and time to UTC.
+	 *
+	 * @param date the date in the en1545 format (number of days since 1.1.1997)
+	 * @param time the time in en1545 format (number of minutes since 00:00)
+	 * @return the time in milliseconds since 1.1.1970
+	 */
+	public long toMillis(int date, int time)
+	{
+		return dayStart(date) + (long)time * Convert.minuteInMs - getOffset(date, time);
+	}
+
+	/**
+	 * Gets the en1545 local date of a UTC time, the reverse of {@link #toMillis(int, int)} for dates.
+	 *
+	 * @param millis the time in milliseconds since 1.1.1970
+	 * @return the local date in the en1545 format (number of days since 1.1.1997), negative before 1997
+	 */
+	public int toDate(long millis)
+	{
+		//start from the UTC date, the local date differs from it by at most one day
+		long utc = millis - Convert.en1545zeroDate;
+		int date = (int) (utc / Convert.dayInMs);
+		if (utc < 0 && utc % Convert.dayInMs != 0)
+			date--;
+
+		if (toMillis(date + 1, 0) <= millis)
+			date++;
+		else if (toMillis(date, 0) > millis)
+			date--;
+		return date;
+	}
+
+	/**
+	 * Gets the local start of an en1545 day as if it were a UTC time.
+	 *
+	 * @param date the date in the en1545 format (number of days since 1.1.1997)
+	 * @return the start of the day in milliseconds since 1.1.1970
+	 */
+	private static long dayStart(int date)
+	{
+		return (long)date * Convert.dayInMs + Convert.en1545zeroDate;
+	}
+}
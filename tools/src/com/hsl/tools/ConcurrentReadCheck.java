@@ -0,0 +1,176 @@
+/*
+ * ConcurrentReadCheck.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.hsl.cardproducts.SingleTicket;
+import com.hsl.cardproducts.TravelCard;
+import com.hsl.cardproducts.TravelCardCodec;
+import com.hsl.cardproducts.eTicket;
+import com.hsl.example.CardOperations;
+import com.hsl.example.SimulatedCard;
+
+/**
+ * Stress test for reading cards from many threads at the same time with {@code CardOperations}.
+ * <p>
+ * Every thread has its own simulated travel card and single ticket with random contents, and reads them again and again.
+ * Each result is compared with the card decoded directly from the file data, so a reader that shares state between
+ * sessions shows up as cards with the data of another thread. Run it after changing {@code CardReader}:
+ * <pre>
+ * javac -cp android.jar -d build src/com/hsl/util/*.java src/com/hsl/cardproducts/*.java src/com/hsl/example/*.java tools/src/com/hsl/tools/ConcurrentReadCheck.java
+ * java -cp android.jar:build com.hsl.tools.ConcurrentReadCheck [threads] [reads] [seed]
+ * </pre>
+ * The exit status is 1 if any card was read wrong or a read failed.
+ */
+public class ConcurrentReadCheck
+{
+	/** The lengths of the ApplicationInformation, ControlInformation, PeriodPass, StoredValue and eTicket files of card version 1. */
+	private static final int[] FILE_LENGTHS = { 11, 6, 32, 12, 26 };
+	/** The lengths of the same files of card version 2. */
+	private static final int[] FILE_LENGTHS_V2 = { 11, 10, 35, 13, 45 };
+	/** The largest number of history records. */
+	private static final int MAX_HISTORY_RECORDS = 8;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args the number of threads, 16 by default, the number of reads of each card per thread, 2000 by default, and the random seed
+	 * @throws Exception if a thread fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		final int reads = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+
+		System.out.println("Seed " + seed + ", " + threads + " threads, " + reads + " reads per card");
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < threads; i++)
+		{
+			final long threadSeed = seed + i;
+			results.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return readCards(new Random(threadSeed), reads);
+				}
+			}));
+		}
+
+		int failures = 0;
+		try {
+			for (Future<Integer> result : results)
+				failures += result.get();
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		System.out.println((2L * threads * reads) + " reads, " + failures + " wrong");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Reads a travel card and a single ticket with random contents many times.
+	 *
+	 * @param random the source of the card contents
+	 * @param reads the number of reads of each card
+	 * @return the number of reads that gave a wrong card or failed
+	 */
+	static int readCards(Random random, int reads)
+	{
+		int version = 1 + random.nextInt(2);
+		int[] lengths = version == 2 ? FILE_LENGTHS_V2 : FILE_LENGTHS;
+		byte[][] files = new byte[6][];
+		for (int i = 0; i < 5; i++)
+			files[i] = randomBytes(random, lengths[i]);
+		files[5] = randomBytes(random, random.nextInt(MAX_HISTORY_RECORDS + 1) * SimulatedCard.HISTORY_RECORD_LENGTH);
+
+		SimulatedCard travelCard = SimulatedCard.travelCard(version, files[0], files[1], files[2], files[3], files[4], files[5]);
+		TravelCardCodec codec = new TravelCardCodec();
+		byte[] expected = codec.encode(new TravelCard(files[0], files[1], files[2], files[3], files[4], files[5], version));
+
+		byte[] pages = randomBytes(random, 64);
+		SimulatedCard singleTicket = SimulatedCard.singleTicket(pages);
+		singleTicket.setFastReadSupported(random.nextBoolean());
+		String expectedTicket = toString(new SingleTicket(Arrays.copyOf(pages, 23), Arrays.copyOfRange(pages, 23, 64)));
+
+		int failures = 0;
+		for (int i = 0; i < reads; i++)
+		{
+			//a read that fails is as wrong as a read giving the data of another card
+			try {
+				if (!Arrays.equals(codec.encode(CardOperations.readTravelCardData(travelCard)), expected))
+					failures++;
+			}
+			catch (Exception e) {
+				failures++;
+			}
+			try {
+				if (!toString(CardOperations.readSingleCardData(singleTicket, (i & 1) == 0)).equals(expectedTicket))
+					failures++;
+			}
+			catch (Exception e) {
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Creates an array of random bytes.
+	 *
+	 * @param random the source of the bytes
+	 * @param length the length of the array
+	 * @return the array
+	 */
+	private static byte[] randomBytes(Random random, int length)
+	{
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Gets the fields of a single ticket as a string for comparison.
+	 *
+	 * @param ticket the single ticket
+	 * @return the field values
+	 */
+	private static String toString(SingleTicket ticket)
+	{
+		eTicket value = ticket.getValueTicket();
+		return ticket.getApplicationInstanceId() + "," + ticket.getApplicationVersion() + "," + ticket.getApplicationKeyVersion()
+				+ "," + ticket.getPlatformType() + "," + ticket.getSecurityLevel()
+				+ "," + value.getProductCode() + "," + value.getValidityAreaType() + "," + value.getValidityArea()
+				+ "," + value.getGroupSize() + "," + value.getSaleDateMillis() + "," + value.getSaleTime()
+				+ "," + value.getValidityStartDateMillis() + "," + value.getValidityEndDateMillis()
+				+ "," + value.getBoardingDateMillis() + "," + value.getBoardingLocationNum();
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * DecoderCheck.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hsl.tools;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.hsl.cardproducts.CardLayouts;
+import com.hsl.cardproducts.LayoutDecoders;
+import com.hsl.util.FileLayout;
+
+/**
+ * Checks that the generated {@code com.hsl.cardproducts.LayoutDecoders} give the same values as {@code FileLayout.decode}.
+ * <p>
+ * Every layout in {@code CardLayouts} is decoded from random data at random offsets with both the generated method and the layout,
+ * and the values are compared. Run it after running {@link DecoderGenerator}:
+ * <pre>
+ * javac -d build src/com/hsl/util/*.java src/com/hsl/cardproducts/CardLayouts.java src/com/hsl/cardproducts/LayoutDecoders.java tools/src/com/hsl/tools/*.java
+ * java -cp build com.hsl.tools.DecoderCheck [rounds] [seed]
+ * </pre>
+ * The exit status is 1 if a layout has no decoder or any value differs.
+ */
+public class DecoderCheck
+{
+	/** The largest offset of the file in the test buffer. */
+	private static final int MAX_OFFSET = 16;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args the number of rounds per layout, 10000 by default, and the random seed
+	 * @throws Exception if a layout or decoder can not be called
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+		Random random = new Random(seed);
+		int failures = 0;
+		int layouts = 0;
+
+		System.out.println("Seed " + seed + ", " + rounds + " rounds per layout");
+		for (Field field : CardLayouts.class.getFields())
+		{
+			if (field.getType() != FileLayout.class || !Modifier.isStatic(field.getModifiers()))
+				continue;
+
+			layouts++;
+			if (!check(field.getName(), (FileLayout) field.get(null), rounds, random))
+				failures++;
+		}
+
+		System.out.println(layouts + " layouts, " + failures + " failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Compares the generated decoder of one layout to the layout.
+	 *
+	 * @param constant the name of the layout constant in CardLayouts
+	 * @param layout the layout
+	 * @param rounds the number of random files to decode
+	 * @param random the source of the data
+	 * @return true if all values were equal
+	 * @throws Exception if the decoder can not be called
+	 */
+	static boolean check(String constant, FileLayout layout, int rounds, Random random) throws Exception
+	{
+		String name = DecoderGenerator.methodName(constant);
+		Method decoder;
+		try {
+			decoder = LayoutDecoders.class.getMethod(name, byte[].class, int.class, int[].class);
+		}
+		catch (NoSuchMethodException e) {
+			System.out.println(constant + ": no decoder " + name + ", run DecoderGenerator");
+			return false;
+		}
+
+		byte[] data = new byte[layout.getLength() + MAX_OFFSET];
+		int[] expected = new int[layout.getFieldCount()];
+		int[] actual = new int[layout.getFieldCount()];
+
+		for (int round = 0; round < rounds; round++)
+		{
+			random.nextBytes(data);
+			//all zero and all one bits as well as random data
+			if (round == 0)
+				Arrays.fill(data, (byte) 0);
+			else if (round == 1)
+				Arrays.fill(data, (byte) 0xFF);
+			int offset = random.nextInt(MAX_OFFSET + 1);
+
+			layout.decode(data, offset, expected);
+			Arrays.fill(actual, -1);
+			decoder.invoke(null, data, offset, actual);
+
+			for (int slot = 0; slot < expected.length; slot++)
+			{
+				if (expected[slot] != actual[slot])
+				{
+					System.out.println(constant + "." + layout.getFieldName(slot) + ": " + actual[slot] + " != " + expected[slot]
+							+ " at offset " + offset + " of " + Arrays.toString(data));
+					return false;
+				}
+			}
+		}
+
+		System.out.println(constant + ": ok");
+		return true;
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * DecoderGenerator.java
+ *
+ * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hsl.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import com.hsl.cardproducts.CardLayouts;
+import com.hsl.util.FileLayout;
+
+/**
+ * Build step that generates {@code com.hsl.cardproducts.LayoutDecoders} from the layouts in {@code CardLayouts}.
+ * <p>
+ * Each layout becomes a static method that extracts every field with a fixed sequence of shifts and masks on constant offsets,
+ * so the decoding of the most used files does not go through the loop of {@code FileLayout.decode}.
+ * Run it after changing {@code CardLayouts} and commit the result:
+ * <pre>
+ * javac -d build src/com/hsl/util/*.java src/com/hsl/cardproducts/CardLayouts.java tools/src/com/hsl/tools/DecoderGenerator.java
+ * java -cp build com.hsl.tools.DecoderGenerator src
+ * </pre>
+ * Android sources are not needed, the generator only loads the layouts. Check the result with {@link DecoderCheck}.
+ */
+public class DecoderGenerator
+{
+	/** Line separator of the generated file, same as in the other sources. */
+	private static final String NL = "\r\n";
+
+	/**
+	 * Generates the decoder source into the given source directory.
+	 *
+	 * @param args the source root directory, {@code src} by default
+	 * @throws Exception if the layouts can not be read or the file can not be written
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		File root = new File(args.length > 0 ? args[0] : "src");
+		File out = new File(root, "com/hsl/cardproducts/LayoutDecoders.java");
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+		try {
+			writer.write(generate());
+		}
+		finally {
+			writer.close();
+		}
+		System.out.println("Wrote " + out);
+	}
+
+	/**
+	 * Generates the decoder source for all layouts declared in {@code CardLayouts}.
+	 *
+	 * @return the Java source of the LayoutDecoders class
+	 * @throws IllegalAccessException if a layout constant can not be read
+	 */
+	public static String generate() throws IllegalAccessException
+	{
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("/*").append(NL)
+			.append(" * LayoutDecoders.java").append(NL)
+			.append(" *").append(NL)
+			.append(" * Copyright (C) 2018 HSL/HRT (Helsingin seudun liikenne/ Helsinki Region Transport)").append(NL)
+			.append(" *").append(NL)
+			.append(" * Licensed under the Apache License, Version 2.0 (the \"License\");").append(NL)
+			.append(" * you may not use this file except in compliance with the License.").append(NL)
+			.append(" * You may obtain a copy of the License at").append(NL)
+			.append(" *").append(NL)
+			.append(" *   http://www.apache.org/licenses/LICENSE-2.0").append(NL)
+			.append(" *").append(NL)
+			.append(" * Unless required by applicable law or agreed to in writing, software").append(NL)
+			.append(" * distributed under the License is distributed on an \"AS IS\" BASIS,").append(NL)
+			.append(" * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.").append(NL)
+			.append(" * See the License for the specific language governing permissions and").append(NL)
+			.append(" * limitations under the License.").append(NL)
+			.append(" */").append(NL)
+			.append(NL)
+			.append("package com.hsl.cardproducts;").append(NL)
+			.append(NL)
+			.append("/**").append(NL)
+			.append(" * The LayoutDecoders class contains a straight-line decoder for each layout in {@code CardLayouts}.").append(NL)
+			.append(" * <p>").append(NL)
+			.append(" * Each method gives the same values as {@code FileLayout.decode} of the corresponding layout.").append(NL)
+			.append(" * <p>").append(NL)
+			.append(" * Generated by com.hsl.tools.DecoderGenerator from CardLayouts. Do not edit.").append(NL)
+			.append(" */").append(NL)
+			.append("public final class LayoutDecoders").append(NL)
+			.append("{").append(NL)
+			.append("\tprivate LayoutDecoders() {}").append(NL);
+
+		for (Field field : CardLayouts.class.getFields())
+		{
+			if (field.getType() != FileLayout.class || !Modifier.isStatic(field.getModifiers()))
+				continue;
+
+			appendDecoder(sb, field.getName(), (FileLayout) field.get(null));
+		}
+
+		sb.append("}").append(NL);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the decoder method of one layout.
+	 *
+	 * @param sb the builder for the generated source
+	 * @param constant the name of the layout constant in CardLayouts
+	 * @param layout the layout
+	 */
+	private static void appendDecoder(StringBuilder sb, String constant, FileLayout layout)
+	{
+		sb.append(NL)
+			.append("\t/**").append(NL)
+			.append("\t * Extracts the fields of {@code CardLayouts.").append(constant).append("} (").append(layout.getName()).append(").").append(NL)
+			.append("\t *").append(NL)
+			.append("\t * @param d byte array containing the file data").append(NL)
+			.append("\t * @param o offset of the file in the byte array").append(NL)
+			.append("\t * @param v array for the field values, indexed by slot number").append(NL)
+			.append("\t */").append(NL)
+			.append("\tpublic static void ").append(methodName(constant)).append("(byte[] d, int o, int[] v)").append(NL)
+			.append("\t{").append(NL);
+
+		for (int slot = 0; slot < layout.getFieldCount(); slot++)
+		{
+			sb.append("\t\tv[").append(slot).append("] = ");
+			if (!layout.hasField(slot))
+			{
+				sb.append("0;").append(NL);
+				continue;
+			}
+			sb.append(expression(layout.getBitOffset(slot), layout.getBitLength(slot)))
+				.append("; // ").append(layout.getFieldName(slot)).append(NL);
+		}
+
+		sb.append("\t}").append(NL);
+	}
+
+	/**
+	 * Builds the shift and mask expression of one field.
+	 *
+	 * @param bitOffset offset of the field
+	 * @param bitLength length of the field
+	 * @return the Java expression extracting the field from {@code d} at offset {@code o}
+	 */
+	static String expression(int bitOffset, int bitLength)
+	{
+		int first = bitOffset >>> 3;
+		int last = (bitOffset + bitLength - 1) >>> 3;
+		int shift = ((last + 1) << 3) - (bitOffset + bitLength);
+		int mask = (1 << bitLength) - 1;
+		StringBuilder sb = new StringBuilder();
+
+		//combine the covered bytes to one value
+		for (int i = first; i <= last; i++)
+		{
+			int byteShift = ((last - i) << 3) - shift;
+			if (i > first)
+				sb.append(" | ");
+
+			String b = "(d[o + " + i + "] & 0xFF)";
+			if (byteShift > 0)
+				sb.append("(").append(b).append(" << ").append(byteShift).append(")");
+			else if (byteShift < 0)
+				sb.append("(").append(b).append(" >>> ").append(-byteShift).append(")");
+			else
+				sb.append(b);
+		}
+
+		//bits above the field come only from the first byte, mask is needed if the field does not start on a byte boundary
+		if ((bitOffset & 7) == 0)
+			return sb.toString();
+
+		String value = last > first ? "(" + sb + ")" : sb.toString();
+		return value + " & 0x" + Integer.toHexString(mask).toUpperCase();
+	}
+
+	/**
+	 * Converts a layout constant name to a decoder method name, for example PERIOD_PASS_V2 to periodPassV2.
+	 *
+	 * @param constant the name of the layout constant
+	 * @return the method name
+	 */
+	static String methodName(String constant)
+	{
+		StringBuilder sb = new StringBuilder();
+		String[] words = constant.toLowerCase().split("_");
+
+		for (int i = 0; i < words.length; i++)
+		{
+			String word = words[i];
+			if (word.equals("eticket"))
+				word = i == 0 ? "eTicket" : "ETicket";
+			else if (i > 0)
+				word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+			sb.append(word);
+		}
+		return sb.toString();
+	}
+}